@@ -22,8 +22,11 @@
 package com.opennaru.khan.session;
 
 import com.opennaru.khan.session.filter.KhanSessionFilter;
+import com.opennaru.khan.session.management.AttributeStatistics;
 import com.opennaru.khan.session.manager.KhanSessionManager;
+import com.opennaru.khan.session.store.SerializedSizeRecorder;
 import com.opennaru.khan.session.store.SessionStore;
+import com.opennaru.khan.session.util.SerializationUtil;
 import com.opennaru.khan.session.util.StackTraceUtil;
 import com.opennaru.khan.session.util.StringUtils;
 import org.slf4j.Logger;
@@ -32,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpSession;
 import javax.servlet.http.HttpSessionContext;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -102,6 +106,36 @@ public class KhanHttpSession implements HttpSession, Serializable {
      */
     private transient KhanSessionManager sessionManager = null;
 
+    /**
+     *  client ip (새로 생성되는 세션의 metadata에 저장)
+     */
+    private String clientIp;
+
+    /**
+     *  SessionStore에서 세션을 읽었는지
+     */
+    private transient boolean loaded = false;
+
+    /**
+     *  setAttribute/removeAttribute 이후 저장되지 않은 변경이 있는지
+     */
+    private transient boolean attributesDirty = false;
+
+    /**
+     *  Attribute별 serialize된 값의 checksum (enableAttributeHash)
+     */
+    private transient Map<Object, Long> attributeChecksums = null;
+
+    /**
+     *  _META_ / _ATTR_ 두 개의 키에서 읽은 세션인지 (enableCombinedRecord)
+     */
+    private transient boolean legacyLayout = false;
+
+    /**
+     *  세션을 읽을 때 store의 만료 시간도 연장했는지 (SessionStore.loadSession)
+     */
+    private transient boolean touchedOnLoad = false;
+
     /**
      * Constructor
      *
@@ -136,18 +170,63 @@ public class KhanHttpSession implements HttpSession, Serializable {
         // set session timeout seconds
         setMaxInactiveInterval(timeoutMin * 60);
 
-        khanSessionMetadata = sessionStore.get(keyGenerator.generate(METADATA_KEY));
-        if (khanSessionMetadata == null) {
-            isNewlyCreated = true;
-            khanSessionMetadata = new KhanSessionMetadata();
-            khanSessionMetadata.setInvalidated(false);
-            khanSessionMetadata.setCreationTime(new Date());
-            khanSessionMetadata.setClientIp(clientIp);
-            sessionStore.put(keyGenerator.generate(METADATA_KEY), khanSessionMetadata, getMaxInactiveInterval());
-            sessionStore.put(keyGenerator.generate(ATTRIBUTES_KEY), attributes, getMaxInactiveInterval());
+        this.clientIp = clientIp;
+
+        KhanSessionConfig config = KhanSessionFilter.getKhanSessionConfig();
+        if (config == null || !config.isEnableLazyLoad()) {
+            loadFromStore();
         }
+    }
 
-        attributes = sessionStore.get(keyGenerator.generate(ATTRIBUTES_KEY));
+    /**
+     * Load metadata and attributes from SessionStore
+     * lazy load 모드에서는 세션에 처음 접근할 때 호출된다.
+     */
+    @SuppressWarnings("unchecked")
+    private void loadFromStore() {
+        loaded = true;
+
+        // 같은 세션의 write-behind 저장이 대기 중이면 먼저 저장
+        if (sessionManager != null) {
+            sessionManager.flushPendingSave(khanSessionId);
+        }
+
+        if (KhanSessionRecord.isEnabled()) {
+            KhanSessionRecord record = KhanSessionRecord.load(sessionStore, khanNamespace, khanSessionId, getMaxInactiveInterval());
+            if (record != null && record.getMetadata() != null) {
+                khanSessionMetadata = record.getMetadata();
+                attributes = record.getAttributes();
+                legacyLayout = record.isLegacy();
+                touchedOnLoad = sessionStore.isTouchSupported();
+            } else {
+                legacyLayout = record != null;
+                isNewlyCreated = true;
+                khanSessionMetadata = createMetadata();
+                saveRecordToStore();
+            }
+        } else {
+            // metadata와 attribute를 읽으면서 만료 시간을 연장한다
+            String metadataKey = keyGenerator.generate(METADATA_KEY);
+            String attributesKey = keyGenerator.generate(ATTRIBUTES_KEY);
+            Map<String, Serializable> values = sessionStore.loadSession(Arrays.asList(metadataKey, attributesKey), getMaxInactiveInterval());
+
+            khanSessionMetadata = (KhanSessionMetadata) values.get(metadataKey);
+            if (khanSessionMetadata == null) {
+                isNewlyCreated = true;
+                khanSessionMetadata = createMetadata();
+                Map<String, Serializable> entries = new HashMap<String, Serializable>();
+                entries.put(metadataKey, khanSessionMetadata);
+                entries.put(attributesKey, attributes);
+                sessionStore.putAll(entries, getMaxInactiveInterval());
+            } else {
+                attributes = (ConcurrentHashMap<Object, Object>) values.get(attributesKey);
+                touchedOnLoad = attributes != null && sessionStore.isTouchSupported();
+            }
+        }
+
+        if (isAttributeHashEnabled()) {
+            attributeChecksums = checksumAttributes(null);
+        }
 
         if( log.isDebugEnabled() ) {
             log.debug("keyGenerator.generate(ATTRIBUTES_KEY)=" + keyGenerator.generate(ATTRIBUTES_KEY));
@@ -159,10 +238,39 @@ public class KhanHttpSession implements HttpSession, Serializable {
         //sessionManager.addSessionId(khanSessionId);
 
         if (log.isDebugEnabled()) {
-            log.debug("New KhanHttpSession is created. (khanSessionId: " + sessionId + ", attributes: " + attributes + ")");
+            log.debug("New KhanHttpSession is created. (khanSessionId: " + khanSessionId + ", attributes: " + attributes + ")");
         }
     }
 
+    /**
+     * Create metadata of new session
+     * @return
+     */
+    private KhanSessionMetadata createMetadata() {
+        KhanSessionMetadata metadata = new KhanSessionMetadata();
+        metadata.setInvalidated(false);
+        metadata.setCreationTime(new Date());
+        metadata.setClientIp(clientIp);
+        return metadata;
+    }
+
+    /**
+     * Load session if it is not loaded yet
+     */
+    private void ensureLoaded() {
+        if (!loaded) {
+            loadFromStore();
+        }
+    }
+
+    /**
+     * Check if session is loaded from SessionStore
+     * @return
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
     /**
      * Get KhanSessionManager
      * @return
@@ -184,6 +292,7 @@ public class KhanHttpSession implements HttpSession, Serializable {
      * @return
      */
     public boolean isValid() {
+        ensureLoaded();
 
         if (log.isDebugEnabled()) {
             log.debug(">>>isValid/ metadata=" + khanSessionMetadata + ",attribute=" + attributes);
@@ -214,28 +323,122 @@ public class KhanHttpSession implements HttpSession, Serializable {
      * reload attributes
      */
     public void reloadAttributes() {
-        attributes = sessionStore.get(keyGenerator.generate(ATTRIBUTES_KEY));
+        ensureLoaded();
+        if (KhanSessionRecord.isEnabled()) {
+            attributes = KhanSessionRecord.loadAttributes(sessionStore, khanNamespace, khanSessionId);
+        } else {
+            attributes = sessionStore.get(keyGenerator.generate(ATTRIBUTES_KEY));
+        }
     }
 
     public ConcurrentHashMap<Object, Object> toMap() {
+        ensureLoaded();
         return attributes;
     }
 
     /**
      * Save session attributes
+     * 세션을 읽지 않았으면 저장하지 않는다.
      */
     public void save() {
+        if (!loaded) {
+            if (log.isDebugEnabled()) {
+                log.debug("save skipped. session is not loaded. (khanSessionId: " + khanSessionId + ")");
+            }
+            return;
+        }
+
         if (isValid()) {
-            saveAttributesToStore();
-            if (!isNewlyCreated) {
-                khanSessionMetadata.setLastAccessedTime(new Date());
+            if (KhanSessionRecord.isEnabled()) {
+                saveCombinedRecord();
+                return;
+            }
+
+            // 저장할 값을 모아서 한 번에 쓴다
+            Map<String, Serializable> writes = new HashMap<String, Serializable>();
+            String attributesKey = keyGenerator.generate(ATTRIBUTES_KEY);
+            if (isAttributesChanged()) {
+                writes.put(attributesKey, toMap());
+            } else if (touchedOnLoad || sessionStore.touch(attributesKey, getMaxInactiveInterval())) {
+                // 변경이 없으면 만료 시간만 연장
+                if (log.isDebugEnabled()) {
+                    log.debug("attributes are not changed. (khanSessionId: " + khanSessionId + ")");
+                }
+                KhanSessionManager.getInstance(this.getServletContext().getContextPath()).touchSessionId(this);
+            } else {
+                // store에서 만료된 경우 다시 저장
+                writes.put(attributesKey, toMap());
+            }
+            addMetadataWrite(writes);
+
+            if (!writes.isEmpty()) {
+                SerializedSizeRecorder.start();
+                sessionStore.putAll(writes, getMaxInactiveInterval());
+            }
+            if (writes.containsKey(attributesKey)) {
+                attributesSaved();
             }
-            sessionStore.put(keyGenerator.generate(METADATA_KEY), khanSessionMetadata, getMaxInactiveInterval());
         } else {
             removeAttributesFromStore();
         }
     }
 
+    /**
+     * Save session record (enableCombinedRecord)
+     * 변경된 것이 없으면 레코드의 만료 시간만 연장한다.
+     */
+    private void saveCombinedRecord() {
+        Date now = new Date();
+        boolean accessTimeExpired = !isNewlyCreated && isAccessTimeExpired(now);
+        if (accessTimeExpired) {
+            khanSessionMetadata.setLastAccessedTime(now);
+        }
+
+        if (legacyLayout || isNewlyCreated || accessTimeExpired || isAttributesChanged()
+                || !(touchedOnLoad || sessionStore.touch(keyGenerator.generate(KhanSessionRecord.RECORD_KEY), getMaxInactiveInterval()))) {
+            saveAttributesToStore();
+        } else {
+            KhanSessionManager.getInstance(this.getServletContext().getContextPath()).touchSessionId(this);
+        }
+    }
+
+    /**
+     * Add metadata to writes if it should be saved
+     * lastAccessedTime은 accessTimeGranularity(초) 단위로만 갱신하고,
+     * 그 사이에는 만료 시간만 연장한다.
+     * (metadata의 다른 값은 세션 생성/invalidate 때만 바뀐다)
+     *
+     * @param writes
+     */
+    private void addMetadataWrite(Map<String, Serializable> writes) {
+        String metadataKey = keyGenerator.generate(METADATA_KEY);
+
+        if (!isNewlyCreated) {
+            Date now = new Date();
+            if (!isAccessTimeExpired(now)
+                    && (touchedOnLoad || sessionStore.touch(metadataKey, getMaxInactiveInterval()))) {
+                return;
+            }
+            khanSessionMetadata.setLastAccessedTime(now);
+        }
+        writes.put(metadataKey, khanSessionMetadata);
+    }
+
+    /**
+     * 저장된 lastAccessedTime이 accessTimeGranularity보다 오래되었는지 체크
+     *
+     * @param now
+     * @return
+     */
+    private boolean isAccessTimeExpired(Date now) {
+        KhanSessionConfig config = KhanSessionFilter.getKhanSessionConfig();
+        int granularitySec = config == null ? 0 : config.getAccessTimeGranularitySec();
+        Date lastAccessedTime = khanSessionMetadata.getLastAccessedTime();
+
+        return granularitySec <= 0 || lastAccessedTime == null
+                || now.getTime() - lastAccessedTime.getTime() >= granularitySec * 1000L;
+    }
+
     @Override
     public String getId() {
         return khanSessionId;
@@ -254,6 +457,10 @@ public class KhanHttpSession implements HttpSession, Serializable {
         Object value = null;
         if (isValid()) {
             value = attributes.get(name);
+            AttributeStatistics statistics = getAttributeStatistics();
+            if (statistics != null) {
+                statistics.recordRead(name);
+            }
         } else {
             value = null;
         }
@@ -315,7 +522,11 @@ public class KhanHttpSession implements HttpSession, Serializable {
         }
 
         try {
-            KhanSessionManager.getInstance(this.getServletContext().getContextPath()).removeSessionId(this);
+            ensureLoaded();
+            KhanSessionManager manager = KhanSessionManager.getInstance(this.getServletContext().getContextPath());
+            // 대기 중인 write-behind 저장이 세션을 되살리지 않도록 먼저 취소
+            manager.cancelPendingSave(khanSessionId);
+            manager.removeSessionId(this);
 
             session.invalidate();
             attributes.clear();
@@ -340,8 +551,10 @@ public class KhanHttpSession implements HttpSession, Serializable {
     public void removeAttribute(String name) {
 //        BUG : Session attribute restored when remove attribute
 //        reloadAttributes();
+        ensureLoaded();
         if( attributes != null )
             attributes.remove(name);
+        attributesDirty = true;
         saveAttributesToStore();
     }
 
@@ -370,6 +583,12 @@ public class KhanHttpSession implements HttpSession, Serializable {
                 }
 
                 attributes.put(name, (Serializable) value);
+                attributesDirty = true;
+
+                AttributeStatistics statistics = getAttributeStatistics();
+                if (statistics != null) {
+                    statistics.recordWrite(name);
+                }
 
                 // spring-security 사용할 때 켜기
                 KhanSessionConfig config = KhanSessionFilter.getKhanSessionConfig();
@@ -416,6 +635,7 @@ public class KhanHttpSession implements HttpSession, Serializable {
      */
     @Override
     public long getCreationTime() {
+        ensureLoaded();
         if (khanSessionMetadata == null || khanSessionMetadata.getCreationTime() == null) {
             return 0L;
         } else {
@@ -429,6 +649,7 @@ public class KhanHttpSession implements HttpSession, Serializable {
      */
     @Override
     public long getLastAccessedTime() {
+        ensureLoaded();
         if (khanSessionMetadata == null || khanSessionMetadata.getLastAccessedTime() == null) {
             return 0L;
         } else {
@@ -461,6 +682,7 @@ public class KhanHttpSession implements HttpSession, Serializable {
      */
     @Override
     public boolean isNew() {
+        ensureLoaded();
         return isNewlyCreated;
     }
 
@@ -510,16 +732,155 @@ public class KhanHttpSession implements HttpSession, Serializable {
      * Save Attributes to SessionStore
      */
     private void saveAttributesToStore() {
-        sessionStore.put(keyGenerator.generate(ATTRIBUTES_KEY), toMap(), getMaxInactiveInterval());
-        KhanSessionManager.getInstance(this.getServletContext().getContextPath()).putSessionId(this);
+        SerializedSizeRecorder.start();
+        if (KhanSessionRecord.isEnabled()) {
+            ensureLoaded();
+            saveRecordToStore();
+        } else {
+            sessionStore.put(keyGenerator.generate(ATTRIBUTES_KEY), toMap(), getMaxInactiveInterval());
+        }
+        attributesSaved();
+    }
+
+    /**
+     * Attribute가 저장된 뒤 dirty 상태와 checksum을 갱신
+     * 저장소가 marshalling 한 byte 수를 메모리 통계에 넘긴다.
+     */
+    private void attributesSaved() {
+        long serializedSize = SerializedSizeRecorder.take();
+        attributesDirty = false;
+        AttributeStatistics statistics = getAttributeStatistics();
+        if (isAttributeHashEnabled()) {
+            attributeChecksums = checksumAttributes(statistics);
+        } else if (statistics != null && statistics.isSampled()) {
+            recordAttributeSizes(statistics);
+        }
+        KhanSessionManager.getInstance(this.getServletContext().getContextPath()).putSessionId(this, serializedSize);
+    }
+
+    /**
+     * Save metadata and attributes as one record
+     * _META_ / _ATTR_ 키에서 읽은 세션이면 두 키를 지운다.
+     */
+    private void saveRecordToStore() {
+        KhanSessionRecord record = new KhanSessionRecord(khanSessionMetadata, attributes);
+        record.setLegacy(legacyLayout);
+        record.save(sessionStore, khanNamespace, khanSessionId, getMaxInactiveInterval());
+        legacyLayout = false;
+    }
+
+    /**
+     * Check if dirty check is enabled
+     * @return
+     */
+    private boolean isDirtyCheckEnabled() {
+        KhanSessionConfig config = KhanSessionFilter.getKhanSessionConfig();
+        return config != null && config.isEnableDirtyCheck();
+    }
+
+    /**
+     * Check if attribute checksum is enabled
+     * @return
+     */
+    private boolean isAttributeHashEnabled() {
+        KhanSessionConfig config = KhanSessionFilter.getKhanSessionConfig();
+        return config != null && config.isEnableAttributeHash();
+    }
+
+    /**
+     * 저장해야 할 Attribute 변경이 있는지 체크
+     * dirty check가 꺼져 있으면 항상 true
+     *
+     * @return
+     */
+    private boolean isAttributesChanged() {
+        if (!isDirtyCheckEnabled() || attributesDirty) {
+            return true;
+        }
+
+        if (isAttributeHashEnabled()) {
+            Map<Object, Long> checksums = checksumAttributes(null);
+            if (checksums == null || !checksums.equals(attributeChecksums)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Attribute별 checksum을 계산
+     * serialize 할 수 없는 값이 있으면 null을 반환
+     *
+     * @param statistics serialize 크기를 기록할 통계 (null 이면 기록하지 않음)
+     * @return
+     */
+    private Map<Object, Long> checksumAttributes(AttributeStatistics statistics) {
+        if (attributes == null) {
+            return null;
+        }
+
+        Map<Object, Long> checksums = new HashMap<Object, Long>();
+        try {
+            for (Map.Entry<Object, Object> entry : attributes.entrySet()) {
+                byte[] bytes = SerializationUtil.toBytes(entry.getValue());
+                checksums.put(entry.getKey(), SerializationUtil.checksum(bytes));
+                if (statistics != null) {
+                    statistics.recordSize(String.valueOf(entry.getKey()), bytes.length);
+                }
+            }
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Attribute checksum failed. (khanSessionId: " + khanSessionId + ")", e);
+            }
+            return null;
+        }
+        return checksums;
+    }
+
+    /**
+     * Attribute별 serialize 크기를 기록 (enableAttributeStatistics, sample 된 저장에서만)
+     *
+     * @param statistics
+     */
+    private void recordAttributeSizes(AttributeStatistics statistics) {
+        if (attributes == null) {
+            return;
+        }
+        for (Map.Entry<Object, Object> entry : attributes.entrySet()) {
+            try {
+                statistics.recordSize(String.valueOf(entry.getKey()), SerializationUtil.toBytes(entry.getValue()).length);
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Attribute size failed. (name: " + entry.getKey() + ")", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Attribute 통계 (enableAttributeStatistics가 아니면 null)
+     * @return
+     */
+    private AttributeStatistics getAttributeStatistics() {
+        KhanSessionConfig config = KhanSessionFilter.getKhanSessionConfig();
+        if (config == null || !config.isEnableAttributeStatistics()) {
+            return null;
+        }
+        KhanSessionManager manager = KhanSessionManager.getInstance(this.getServletContext().getContextPath());
+        return manager == null ? null : manager.getAttributeStatistics();
     }
 
     /**
      * Remove attributes from SessionStore
      */
     private void removeAttributesFromStore() {
-        sessionStore.remove(keyGenerator.generate(ATTRIBUTES_KEY));
-        sessionStore.remove(keyGenerator.generate(METADATA_KEY));
+        if (KhanSessionRecord.isEnabled()) {
+            sessionStore.remove(keyGenerator.generate(KhanSessionRecord.RECORD_KEY));
+        }
+        if (!KhanSessionRecord.isEnabled() || legacyLayout) {
+            sessionStore.removeAll(Arrays.asList(
+                    keyGenerator.generate(ATTRIBUTES_KEY), keyGenerator.generate(METADATA_KEY)));
+        }
 
         KhanSessionManager.getInstance(this.getServletContext().getContextPath()).removeSessionId(this);
     }
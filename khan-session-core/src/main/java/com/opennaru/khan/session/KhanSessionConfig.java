@@ -61,9 +61,66 @@ public class KhanSessionConfig {
     // enable Memory statistics
     private boolean enableMemoryStatistics;
 
+    // fraction of saves measured deeply (memory statistics)
+    private double memoryStatisticsSampleRate = 0.01;
+
     // for spring security
     private boolean enableImmediateSave;
 
+    // load session from store on first access
+    private boolean enableLazyLoad;
+
+    // create session on first getSession() call
+    private boolean enableLazyCreation;
+
+    // save attributes only when changed
+    private boolean enableDirtyCheck;
+
+    // detect attribute changes with checksum
+    private boolean enableAttributeHash;
+
+    // seconds between lastAccessedTime updates
+    private int accessTimeGranularitySec;
+
+    // save session in background
+    private boolean enableWriteBehind;
+
+    // write-behind queue size
+    private int writeBehindQueueSize = 10000;
+
+    // write-behind worker threads
+    private int writeBehindThreads = 2;
+
+    // local LRU cache in front of session store
+    private boolean enableNearCache;
+
+    // near cache entries
+    private int nearCacheSize = 1000;
+
+    // near cache entry ttl (seconds)
+    private int nearCacheTtlSec = 60;
+
+    // near cache staleness window (milliseconds)
+    private long nearCacheStalenessMillis = 0;
+
+    // store session as one record
+    private boolean enableCombinedRecord;
+
+    // wrap session id of store keys in {} (redis cluster hash tag)
+    private boolean enableKeyHashTag;
+
+    // max session ids in local session id index
+    private int sessionIdIndexMaxSize = 1000000;
+
+    // statistics per attribute name
+    private boolean enableAttributeStatistics;
+
+    // fraction of saves whose attribute sizes are measured
+    private double attributeStatisticsSampleRate = 0.01;
+
+    // latency statistics of backend cache operations
+    private boolean enableCacheStatistics;
+
     /**
      * check if library mode
      * @return
@@ -276,6 +333,21 @@ public class KhanSessionConfig {
         this.enableMemoryStatistics = enableMemoryStatistics;
     }
 
+    /**
+     * get fraction of session saves measured deeply
+     * @return
+     */
+    public double getMemoryStatisticsSampleRate() {
+        return memoryStatisticsSampleRate;
+    }
+
+    /**
+     * @param memoryStatisticsSampleRate
+     */
+    public void setMemoryStatisticsSampleRate(double memoryStatisticsSampleRate) {
+        this.memoryStatisticsSampleRate = memoryStatisticsSampleRate;
+    }
+
     public boolean isEnableImmediateSave() {
         return enableImmediateSave;
     }
@@ -284,6 +356,281 @@ public class KhanSessionConfig {
         this.enableImmediateSave = enableImmediateSave;
     }
 
+    /**
+     * load session from store on first access
+     * @return
+     */
+    public boolean isEnableLazyLoad() {
+        return enableLazyLoad;
+    }
+
+    /**
+     * set load session from store on first access
+     * @param enableLazyLoad
+     */
+    public void setEnableLazyLoad(boolean enableLazyLoad) {
+        this.enableLazyLoad = enableLazyLoad;
+    }
+
+    /**
+     * create session on first getSession() call
+     * @return
+     */
+    public boolean isEnableLazyCreation() {
+        return enableLazyCreation;
+    }
+
+    /**
+     * set create session on first getSession() call
+     * @param enableLazyCreation
+     */
+    public void setEnableLazyCreation(boolean enableLazyCreation) {
+        this.enableLazyCreation = enableLazyCreation;
+    }
+
+    /**
+     * save attributes only when changed
+     * @return
+     */
+    public boolean isEnableDirtyCheck() {
+        return enableDirtyCheck || enableAttributeHash;
+    }
+
+    /**
+     * set save attributes only when changed
+     * @param enableDirtyCheck
+     */
+    public void setEnableDirtyCheck(boolean enableDirtyCheck) {
+        this.enableDirtyCheck = enableDirtyCheck;
+    }
+
+    /**
+     * detect attribute changes with checksum of serialized bytes
+     * @return
+     */
+    public boolean isEnableAttributeHash() {
+        return enableAttributeHash;
+    }
+
+    /**
+     * set detect attribute changes with checksum of serialized bytes
+     * @param enableAttributeHash
+     */
+    public void setEnableAttributeHash(boolean enableAttributeHash) {
+        this.enableAttributeHash = enableAttributeHash;
+    }
+
+    /**
+     * get seconds between lastAccessedTime updates
+     * @return
+     */
+    public int getAccessTimeGranularitySec() {
+        return accessTimeGranularitySec;
+    }
+
+    /**
+     * set seconds between lastAccessedTime updates
+     * @param accessTimeGranularitySec
+     */
+    public void setAccessTimeGranularitySec(int accessTimeGranularitySec) {
+        this.accessTimeGranularitySec = accessTimeGranularitySec;
+    }
+
+    /**
+     * check if write-behind save is enabled
+     * @return
+     */
+    public boolean isEnableWriteBehind() {
+        return enableWriteBehind;
+    }
+
+    /**
+     * @param enableWriteBehind
+     */
+    public void setEnableWriteBehind(boolean enableWriteBehind) {
+        this.enableWriteBehind = enableWriteBehind;
+    }
+
+    /**
+     * get write-behind queue size
+     * @return
+     */
+    public int getWriteBehindQueueSize() {
+        return writeBehindQueueSize;
+    }
+
+    /**
+     * @param writeBehindQueueSize
+     */
+    public void setWriteBehindQueueSize(int writeBehindQueueSize) {
+        this.writeBehindQueueSize = writeBehindQueueSize;
+    }
+
+    /**
+     * get number of write-behind worker threads
+     * @return
+     */
+    public int getWriteBehindThreads() {
+        return writeBehindThreads;
+    }
+
+    /**
+     * @param writeBehindThreads
+     */
+    public void setWriteBehindThreads(int writeBehindThreads) {
+        this.writeBehindThreads = writeBehindThreads;
+    }
+
+    /**
+     * check if near cache is enabled
+     * @return
+     */
+    public boolean isEnableNearCache() {
+        return enableNearCache;
+    }
+
+    /**
+     * @param enableNearCache
+     */
+    public void setEnableNearCache(boolean enableNearCache) {
+        this.enableNearCache = enableNearCache;
+    }
+
+    /**
+     * get max number of near cache entries
+     * @return
+     */
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    /**
+     * @param nearCacheSize
+     */
+    public void setNearCacheSize(int nearCacheSize) {
+        this.nearCacheSize = nearCacheSize;
+    }
+
+    /**
+     * get near cache entry ttl (seconds)
+     * @return
+     */
+    public int getNearCacheTtlSec() {
+        return nearCacheTtlSec;
+    }
+
+    /**
+     * @param nearCacheTtlSec
+     */
+    public void setNearCacheTtlSec(int nearCacheTtlSec) {
+        this.nearCacheTtlSec = nearCacheTtlSec;
+    }
+
+    /**
+     * get near cache staleness window (milliseconds)
+     * @return
+     */
+    public long getNearCacheStalenessMillis() {
+        return nearCacheStalenessMillis;
+    }
+
+    /**
+     * @param nearCacheStalenessMillis
+     */
+    public void setNearCacheStalenessMillis(long nearCacheStalenessMillis) {
+        this.nearCacheStalenessMillis = nearCacheStalenessMillis;
+    }
+
+    /**
+     * check if session is stored as one record
+     * @return
+     */
+    public boolean isEnableCombinedRecord() {
+        return enableCombinedRecord;
+    }
+
+    /**
+     * @param enableCombinedRecord
+     */
+    public void setEnableCombinedRecord(boolean enableCombinedRecord) {
+        this.enableCombinedRecord = enableCombinedRecord;
+    }
+
+    /**
+     * check if session id of store keys is hash-tagged
+     * @return
+     */
+    public boolean isEnableKeyHashTag() {
+        return enableKeyHashTag;
+    }
+
+    /**
+     * @param enableKeyHashTag
+     */
+    public void setEnableKeyHashTag(boolean enableKeyHashTag) {
+        this.enableKeyHashTag = enableKeyHashTag;
+    }
+
+    /**
+     * get max number of session ids in local session id index
+     * @return
+     */
+    public int getSessionIdIndexMaxSize() {
+        return sessionIdIndexMaxSize;
+    }
+
+    /**
+     * @param sessionIdIndexMaxSize
+     */
+    public void setSessionIdIndexMaxSize(int sessionIdIndexMaxSize) {
+        this.sessionIdIndexMaxSize = sessionIdIndexMaxSize;
+    }
+
+    /**
+     * check if statistics per attribute name is enabled
+     * @return
+     */
+    public boolean isEnableAttributeStatistics() {
+        return enableAttributeStatistics;
+    }
+
+    /**
+     * @param enableAttributeStatistics
+     */
+    public void setEnableAttributeStatistics(boolean enableAttributeStatistics) {
+        this.enableAttributeStatistics = enableAttributeStatistics;
+    }
+
+    /**
+     * get fraction of saves whose attribute sizes are measured
+     * @return
+     */
+    public double getAttributeStatisticsSampleRate() {
+        return attributeStatisticsSampleRate;
+    }
+
+    /**
+     * @param attributeStatisticsSampleRate
+     */
+    public void setAttributeStatisticsSampleRate(double attributeStatisticsSampleRate) {
+        this.attributeStatisticsSampleRate = attributeStatisticsSampleRate;
+    }
+
+    /**
+     * check if latency statistics of backend cache operations is enabled
+     * @return
+     */
+    public boolean isEnableCacheStatistics() {
+        return enableCacheStatistics;
+    }
+
+    /**
+     * @param enableCacheStatistics
+     */
+    public void setEnableCacheStatistics(boolean enableCacheStatistics) {
+        this.enableCacheStatistics = enableCacheStatistics;
+    }
+
     @Override
     public String toString() {
         return "KhanSessionConfig{" +
@@ -300,6 +647,26 @@ public class KhanSessionConfig {
                 ", sessionTimeoutMin=" + sessionTimeoutMin +
                 ", enableStatistics=" + enableStatistics +
                 ", enableMemoryStatistics=" + enableMemoryStatistics +
+                ", memoryStatisticsSampleRate=" + memoryStatisticsSampleRate +
+                ", enableImmediateSave=" + enableImmediateSave +
+                ", enableLazyLoad=" + enableLazyLoad +
+                ", enableLazyCreation=" + enableLazyCreation +
+                ", enableDirtyCheck=" + enableDirtyCheck +
+                ", enableAttributeHash=" + enableAttributeHash +
+                ", accessTimeGranularitySec=" + accessTimeGranularitySec +
+                ", enableWriteBehind=" + enableWriteBehind +
+                ", writeBehindQueueSize=" + writeBehindQueueSize +
+                ", writeBehindThreads=" + writeBehindThreads +
+                ", enableNearCache=" + enableNearCache +
+                ", nearCacheSize=" + nearCacheSize +
+                ", nearCacheTtlSec=" + nearCacheTtlSec +
+                ", nearCacheStalenessMillis=" + nearCacheStalenessMillis +
+                ", enableCombinedRecord=" + enableCombinedRecord +
+                ", enableKeyHashTag=" + enableKeyHashTag +
+                ", sessionIdIndexMaxSize=" + sessionIdIndexMaxSize +
+                ", enableAttributeStatistics=" + enableAttributeStatistics +
+                ", attributeStatisticsSampleRate=" + attributeStatisticsSampleRate +
+                ", enableCacheStatistics=" + enableCacheStatistics +
                 '}';
     }
 }
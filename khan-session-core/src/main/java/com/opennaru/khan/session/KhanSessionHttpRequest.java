@@ -51,6 +51,29 @@ public class KhanSessionHttpRequest extends HttpServletRequestWrapper {
     private KhanSessionManager sessionManager;
     private String clientIp;
 
+    /**
+     * lazy creation일 때 세션 생성을 알려줄 listener
+     */
+    private SessionCreationListener creationListener;
+
+    /**
+     * Listener called when a session is created on first getSession() call
+     */
+    public interface SessionCreationListener {
+        /**
+         * Session is about to be created.
+         * 세션을 만들 수 없는 경우(응답이 이미 commit된 경우 등) IllegalStateException을 던진다.
+         * @param sessionId
+         */
+        public void sessionCreating(String sessionId);
+
+        /**
+         * Session is created
+         * @param session
+         */
+        public void sessionCreated(KhanHttpSession session);
+    }
+
     /**
      * Consturctor
      *
@@ -64,6 +87,24 @@ public class KhanSessionHttpRequest extends HttpServletRequestWrapper {
     public KhanSessionHttpRequest(HttpServletRequest request, String sessionId,
                                   String namespace, Integer timeoutMin, SessionStore store,
                                   KhanSessionManager sessionManager) {
+        this(request, sessionId, namespace, timeoutMin, store, sessionManager, null);
+    }
+
+    /**
+     * Consturctor
+     * creationListener가 null이 아니면 세션은 getSession()이 처음 호출될 때 생성된다.
+     *
+     * @param request
+     * @param sessionId
+     * @param namespace
+     * @param timeoutMin
+     * @param store
+     * @param sessionManager
+     * @param creationListener
+     */
+    public KhanSessionHttpRequest(HttpServletRequest request, String sessionId,
+                                  String namespace, Integer timeoutMin, SessionStore store,
+                                  KhanSessionManager sessionManager, SessionCreationListener creationListener) {
         super(request);
 
         this.sessionId = sessionId;
@@ -73,7 +114,17 @@ public class KhanSessionHttpRequest extends HttpServletRequestWrapper {
 
         this.timeoutMin = timeoutMin;
         this.sessionManager = sessionManager;
+        this.creationListener = creationListener;
+
+        if (creationListener == null) {
+            createKhanSession();
+        }
+    }
 
+    /**
+     * Create HttpSession and KhanHttpSession
+     */
+    private void createKhanSession() {
         SessionIdThreadStore.set(sessionId);
         HttpSession session = super.getSession();
 //        SessionId.setKhanSessionId(session.getId(), sessionId);
@@ -82,6 +133,14 @@ public class KhanSessionHttpRequest extends HttpServletRequestWrapper {
                 timeoutMin, session, sessionManager, clientIp);
     }
 
+    /**
+     * KHAN Session ID of this request
+     * @return
+     */
+    public String getKhanSessionId() {
+        return sessionId;
+    }
+
     @Override
     public KhanHttpSession getSession() {
         if( session == null ) {
@@ -93,6 +152,17 @@ public class KhanSessionHttpRequest extends HttpServletRequestWrapper {
 
     @Override
     public KhanHttpSession getSession(boolean create) {
+        if (creationListener != null && this.session == null) {
+            if (!create) {
+                return null;
+            }
+
+            creationListener.sessionCreating(sessionId);
+            createKhanSession();
+            creationListener.sessionCreated(this.session);
+            return this.session;
+        }
+
         HttpSession jsession = super.getSession(false);
         if( jsession != null ) {
             return this.session;
@@ -102,11 +172,13 @@ public class KhanSessionHttpRequest extends HttpServletRequestWrapper {
             if( this.session != null ) {
                 HttpSession _session = super.getSession(false);
 
-                store.put(
-                        session.getKeyGenerator().generate(KhanHttpSession.ATTRIBUTES_KEY),
-                        new ConcurrentHashMap<Object, Object>(),
-                        timeoutMin
-                );
+                if( !KhanSessionRecord.isEnabled() ) {
+                    store.put(
+                            session.getKeyGenerator().generate(KhanHttpSession.ATTRIBUTES_KEY),
+                            new ConcurrentHashMap<Object, Object>(),
+                            timeoutMin
+                    );
+                }
 
                 this.session = new KhanHttpSession(sessionId, store, namespace,
                         timeoutMin, _session, sessionManager, clientIp);
@@ -130,11 +202,14 @@ public class KhanSessionHttpRequest extends HttpServletRequestWrapper {
             _session.setAttribute("khan.session.id", this.sessionId);
             log.debug("&&&&& createNewRawSession=" + _session.getId());
 
-            store.put(
-                    session.getKeyGenerator().generate(KhanHttpSession.ATTRIBUTES_KEY),
-                    new ConcurrentHashMap<Object, Object>(),
-                    timeoutMin
-            );
+            // combined record는 KhanHttpSession이 세션을 읽을 때 생성
+            if( !KhanSessionRecord.isEnabled() ) {
+                store.put(
+                        session.getKeyGenerator().generate(KhanHttpSession.ATTRIBUTES_KEY),
+                        new ConcurrentHashMap<Object, Object>(),
+                        timeoutMin
+                );
+            }
         }
 
         return this.session;
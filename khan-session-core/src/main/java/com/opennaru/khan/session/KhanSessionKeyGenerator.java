@@ -21,13 +21,23 @@
  */
 package com.opennaru.khan.session;
 
+import com.opennaru.khan.session.filter.KhanSessionFilter;
+
 /**
  * Session KEY generator for Cache Store's KEY
  *
+ * enableKeyHashTag=true 이면 세션 ID를 {} 로 감싸서 (KHAN_SESSION__{sessionId}_namespace_name)
+ * 한 세션의 metadata/attributes/login 키가 Redis Cluster의 같은 slot에 저장되도록 한다.
+ *
  * @author Junshik Jeon(service@opennaru.com, nameislocus@gmail.com)
  */
 public class KhanSessionKeyGenerator {
 
+    /**
+     * 모든 세션 KEY의 prefix
+     */
+    public static final String KEY_PREFIX = "KHAN_SESSION__";
+
     private final String sessionId;
     private final String namespace;
 
@@ -42,6 +52,15 @@ public class KhanSessionKeyGenerator {
         this.namespace = namespace;
     }
 
+    /**
+     * check if hash tag is enabled
+     * @return
+     */
+    public static boolean isHashTagEnabled() {
+        KhanSessionConfig config = KhanSessionFilter.getKhanSessionConfig();
+        return config != null && config.isEnableKeyHashTag();
+    }
+
     /**
      * Cache에 저장할 KEY 생성
      *
@@ -51,20 +70,75 @@ public class KhanSessionKeyGenerator {
      * @return
      */
     public static String generate(String namespace, String sessionId, String name) {
-        String key = "KHAN_SESSION__" + sessionId + "_" + namespace + "_" + name;
+        String key = KEY_PREFIX + tag(sessionId) + "_" + namespace + "_" + name;
         key = key.replaceAll("\\s", "_");
         return key;
     }
 
     /**
-     * Cache에 저장할 KEY 생성
+     * Login Cache에 저장할 KEY 생성 (SID, UID)
+     * hash tag는 세션 ID(또는 사용자 ID)에 붙인다.
+     *
+     * @param type
+     * @param id
+     * @return
+     */
+    public static String generateLoginKey(String type, String id) {
+        String key = "KHAN_SESSION__" + type + "_$_" + tag(id);
+        key = key.replaceAll("\\s", "_");
+        return key;
+    }
+
+    /**
+     * generate(namespace, sessionId, name)로 만든 KEY에서 세션 ID를 꺼낸다.
      *
+     * @param namespace
+     * @param key
      * @param name
+     * @return 세션 KEY가 아니면 null
+     */
+    public static String parseSessionId(String namespace, String key, String name) {
+        String prefix = KEY_PREFIX;
+        String suffix = ("_" + namespace + "_" + name).replaceAll("\\s", "_");
+        if (!key.startsWith(prefix) || !key.endsWith(suffix) || key.length() <= prefix.length() + suffix.length()) {
+            return null;
+        }
+        String sessionId = key.substring(prefix.length(), key.length() - suffix.length());
+        if (sessionId.length() > 2 && sessionId.charAt(0) == '{' && sessionId.charAt(sessionId.length() - 1) == '}') {
+            sessionId = sessionId.substring(1, sessionId.length() - 1);
+        }
+        return sessionId;
+    }
+
+    /**
+     * 세션 카운터(시간 bucket)의 KEY 생성
+     * 한 카운터의 bucket들은 같은 hash tag를 쓴다. (cluster에서 한 번에 합집합을 구할 수 있도록)
+     *
+     * @param namespace
+     * @param name
+     * @param bucket
      * @return
      */
-    public String generate(String name) {
-        String key = "KHAN_SESSION__" + sessionId + "_" + namespace + "_" + name;
+    public static String generateCounterKey(String namespace, String name, long bucket) {
+        String key = "KHAN_SESSION__COUNT_" + tag(namespace + "_" + name) + "_" + bucket;
         key = key.replaceAll("\\s", "_");
         return key;
     }
+
+    /**
+     * Cache에 저장할 KEY 생성
+     *
+     * @param name
+     * @return
+     */
+    public String generate(String name) {
+        return generate(namespace, sessionId, name);
+    }
+
+    private static String tag(String id) {
+        if (isHashTagEnabled()) {
+            return "{" + id + "}";
+        }
+        return id;
+    }
 }
@@ -0,0 +1,295 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session;
+
+import com.opennaru.khan.session.filter.KhanSessionFilter;
+import com.opennaru.khan.session.store.SessionStore;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Session Record
+ * 세션 메타데이터와 Attribute를 하나의 키(_REC_)에 저장하는 레코드
+ * (enableCombinedRecord=true)
+ *
+ * 형식 : version(1) flags(1) creationTime(8) lastAccessedTime(8) clientIp attributes
+ * 레코드가 없으면 기존 _META_ / _ATTR_ 두 개의 키에서 읽는다.
+ */
+public class KhanSessionRecord implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     *  Store에 저장할 Record Key
+     */
+    public static final String RECORD_KEY = "_REC_";
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int FLAG_INVALIDATED = 1;
+    private static final int FLAG_ACCESSED = 2;
+    private static final int FLAG_CLIENT_IP = 4;
+    // creationTime이 null (자리만 차지하는 0이 기록됨)
+    private static final int FLAG_NO_CREATION = 8;
+
+    // 세션 메타데이터
+    private KhanSessionMetadata metadata;
+
+    // 세션 Attribute
+    private ConcurrentHashMap<Object, Object> attributes;
+
+    // 두 개의 키에서 읽은 레코드인지
+    private transient boolean legacy = false;
+
+    /**
+     * Constructor for Externalizable
+     */
+    public KhanSessionRecord() {
+    }
+
+    /**
+     * Constructor
+     *
+     * @param metadata
+     * @param attributes
+     */
+    public KhanSessionRecord(KhanSessionMetadata metadata, ConcurrentHashMap<Object, Object> attributes) {
+        this.metadata = metadata;
+        this.attributes = attributes;
+    }
+
+    /**
+     * check if combined record layout is enabled
+     * @return
+     */
+    public static boolean isEnabled() {
+        KhanSessionConfig config = KhanSessionFilter.getKhanSessionConfig();
+        return config != null && config.isEnableCombinedRecord();
+    }
+
+    /**
+     * 세션 레코드를 읽는다.
+     * 레코드가 없으면 _META_ / _ATTR_ 키에서 읽고 legacy로 표시한다.
+     *
+     * @param store
+     * @param namespace
+     * @param sessionId
+     * @return 세션이 없으면 null
+     */
+    public static KhanSessionRecord load(SessionStore store, String namespace, String sessionId) {
+        return load(store, namespace, sessionId, -1);
+    }
+
+    /**
+     * 세션 레코드를 읽고 만료 시간을 연장한다. (expire < 0 이면 연장하지 않음)
+     * 레코드가 없으면 _META_ / _ATTR_ 키에서 읽고 legacy로 표시한다.
+     *
+     * @param store
+     * @param namespace
+     * @param sessionId
+     * @param expire
+     * @return 세션이 없으면 null
+     */
+    @SuppressWarnings("unchecked")
+    public static KhanSessionRecord load(SessionStore store, String namespace, String sessionId, long expire) {
+        String recordKey = KhanSessionKeyGenerator.generate(namespace, sessionId, RECORD_KEY);
+
+        // 레코드 키만 먼저 읽는다
+        Map<String, Serializable> values = read(store, Arrays.asList(recordKey), expire);
+        KhanSessionRecord record = (KhanSessionRecord) values.get(recordKey);
+        if (record != null) {
+            return record;
+        }
+
+        // 레코드가 없을 때만 기존 두 개의 키를 읽는다
+        String metadataKey = KhanSessionKeyGenerator.generate(namespace, sessionId, KhanHttpSession.METADATA_KEY);
+        String attributesKey = KhanSessionKeyGenerator.generate(namespace, sessionId, KhanHttpSession.ATTRIBUTES_KEY);
+        values = read(store, Arrays.asList(metadataKey, attributesKey), expire);
+        KhanSessionMetadata metadata = (KhanSessionMetadata) values.get(metadataKey);
+        ConcurrentHashMap<Object, Object> attributes = (ConcurrentHashMap<Object, Object>) values.get(attributesKey);
+        if (metadata == null && attributes == null) {
+            return null;
+        }
+
+        record = new KhanSessionRecord(metadata, attributes);
+        record.legacy = true;
+        return record;
+    }
+
+    private static Map<String, Serializable> read(SessionStore store, List<String> keys, long expire) {
+        return expire < 0 ? store.<Serializable>getAll(keys) : store.<Serializable>loadSession(keys, expire);
+    }
+
+    /**
+     * 세션 메타데이터를 읽는다. (레코드 / _META_ 키)
+     *
+     * @param store
+     * @param namespace
+     * @param sessionId
+     * @return
+     */
+    public static KhanSessionMetadata loadMetadata(SessionStore store, String namespace, String sessionId) {
+        if (isEnabled()) {
+            KhanSessionRecord record = load(store, namespace, sessionId);
+            return record == null ? null : record.getMetadata();
+        }
+        return store.get(KhanSessionKeyGenerator.generate(namespace, sessionId, KhanHttpSession.METADATA_KEY));
+    }
+
+    /**
+     * 세션 Attribute를 읽는다. (레코드 / _ATTR_ 키)
+     *
+     * @param store
+     * @param namespace
+     * @param sessionId
+     * @return
+     */
+    public static ConcurrentHashMap<Object, Object> loadAttributes(SessionStore store, String namespace, String sessionId) {
+        if (isEnabled()) {
+            KhanSessionRecord record = load(store, namespace, sessionId);
+            return record == null ? null : record.getAttributes();
+        }
+        return store.get(KhanSessionKeyGenerator.generate(namespace, sessionId, KhanHttpSession.ATTRIBUTES_KEY));
+    }
+
+    /**
+     * 세션 레코드를 저장하고 남아 있는 _META_ / _ATTR_ 키를 지운다.
+     *
+     * @param store
+     * @param namespace
+     * @param sessionId
+     * @param expire
+     */
+    public void save(SessionStore store, String namespace, String sessionId, long expire) {
+        store.put(KhanSessionKeyGenerator.generate(namespace, sessionId, RECORD_KEY), this, expire);
+        if (legacy) {
+            store.removeAll(Arrays.asList(
+                    KhanSessionKeyGenerator.generate(namespace, sessionId, KhanHttpSession.METADATA_KEY),
+                    KhanSessionKeyGenerator.generate(namespace, sessionId, KhanHttpSession.ATTRIBUTES_KEY)));
+            legacy = false;
+        }
+    }
+
+    public KhanSessionMetadata getMetadata() {
+        return metadata;
+    }
+
+    public ConcurrentHashMap<Object, Object> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * 저장할 때 _META_ / _ATTR_ 키를 지울지 설정
+     * @param legacy
+     */
+    void setLegacy(boolean legacy) {
+        this.legacy = legacy;
+    }
+
+    /**
+     * 두 개의 키에서 읽은 레코드인지
+     * @return
+     */
+    public boolean isLegacy() {
+        return legacy;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        int flags = 0;
+        if (Boolean.TRUE.equals(metadata.getInvalidated()))
+            flags |= FLAG_INVALIDATED;
+        if (metadata.getLastAccessedTime() != null)
+            flags |= FLAG_ACCESSED;
+        if (metadata.getClientIp() != null)
+            flags |= FLAG_CLIENT_IP;
+        if (metadata.getCreationTime() == null)
+            flags |= FLAG_NO_CREATION;
+
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(flags);
+        out.writeLong(metadata.getCreationTime() == null ? 0L : metadata.getCreationTime().getTime());
+        if ((flags & FLAG_ACCESSED) != 0)
+            out.writeLong(metadata.getLastAccessedTime().getTime());
+        if ((flags & FLAG_CLIENT_IP) != 0)
+            out.writeUTF(metadata.getClientIp());
+
+        if (attributes == null) {
+            out.writeInt(-1);
+        } else {
+            // write-behind 스레드에서 직렬화하는 동안 요청 스레드가 Map을 바꿀 수 있으므로
+            // 먼저 복사한 뒤 복사본의 개수를 기록한다
+            Object[] snapshot = attributes.entrySet().toArray();
+            out.writeInt(snapshot.length);
+            for (Object element : snapshot) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) element;
+                out.writeObject(entry.getKey());
+                out.writeObject(entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        byte version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown session record version : " + version);
+        }
+        int flags = in.readByte();
+
+        metadata = new KhanSessionMetadata();
+        metadata.setInvalidated((flags & FLAG_INVALIDATED) != 0);
+        long creationTime = in.readLong();
+        if ((flags & FLAG_NO_CREATION) == 0)
+            metadata.setCreationTime(new Date(creationTime));
+        if ((flags & FLAG_ACCESSED) != 0)
+            metadata.setLastAccessedTime(new Date(in.readLong()));
+        if ((flags & FLAG_CLIENT_IP) != 0)
+            metadata.setClientIp(in.readUTF());
+
+        int size = in.readInt();
+        if (size >= 0) {
+            attributes = new ConcurrentHashMap<Object, Object>(Math.max(16, size * 2));
+            for (int i = 0; i < size; i++) {
+                Object key = in.readObject();
+                Object value = in.readObject();
+                attributes.put(key, value);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KhanSessionRecord{" +
+                "metadata=" + metadata +
+                ", attributes=" + attributes +
+                '}';
+    }
+}
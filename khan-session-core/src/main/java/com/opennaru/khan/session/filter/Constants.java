@@ -114,6 +114,11 @@ public class Constants {
      */
     protected static final String SESSION_STATUS = "__sessionStatus__";
 
+    /**
+     *  request-scoped session context (validated KhanSessionHttpRequest)
+     */
+    protected static final String SESSION_REQUEST = "__khanSessionRequest__";
+
     /**
      * name of redis configuration file
      */
@@ -129,5 +134,104 @@ public class Constants {
      */
     public static final String ENABLE_MEMORY_STATISTICS = "enableMemoryStatistics";
 
+    /**
+     * fraction of session saves measured deeply for memory statistics (0.0 ~ 1.0)
+     */
+    public static final String MEMORY_STATISTICS_SAMPLE_RATE = "memoryStatisticsSampleRate";
+
     public static final String ENABLE_IMMEDIATED_SAVE = "enableImmediateSave";
+
+    /**
+     * load session from the store on first access
+     */
+    public static final String ENABLE_LAZY_LOAD = "enableLazyLoad";
+
+    /**
+     * create session on first getSession() call
+     */
+    public static final String ENABLE_LAZY_CREATION = "enableLazyCreation";
+
+    /**
+     * write attributes only when setAttribute/removeAttribute is called
+     * (in-place changes of mutable values are not detected)
+     */
+    public static final String ENABLE_DIRTY_CHECK = "enableDirtyCheck";
+
+    /**
+     * detect in-place changes of attributes with checksum of serialized bytes
+     * (implies enableDirtyCheck)
+     */
+    public static final String ENABLE_ATTRIBUTE_HASH = "enableAttributeHash";
+
+    /**
+     * seconds between lastAccessedTime updates of session metadata (0 : every request)
+     */
+    public static final String ACCESS_TIME_GRANULARITY = "accessTimeGranularity";
+
+    /**
+     * save session in background worker threads after the request
+     */
+    public static final String ENABLE_WRITE_BEHIND = "enableWriteBehind";
+
+    /**
+     * max number of sessions waiting for write-behind save
+     */
+    public static final String WRITE_BEHIND_QUEUE_SIZE = "writeBehindQueueSize";
+
+    /**
+     * number of write-behind worker threads
+     */
+    public static final String WRITE_BEHIND_THREADS = "writeBehindThreads";
+
+    /**
+     * keep recently used session values in local LRU cache
+     * (values are stored with their version, so all nodes must use the same setting)
+     */
+    public static final String ENABLE_NEAR_CACHE = "enableNearCache";
+
+    /**
+     * max number of entries in near cache
+     */
+    public static final String NEAR_CACHE_SIZE = "nearCacheSize";
+
+    /**
+     * max seconds an entry stays in near cache
+     */
+    public static final String NEAR_CACHE_TTL = "nearCacheTtl";
+
+    /**
+     * milliseconds near cache values are used without reading the backend
+     * (after this window every read fetches the full value, so 0 saves no backend reads)
+     */
+    public static final String NEAR_CACHE_STALENESS = "nearCacheStaleness";
+
+    /**
+     * store metadata and attributes of a session under one key (_REC_)
+     */
+    public static final String ENABLE_COMBINED_RECORD = "enableCombinedRecord";
+
+    /**
+     * wrap session id of store keys in {} so that keys of a session share a redis cluster slot
+     */
+    public static final String ENABLE_KEY_HASH_TAG = "enableKeyHashTag";
+
+    /**
+     * max number of session ids kept in the local session id index (statistics)
+     */
+    public static final String SESSION_ID_INDEX_MAX_SIZE = "sessionIdIndexMaxSize";
+
+    /**
+     * collect read/write count and serialized size per attribute name (AttributeMonitor MBean)
+     */
+    public static final String ENABLE_ATTRIBUTE_STATISTICS = "enableAttributeStatistics";
+
+    /**
+     * fraction of session saves whose attribute sizes are measured
+     */
+    public static final String ATTRIBUTE_STATISTICS_SAMPLE_RATE = "attributeStatisticsSampleRate";
+
+    /**
+     * record latency, errors and bytes of backend cache operations (CacheMonitor MBean)
+     */
+    public static final String ENABLE_CACHE_STATISTICS = "enableCacheStatistics";
 }
@@ -23,10 +23,16 @@ package com.opennaru.khan.session.filter;
 
 import com.opennaru.khan.session.*;
 import com.opennaru.khan.session.listener.SessionLoginManager;
+import com.opennaru.khan.session.management.CacheStatistics;
 import com.opennaru.khan.session.manager.KhanSessionManager;
+import com.opennaru.khan.session.store.InstrumentedSessionCache;
+import com.opennaru.khan.session.store.NearSessionCache;
+import com.opennaru.khan.session.store.SessionCache;
+import com.opennaru.khan.session.store.SessionCounter;
 import com.opennaru.khan.session.store.SessionId;
 import com.opennaru.khan.session.store.SessionIdThreadStore;
 import com.opennaru.khan.session.store.SessionStore;
+import com.opennaru.khan.session.store.SessionStoreImpl;
 import com.opennaru.khan.session.util.CookieUtil;
 import com.opennaru.khan.session.util.PropertyUtil;
 import com.opennaru.khan.session.util.StackTraceUtil;
@@ -216,6 +222,10 @@ public abstract class KhanSessionFilter implements Filter {
             enableMemoryStatistics = true;
         }
         khanSessionConfig.setEnableMemoryStatistics(enableMemoryStatistics);
+        String memoryStatisticsSampleRate = getConfigValue(config, Constants.MEMORY_STATISTICS_SAMPLE_RATE);
+        if ( !StringUtils.isNullOrEmpty(memoryStatisticsSampleRate) ) {
+            khanSessionConfig.setMemoryStatisticsSampleRate(Double.valueOf(memoryStatisticsSampleRate));
+        }
 
         boolean enableImmediateSave = false;
         if( getConfigValue(config, Constants.ENABLE_IMMEDIATED_SAVE) != null &&
@@ -223,6 +233,81 @@ public abstract class KhanSessionFilter implements Filter {
             enableImmediateSave = true;
         }
         khanSessionConfig.setEnableImmediateSave(enableImmediateSave);
+
+        // lazy load
+        khanSessionConfig.setEnableLazyLoad(getConfigValue(config, Constants.ENABLE_LAZY_LOAD) != null
+                && getConfigValue(config, Constants.ENABLE_LAZY_LOAD).equals("true"));
+
+        // lazy creation
+        khanSessionConfig.setEnableLazyCreation(getConfigValue(config, Constants.ENABLE_LAZY_CREATION) != null
+                && getConfigValue(config, Constants.ENABLE_LAZY_CREATION).equals("true"));
+
+        // dirty check
+        khanSessionConfig.setEnableDirtyCheck(getConfigValue(config, Constants.ENABLE_DIRTY_CHECK) != null
+                && getConfigValue(config, Constants.ENABLE_DIRTY_CHECK).equals("true"));
+        khanSessionConfig.setEnableAttributeHash(getConfigValue(config, Constants.ENABLE_ATTRIBUTE_HASH) != null
+                && getConfigValue(config, Constants.ENABLE_ATTRIBUTE_HASH).equals("true"));
+
+        // lastAccessedTime update granularity
+        String accessTimeGranularity = getConfigValue(config, Constants.ACCESS_TIME_GRANULARITY);
+        if ( StringUtils.isNullOrEmpty(accessTimeGranularity) ) {
+            khanSessionConfig.setAccessTimeGranularitySec(0);
+        } else {
+            khanSessionConfig.setAccessTimeGranularitySec(Integer.valueOf(accessTimeGranularity));
+        }
+
+        // write-behind save
+        khanSessionConfig.setEnableWriteBehind(getConfigValue(config, Constants.ENABLE_WRITE_BEHIND) != null
+                && getConfigValue(config, Constants.ENABLE_WRITE_BEHIND).equals("true"));
+        String writeBehindQueueSize = getConfigValue(config, Constants.WRITE_BEHIND_QUEUE_SIZE);
+        if ( !StringUtils.isNullOrEmpty(writeBehindQueueSize) ) {
+            khanSessionConfig.setWriteBehindQueueSize(Integer.valueOf(writeBehindQueueSize));
+        }
+        String writeBehindThreads = getConfigValue(config, Constants.WRITE_BEHIND_THREADS);
+        if ( !StringUtils.isNullOrEmpty(writeBehindThreads) ) {
+            khanSessionConfig.setWriteBehindThreads(Integer.valueOf(writeBehindThreads));
+        }
+
+        // near cache
+        khanSessionConfig.setEnableNearCache(getConfigValue(config, Constants.ENABLE_NEAR_CACHE) != null
+                && getConfigValue(config, Constants.ENABLE_NEAR_CACHE).equals("true"));
+        String nearCacheSize = getConfigValue(config, Constants.NEAR_CACHE_SIZE);
+        if ( !StringUtils.isNullOrEmpty(nearCacheSize) ) {
+            khanSessionConfig.setNearCacheSize(Integer.valueOf(nearCacheSize));
+        }
+        String nearCacheTtl = getConfigValue(config, Constants.NEAR_CACHE_TTL);
+        if ( !StringUtils.isNullOrEmpty(nearCacheTtl) ) {
+            khanSessionConfig.setNearCacheTtlSec(Integer.valueOf(nearCacheTtl));
+        }
+        String nearCacheStaleness = getConfigValue(config, Constants.NEAR_CACHE_STALENESS);
+        if ( !StringUtils.isNullOrEmpty(nearCacheStaleness) ) {
+            khanSessionConfig.setNearCacheStalenessMillis(Long.valueOf(nearCacheStaleness));
+        }
+
+        // single key session record
+        khanSessionConfig.setEnableCombinedRecord(getConfigValue(config, Constants.ENABLE_COMBINED_RECORD) != null
+                && getConfigValue(config, Constants.ENABLE_COMBINED_RECORD).equals("true"));
+
+        khanSessionConfig.setEnableKeyHashTag(getConfigValue(config, Constants.ENABLE_KEY_HASH_TAG) != null
+                && getConfigValue(config, Constants.ENABLE_KEY_HASH_TAG).equals("true"));
+
+        // local session id index
+        String sessionIdIndexMaxSize = getConfigValue(config, Constants.SESSION_ID_INDEX_MAX_SIZE);
+        if ( !StringUtils.isNullOrEmpty(sessionIdIndexMaxSize) ) {
+            khanSessionConfig.setSessionIdIndexMaxSize(Integer.valueOf(sessionIdIndexMaxSize));
+        }
+
+        // statistics per attribute name
+        khanSessionConfig.setEnableAttributeStatistics(getConfigValue(config, Constants.ENABLE_ATTRIBUTE_STATISTICS) != null
+                && getConfigValue(config, Constants.ENABLE_ATTRIBUTE_STATISTICS).equals("true"));
+        String attributeStatisticsSampleRate = getConfigValue(config, Constants.ATTRIBUTE_STATISTICS_SAMPLE_RATE);
+        if ( !StringUtils.isNullOrEmpty(attributeStatisticsSampleRate) ) {
+            khanSessionConfig.setAttributeStatisticsSampleRate(Double.valueOf(attributeStatisticsSampleRate));
+        }
+
+        // latency statistics of backend cache operations
+        khanSessionConfig.setEnableCacheStatistics(getConfigValue(config, Constants.ENABLE_CACHE_STATISTICS) != null
+                && getConfigValue(config, Constants.ENABLE_CACHE_STATISTICS).equals("true"));
     }
 
     /**
@@ -237,7 +322,11 @@ public abstract class KhanSessionFilter implements Filter {
                         && cookie.getValue() != null
                         && cookie.getValue().trim().length() > 0 ) {
 
-                    if( isValidSession(createSessionRequest(req, cookie.getValue())) ) {
+                    KhanSessionHttpRequest sessionRequest = createSessionRequest(req, cookie.getValue());
+                    // lazy load : session is validated on first access
+                    if( khanSessionConfig.isEnableLazyLoad() || isValidSession(sessionRequest) ) {
+                        // keep the loaded session for doFilter
+                        req.setAttribute(Constants.SESSION_REQUEST, sessionRequest);
                         if (log.isDebugEnabled()) {
                             log.debug("SessionId cookie found. ("
                                     + khanSessionConfig.getSessionIdKey() + " -> "
@@ -288,8 +377,69 @@ public abstract class KhanSessionFilter implements Filter {
         return sessionIdCookie;
     }
 
+    /**
+     * Session Id Cookie를 응답에 추가
+     * @param request
+     * @param response
+     * @param sessionIdValue
+     * @return
+     */
+    protected Cookie addSessionIdCookie(HttpServletRequest request, HttpServletResponse response,
+                                        String sessionIdValue) {
+        Cookie newSessionIdCookie = generateSessionIdCookie(sessionIdValue);
+
+        // httpOnly 는 Servlet 2.x에서 지원하지 않음.
+        // addCookie대신 addHeader를 사용
+        String setCookie = CookieUtil.createCookieHeader(newSessionIdCookie, khanSessionConfig.isHttpOnly());
+        response.addHeader("Set-Cookie", setCookie);
+        setSessionStatus(request, SessionStatus.FIXED);
+
+        if (log.isDebugEnabled()) {
+            log.debug("SessionId cookie is updated. (" + sessionIdValue + ")");
+        }
+        return newSessionIdCookie;
+    }
+
+    /**
+     * 세션을 처음 사용할 때 생성하는 KhanSessionHttpRequest 객체를 생성한다.
+     * 세션 ID Cookie와 SessionStore의 세션은 getSession()이 호출될 때 만들어진다.
+     * 응답이 이미 commit되어 Set-Cookie를 보낼 수 없으면 세션을 만들지 않고 IllegalStateException을 던진다.
+     *
+     * @param request
+     * @param response
+     * @param sessionIdValue
+     * @return
+     */
+    protected KhanSessionHttpRequest createLazySessionRequest(
+            final HttpServletRequest request, final HttpServletResponse response, String sessionIdValue) {
+
+        if (log.isDebugEnabled()) {
+            log.debug("***** createLazySessionRequest");
+        }
+
+        return new KhanSessionHttpRequest(request, sessionIdValue,
+                khanSessionConfig.getNamespace(), khanSessionConfig.getSessionTimeoutMin(),
+                sessionStore, sessionManager, new KhanSessionHttpRequest.SessionCreationListener() {
+                    @Override
+                    public void sessionCreating(String sessionId) {
+                        if (response.isCommitted()) {
+                            log.warn("Cannot create a session after the response has been committed. ("
+                                    + request.getRequestURI() + ")");
+                            throw new IllegalStateException(
+                                    "Cannot create a session after the response has been committed");
+                        }
+                    }
+
+                    @Override
+                    public void sessionCreated(KhanHttpSession session) {
+                        addSessionIdCookie(request, response, session.getId());
+                    }
+                });
+    }
+
     /**
      * HttpServletRequest를 Wrapping한 KhanSessionHttpRequest 객체를 생성한다.
+     * 같은 요청에서 이미 로딩한 세션이 있으면 재사용한다.
      *
      * @param request
      * @param sessionIdValue
@@ -298,6 +448,15 @@ public abstract class KhanSessionFilter implements Filter {
     protected KhanSessionHttpRequest createSessionRequest(
             HttpServletRequest request, String sessionIdValue) {
 
+        Object current = request.getAttribute(Constants.SESSION_REQUEST);
+        if (current instanceof KhanSessionHttpRequest
+                && ((KhanSessionHttpRequest) current).getKhanSessionId().equals(sessionIdValue)) {
+            if (log.isDebugEnabled()) {
+                log.debug("***** reuse session request (" + sessionIdValue + ")");
+            }
+            return (KhanSessionHttpRequest) current;
+        }
+
         if (log.isDebugEnabled()) {
             log.debug("***** createSessionRequest");
         }
@@ -330,6 +489,39 @@ public abstract class KhanSessionFilter implements Filter {
         }
     }
 
+    /**
+     * backend SessionCache로 SessionStore를 생성
+     * cache 통계가 설정되어 있으면 backend 연산을 기록하는 decorator로 감싼다.
+     * near cache가 설정되어 있으면 SessionCache 앞에 둔다. (near cache hit은 backend 통계에 들어가지 않는다)
+     * backend가 SessionCounter를 지원하면 세션 수는 카운터로 추정한다.
+     *
+     * @param sessionCache
+     * @return
+     */
+    protected SessionStore createSessionStore(SessionCache sessionCache) {
+        SessionCounter counter = null;
+        if (khanSessionConfig.isEnableStatistics() && sessionCache instanceof SessionCounter) {
+            counter = (SessionCounter) sessionCache;
+        }
+
+        if (khanSessionConfig.isEnableCacheStatistics()) {
+            CacheStatistics cacheStatistics = new CacheStatistics();
+            sessionCache = new InstrumentedSessionCache(sessionCache, cacheStatistics);
+            sessionManager.setCacheStatistics(cacheStatistics);
+        }
+
+        if (khanSessionConfig.isEnableNearCache()) {
+            NearSessionCache nearCache = new NearSessionCache(sessionCache,
+                    khanSessionConfig.getNearCacheSize(),
+                    khanSessionConfig.getNearCacheTtlSec(),
+                    khanSessionConfig.getNearCacheStalenessMillis());
+            sessionManager.setNearCache(nearCache);
+            sessionCache = nearCache;
+        }
+        return new SessionStoreImpl(sessionCache, counter, khanSessionConfig.getNamespace(),
+                khanSessionConfig.getSessionTimeoutMin() * 60L);
+    }
+
     public static final String ALREADY_FILTERED = ".FILTERED";
 
     private String alreadyFilteredAttributeName = getClass().getName().concat(ALREADY_FILTERED);
@@ -398,6 +590,8 @@ public abstract class KhanSessionFilter implements Filter {
                             log.debug(">>>>> cookie=" + cookie);
 
                         String sessionIdValue = null;
+                        // lazy creation : 세션은 애플리케이션이 처음 요청할 때 생성
+                        boolean deferCreation = false;
 
                         log.debug("******* new request");
                         log.debug("*************** SessionIdThreadStore.get()=" + SessionIdThreadStore.get());
@@ -408,6 +602,7 @@ public abstract class KhanSessionFilter implements Filter {
                             HttpSession session = _request.getSession(false);
                             if (session == null || session.isNew()) {
                                 sessionIdValue = UUID.randomUUID().toString();
+                                deferCreation = khanSessionConfig.isEnableLazyCreation();
                             } else {
                                 // copy JSESSIONID value to original session
                                 sessionIdValue = session.getId();
@@ -425,19 +620,8 @@ public abstract class KhanSessionFilter implements Filter {
                             log.debug("*****[[[[[ sessionIdValue=" + sessionIdValue + "]]]]]*****");
                         }
 
-                        if (cookie == null || SessionIdThreadStore.get() != null) {
-                            Cookie newSessionIdCookie = generateSessionIdCookie(sessionIdValue);
-                            cookie = newSessionIdCookie;
-
-                            // httpOnly 는 Servlet 2.x에서 지원하지 않음.
-                            // addCookie대신 addHeader를 사용
-                            String setCookie = CookieUtil.createCookieHeader(newSessionIdCookie, khanSessionConfig.isHttpOnly());
-                            _response.addHeader("Set-Cookie", setCookie);
-                            setSessionStatus(_request, SessionStatus.FIXED);
-
-                            if (log.isDebugEnabled()) {
-                                log.debug("SessionId cookie is updated. (" + sessionIdValue + ")");
-                            }
+                        if (!deferCreation && (cookie == null || SessionIdThreadStore.get() != null)) {
+                            cookie = addSessionIdCookie(_request, _response, sessionIdValue);
                         }
 
                         //_request.getSession().setAttribute("__khan.session.id__", sessionIdValue);
@@ -453,19 +637,22 @@ public abstract class KhanSessionFilter implements Filter {
 
                         // doFilter with the request wrapper
                         KhanSessionHttpRequest _wrappedRequest = null;
-                        _wrappedRequest = createSessionRequest(_request, sessionIdValue);
+                        if (deferCreation) {
+                            _wrappedRequest = createLazySessionRequest(_request, _response, sessionIdValue);
+                        } else {
+                            _wrappedRequest = createSessionRequest(_request, sessionIdValue);
+                        }
 
                         boolean redirectLogoutUrl = false;
                         String khan_uid = "";
 
                         // 중복 로그인을 허용하지 않는다고 설정되어 있는 경우
-                        if (khanSessionConfig.isAllowDuplicateLogin() == false) {
+                        // SID 로그인 키를 먼저 확인하고, 세션을 읽지 않은 경우(lazy load)에는 khan.uid를 읽지 않는다.
+                        KhanHttpSession loginSession = _wrappedRequest.getSession(false);
+                        if (khanSessionConfig.isAllowDuplicateLogin() == false
+                                && loginSession != null) {
 
-                            khan_uid = (String) _wrappedRequest.getSession(false).getAttribute("khan.uid");
-                            if (log.isDebugEnabled()) {
-                                log.debug("$$$$$ khan_uid=" + khan_uid);
-                            }
-                            String key = KhanSessionKeyGenerator.generate("$", "SID", _wrappedRequest.getSession(false).getId());
+                            String key = KhanSessionKeyGenerator.generateLoginKey("SID", loginSession.getId());
                             String loginStatus = KhanSessionFilter.getSessionStore().loginGet(key);
                             if (log.isDebugEnabled()) {
                                 log.debug("$$$$$ loginStatus=" + loginStatus);
@@ -473,7 +660,16 @@ public abstract class KhanSessionFilter implements Filter {
 
                             if (loginStatus != null && loginStatus.equals("DUPLICATED")) {
                                 redirectLogoutUrl = true;
+                            } else if (!loginSession.isLoaded()) {
+                                // 로그인 키(SID -> uid)가 있으면 세션을 읽지 않고 만료 시간만 연장
+                                if (loginStatus != null) {
+                                    SessionLoginManager.getInstance().refresh(loginSession, loginStatus);
+                                }
                             } else {
+                                khan_uid = (String) loginSession.getAttribute("khan.uid");
+                                if (log.isDebugEnabled()) {
+                                    log.debug("$$$$$ khan_uid=" + khan_uid);
+                                }
                                 // update login info
                                 if (khan_uid != null && !khan_uid.equals("")) {
                                     try {
@@ -492,20 +688,22 @@ public abstract class KhanSessionFilter implements Filter {
                         chain.doFilter(_wrappedRequest, _response);
                         // after KHAN Session filter
 
-                        String currentSessionId = _wrappedRequest.getSession(false).getId();
+                        // update attributes, expiration
+                        KhanHttpSession session = _wrappedRequest.getSession(false);
+                        if (session == null) {
+                            // lazy creation : 세션을 사용하지 않은 요청
+                            if (log.isDebugEnabled()) {
+                                log.debug("session is not created. (" + _request.getRequestURI() + ")");
+                            }
+                            return;
+                        }
+
+                        String currentSessionId = session.getId();
                         if (!currentSessionId.equals(sessionIdValue)) {
-                            Cookie newSessionIdCookie = generateSessionIdCookie(currentSessionId);
-                            // httpOnly 는 Servlet 2.x에서 지원하지 않음.
-                            // addCookie대신 addHeader를 사용
-                            String setCookie = CookieUtil.createCookieHeader(newSessionIdCookie, khanSessionConfig.isHttpOnly());
-                            _response.addHeader("Set-Cookie", setCookie);
-                            setSessionStatus(_request, SessionStatus.FIXED);
+                            addSessionIdCookie(_request, _response, currentSessionId);
                             log.debug("########### new session id=" + currentSessionId);
                         }
 
-                        // update attributes, expiration
-                        KhanHttpSession session = _wrappedRequest.getSession(false);
-
                         HttpSession httpSession = _request.getSession(false);
                         if (httpSession != null) {
                             httpSession.setAttribute("khan.session.id", session.getId());
@@ -535,7 +733,7 @@ public abstract class KhanSessionFilter implements Filter {
                         if (redirectLogoutUrl) {
                             try {
                                 // 중복로그인된 세션의 정보를 지운다
-                                String key = KhanSessionKeyGenerator.generate("$", "SID", _wrappedRequest.getSession(false).getId());
+                                String key = KhanSessionKeyGenerator.generateLoginKey("SID", _wrappedRequest.getSession(false).getId());
                                 KhanSessionFilter.getSessionStore().loginRemove(key);
                                 SessionLoginManager.getInstance().logout(_wrappedRequest);
                                 _wrappedRequest.getSession().invalidate();
@@ -549,7 +747,12 @@ public abstract class KhanSessionFilter implements Filter {
 
                         // need reloading from the store to work
                         //session.reloadAttributes();
-                        session.save();
+                        // invalidate 된 세션은 바로 지운다
+                        if (sessionManager.isWriteBehindEnabled() && session.isLoaded() && session.isValid()) {
+                            sessionManager.saveBehind(session);
+                        } else {
+                            session.save();
+                        }
 
                         if (log.isDebugEnabled())
                             log.debug("<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<< =====");
@@ -558,6 +761,7 @@ public abstract class KhanSessionFilter implements Filter {
                 } finally {
 
                     _request.removeAttribute(alreadyFilteredAttributeName);
+                    _request.removeAttribute(Constants.SESSION_REQUEST);
                     SessionIdThreadStore.remove();
                 }
 
@@ -574,6 +778,7 @@ public abstract class KhanSessionFilter implements Filter {
         if (log.isDebugEnabled()) {
             log.debug("KhanSessionFilter destroy..");
         }
+        // write-behind 저장을 실행한 뒤 store를 닫는다
         sessionManager.destroy();
     }
 
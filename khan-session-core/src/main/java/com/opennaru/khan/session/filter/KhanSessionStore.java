@@ -25,6 +25,7 @@ package com.opennaru.khan.session.filter;
 import com.opennaru.khan.session.KhanHttpSession;
 import com.opennaru.khan.session.KhanSessionKeyGenerator;
 import com.opennaru.khan.session.KhanSessionMetadata;
+import com.opennaru.khan.session.KhanSessionRecord;
 import com.opennaru.khan.session.store.SessionId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +50,23 @@ public class KhanSessionStore {
         Integer timeoutMin = KhanSessionFilter.getKhanSessionConfig().getSessionTimeoutMin();
         long timeoutSecond = (long) (timeoutMin * 60);
 
+        if( KhanSessionRecord.isEnabled() ) {
+            KhanSessionRecord record = KhanSessionRecord.load(KhanSessionFilter.getSessionStore(), nameSpace, khanSessionId);
+            KhanSessionMetadata khanSessionMetadata = record == null ? null : record.getMetadata();
+            ConcurrentHashMap<Object, Object> attributes = record == null ? null : record.getAttributes();
+            if( khanSessionMetadata == null ) {
+                khanSessionMetadata = new KhanSessionMetadata();
+                khanSessionMetadata.setInvalidated(false);
+                khanSessionMetadata.setCreationTime(new Date());
+            }
+            if( attributes == null ) {
+                attributes = new ConcurrentHashMap<Object, Object>();
+            }
+            attributes.put(name, value);
+            new KhanSessionRecord(khanSessionMetadata, attributes).save(KhanSessionFilter.getSessionStore(), nameSpace, khanSessionId, timeoutSecond);
+            return;
+        }
+
         if( log.isDebugEnabled() ) {
             log.debug("sidKey=" + sidKey);
         }
@@ -94,7 +112,7 @@ public class KhanSessionStore {
         }
         ConcurrentHashMap<Object, Object> attributes = null;
 
-        attributes = KhanSessionFilter.getSessionStore().get(sidKey);
+        attributes = KhanSessionRecord.loadAttributes(KhanSessionFilter.getSessionStore(), nameSpace, khanSessionId);
         if( log.isDebugEnabled() ) {
             log.debug("attributes=" + attributes);
         }
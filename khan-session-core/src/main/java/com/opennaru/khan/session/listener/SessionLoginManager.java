@@ -21,9 +21,9 @@
  */
 package com.opennaru.khan.session.listener;
 
-import com.opennaru.khan.session.KhanHttpSession;
 import com.opennaru.khan.session.KhanSessionKeyGenerator;
 import com.opennaru.khan.session.KhanSessionMetadata;
+import com.opennaru.khan.session.KhanSessionRecord;
 import com.opennaru.khan.session.filter.KhanSessionFilter;
 import com.opennaru.khan.session.management.SessionMonitorMBean;
 import com.opennaru.khan.session.manager.KhanSessionManager;
@@ -135,24 +135,22 @@ public class SessionLoginManager implements HttpSessionBindingListener, Serializ
             if( sessionMonitorMBean != null )
                 sessionMonitorMBean.duplicatedLogin();
 
-            String sidKey = KhanSessionKeyGenerator.generate("$", "SID", previousSessionId);
+            String sidKey = KhanSessionKeyGenerator.generateLoginKey("SID", previousSessionId);
             KhanSessionFilter.getSessionStore().loginPut(sidKey, "DUPLICATED", session.getMaxInactiveInterval());
 
-            String previousMetaKey = KhanSessionKeyGenerator.generate(
+            KhanSessionMetadata previousMetadata = KhanSessionRecord.loadMetadata(
+                    KhanSessionFilter.getSessionStore(),
                     KhanSessionFilter.getKhanSessionConfig().getNamespace(),
-                    previousSessionId,
-                    KhanHttpSession.METADATA_KEY);
-            KhanSessionMetadata previousMetadata = KhanSessionFilter.getSessionStore().get(previousMetaKey);
+                    previousSessionId);
             if( log.isDebugEnabled() ) {
                 log.debug("PreviousSessionId=" + previousSessionId);
                 log.debug("PreviousMetaData=" + previousMetadata);
             }
 
-            String currentMetaKey = KhanSessionKeyGenerator.generate(
+            KhanSessionMetadata currentMetadata = KhanSessionRecord.loadMetadata(
+                    KhanSessionFilter.getSessionStore(),
                     KhanSessionFilter.getKhanSessionConfig().getNamespace(),
-                    session.getId(),
-                    KhanHttpSession.METADATA_KEY);
-            KhanSessionMetadata currentMetadata = KhanSessionFilter.getSessionStore().get(currentMetaKey);
+                    session.getId());
             if( log.isDebugEnabled() ) {
                 log.debug("CurrentSessionId=" + session.getId());
                 log.debug("CurrentMetaData=" + currentMetadata);
@@ -164,14 +162,29 @@ public class SessionLoginManager implements HttpSessionBindingListener, Serializ
 
         }
 
-        String uidKey = KhanSessionKeyGenerator.generate("$", "UID", uid);
+        String uidKey = KhanSessionKeyGenerator.generateLoginKey("UID", uid);
         KhanSessionFilter.getSessionStore().loginPut(uidKey, session.getId(), session.getMaxInactiveInterval());
 
-        String sidKey = KhanSessionKeyGenerator.generate("$", "SID", session.getId());
+        String sidKey = KhanSessionKeyGenerator.generateLoginKey("SID", session.getId());
         KhanSessionFilter.getSessionStore().loginPut(sidKey, uid, session.getMaxInactiveInterval());
 
     }
 
+    /**
+     * 로그인 정보의 만료 시간 연장
+     * SID 키에 uid가 있는 세션은 이미 로그인 처리가 되어 있으므로 세션을 읽지 않고 로그인 키만 다시 저장한다.
+     *
+     * @param session
+     * @param uid
+     */
+    public void refresh(HttpSession session, String uid) {
+        String uidKey = KhanSessionKeyGenerator.generateLoginKey("UID", uid);
+        KhanSessionFilter.getSessionStore().loginPut(uidKey, session.getId(), session.getMaxInactiveInterval());
+
+        String sidKey = KhanSessionKeyGenerator.generateLoginKey("SID", session.getId());
+        KhanSessionFilter.getSessionStore().loginPut(sidKey, uid, session.getMaxInactiveInterval());
+    }
+
     /**
      * 중복로그인을 위한 logout 처리
      * khan.uid를 삭제하고 Session Invalidate
@@ -182,7 +195,7 @@ public class SessionLoginManager implements HttpSessionBindingListener, Serializ
     public void logout(HttpServletRequest request) throws Exception {
         HttpSession session = request.getSession();
         session.removeAttribute("khan.uid");
-        String sidKey = KhanSessionKeyGenerator.generate("$", "SID", session.getId());
+        String sidKey = KhanSessionKeyGenerator.generateLoginKey("SID", session.getId());
         KhanSessionFilter.getSessionStore().loginRemove(sidKey);
 
 //        session.invalidate();
@@ -195,7 +208,7 @@ public class SessionLoginManager implements HttpSessionBindingListener, Serializ
      * @return
      */
     public String loggedInSessionId(String uid) {
-        String key = KhanSessionKeyGenerator.generate("$", "UID", uid);
+        String key = KhanSessionKeyGenerator.generateLoginKey("UID", uid);
         String sessionId = KhanSessionFilter.getSessionStore().loginGet(key);
         if (sessionId == null) return "";
         else return sessionId;
@@ -0,0 +1,70 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.management;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AttributeMonitorMBean
+ * 세션 Attribute 이름별 크기/읽기/쓰기 통계 (enableAttributeStatistics)
+ *
+ * @since 1.3.0
+ */
+public interface AttributeMonitorMBean {
+
+    public String getAppName();
+
+    /**
+     * Get names of attributes seen
+     * @return
+     */
+    public List<String> getAttributeNames();
+
+    /**
+     * Get attributes with the largest average serialized size
+     * @param topN
+     * @return attribute name -> average bytes
+     */
+    public Map<String, Long> getTopAttributesByBytes(int topN);
+
+    /**
+     * Get attributes written most often
+     * @param topN
+     * @return attribute name -> writes per second
+     */
+    public Map<String, Double> getTopAttributesByWriteRate(int topN);
+
+    /**
+     * Get statistics of an attribute
+     * (reads, writes, sizeSamples, sizeAverage, sizeMax, sizeP50, sizeP90, sizeP99)
+     * @param name
+     * @return
+     */
+    public Map<String, Long> getAttributeStatistics(String name);
+
+    /**
+     * Reset statistics
+     */
+    public void reset();
+}
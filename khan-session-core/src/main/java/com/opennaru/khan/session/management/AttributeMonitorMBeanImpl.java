@@ -0,0 +1,71 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.management;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * AttributeMonitorMBeanImpl
+ *
+ * @since 1.3.0
+ */
+public class AttributeMonitorMBeanImpl extends StandardMBean implements AttributeMonitorMBean {
+
+    private final String appName;
+
+    private final AttributeStatistics statistics;
+
+    public AttributeMonitorMBeanImpl(String appName, AttributeStatistics statistics)
+            throws NotCompliantMBeanException {
+        super(AttributeMonitorMBean.class);
+        this.appName = appName;
+        this.statistics = statistics;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public List<String> getAttributeNames() {
+        return statistics.getAttributeNames();
+    }
+
+    public Map<String, Long> getTopAttributesByBytes(int topN) {
+        return statistics.getTopByBytes(topN);
+    }
+
+    public Map<String, Double> getTopAttributesByWriteRate(int topN) {
+        return statistics.getTopByWriteRate(topN);
+    }
+
+    public Map<String, Long> getAttributeStatistics(String name) {
+        return statistics.getStatistics(name);
+    }
+
+    public void reset() {
+        statistics.reset();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.management;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 세션 Attribute 이름별 통계 (읽기/쓰기 횟수, serialize 크기 분포)
+ *
+ * 크기 분포는 2의 거듭제곱 bucket (log2 histogram) 이므로 attribute 당 메모리가 고정이다.
+ * attribute 이름은 MAX_ATTRIBUTES 개까지만 따로 세고, 나머지는 OTHER로 합친다.
+ *
+ * @since 1.3.0
+ */
+public class AttributeStatistics {
+
+    /**
+     * 따로 세는 attribute 이름 수
+     */
+    public static final int MAX_ATTRIBUTES = 256;
+
+    /**
+     * MAX_ATTRIBUTES를 넘은 attribute
+     */
+    public static final String OTHER = "(other)";
+
+    private static final int BUCKETS = 33;
+
+    private final ConcurrentHashMap<String, Stat> stats = new ConcurrentHashMap<String, Stat>();
+
+    private volatile long resetTime = System.currentTimeMillis();
+
+    /**
+     * sample 할 저장 간격 (sampleRate의 역수, 0이면 하지 않음)
+     */
+    private final long sampleInterval;
+
+    private final AtomicLong saveCount = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param sampleRate 크기를 잴 세션 저장 비율 (0.0 ~ 1.0)
+     */
+    public AttributeStatistics(double sampleRate) {
+        this.sampleInterval = sampleRate > 0 ? Math.max(1L, Math.round(1.0 / sampleRate)) : 0;
+    }
+
+    public void recordRead(String name) {
+        stat(name).reads.incrementAndGet();
+    }
+
+    public void recordWrite(String name) {
+        stat(name).writes.incrementAndGet();
+    }
+
+    /**
+     * serialize 크기 기록
+     * @param name
+     * @param bytes
+     */
+    public void recordSize(String name, int bytes) {
+        Stat stat = stat(name);
+        stat.sizeSamples.incrementAndGet();
+        stat.sizeTotal.addAndGet(bytes);
+        stat.histogram.incrementAndGet(bucket(bytes));
+        long max;
+        while (bytes > (max = stat.sizeMax.get())) {
+            if (stat.sizeMax.compareAndSet(max, bytes)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 이번 세션 저장에서 attribute 크기를 잴지
+     * @return
+     */
+    public boolean isSampled() {
+        return sampleInterval > 0 && saveCount.incrementAndGet() % sampleInterval == 0;
+    }
+
+    /**
+     * 평균 serialize 크기가 큰 attribute
+     * @param topN
+     * @return attribute 이름 -> 평균 bytes
+     */
+    public Map<String, Long> getTopByBytes(int topN) {
+        List<Map.Entry<String, Stat>> entries = sorted(new Comparator<Map.Entry<String, Stat>>() {
+            @Override
+            public int compare(Map.Entry<String, Stat> o1, Map.Entry<String, Stat> o2) {
+                return compareLong(o2.getValue().averageSize(), o1.getValue().averageSize());
+            }
+        });
+        Map<String, Long> top = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Stat> entry : entries) {
+            if (top.size() >= topN || entry.getValue().sizeSamples.get() == 0) {
+                break;
+            }
+            top.put(entry.getKey(), entry.getValue().averageSize());
+        }
+        return top;
+    }
+
+    /**
+     * 쓰기가 많은 attribute
+     * @param topN
+     * @return attribute 이름 -> 초당 쓰기 횟수
+     */
+    public Map<String, Double> getTopByWriteRate(int topN) {
+        List<Map.Entry<String, Stat>> entries = sorted(new Comparator<Map.Entry<String, Stat>>() {
+            @Override
+            public int compare(Map.Entry<String, Stat> o1, Map.Entry<String, Stat> o2) {
+                return compareLong(o2.getValue().writes.get(), o1.getValue().writes.get());
+            }
+        });
+        double seconds = Math.max(1L, System.currentTimeMillis() - resetTime) / 1000.0;
+        Map<String, Double> top = new LinkedHashMap<String, Double>();
+        for (Map.Entry<String, Stat> entry : entries) {
+            long writes = entry.getValue().writes.get();
+            if (top.size() >= topN || writes == 0) {
+                break;
+            }
+            top.put(entry.getKey(), writes / seconds);
+        }
+        return top;
+    }
+
+    /**
+     * attribute 하나의 통계
+     * @param name
+     * @return reads, writes, sizeSamples, sizeAverage, sizeMax, sizeP50, sizeP90, sizeP99 (없으면 빈 Map)
+     */
+    public Map<String, Long> getStatistics(String name) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        Stat stat = stats.get(name);
+        if (stat == null) {
+            return result;
+        }
+        result.put("reads", stat.reads.get());
+        result.put("writes", stat.writes.get());
+        result.put("sizeSamples", stat.sizeSamples.get());
+        result.put("sizeAverage", stat.averageSize());
+        result.put("sizeMax", stat.sizeMax.get());
+        result.put("sizeP50", stat.percentile(0.5));
+        result.put("sizeP90", stat.percentile(0.9));
+        result.put("sizeP99", stat.percentile(0.99));
+        return result;
+    }
+
+    public List<String> getAttributeNames() {
+        List<String> names = new ArrayList<String>(stats.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    public long getResetTime() {
+        return resetTime;
+    }
+
+    public void reset() {
+        stats.clear();
+        resetTime = System.currentTimeMillis();
+    }
+
+    private Stat stat(String name) {
+        Stat stat = stats.get(name);
+        if (stat != null) {
+            return stat;
+        }
+        if (stats.size() >= MAX_ATTRIBUTES) {
+            name = OTHER;
+        }
+        stat = new Stat();
+        Stat old = stats.putIfAbsent(name, stat);
+        return old != null ? old : stat;
+    }
+
+    private List<Map.Entry<String, Stat>> sorted(Comparator<Map.Entry<String, Stat>> comparator) {
+        List<Map.Entry<String, Stat>> entries = new ArrayList<Map.Entry<String, Stat>>(stats.entrySet());
+        Collections.sort(entries, comparator);
+        return entries;
+    }
+
+    private static int compareLong(long x, long y) {
+        return x < y ? -1 : (x == y ? 0 : 1);
+    }
+
+    /**
+     * bucket 0 : 0 byte, bucket n : 2^(n-1) ~ 2^n - 1 bytes
+     */
+    private static int bucket(int bytes) {
+        return bytes <= 0 ? 0 : 32 - Integer.numberOfLeadingZeros(bytes);
+    }
+
+    private static class Stat {
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong sizeSamples = new AtomicLong();
+        final AtomicLong sizeTotal = new AtomicLong();
+        final AtomicLong sizeMax = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        long averageSize() {
+            long samples = sizeSamples.get();
+            return samples == 0 ? 0 : sizeTotal.get() / samples;
+        }
+
+        /**
+         * bucket의 상한으로 추정한 percentile
+         */
+        long percentile(double p) {
+            long samples = sizeSamples.get();
+            if (samples == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(samples * p);
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                count += histogram.get(i);
+                if (count >= rank) {
+                    return i == 0 ? 0 : Math.min((1L << i) - 1, sizeMax.get());
+                }
+            }
+            return sizeMax.get();
+        }
+    }
+}
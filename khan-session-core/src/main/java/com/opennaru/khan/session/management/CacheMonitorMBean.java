@@ -0,0 +1,80 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.management;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CacheMonitorMBean
+ * backend SessionCache 연산별 latency/오류/bytes 통계 (enableCacheStatistics)
+ *
+ * @since 1.3.0
+ */
+public interface CacheMonitorMBean {
+
+    public String getAppName();
+
+    /**
+     * Get names of operations (cache.operation) recorded in the current window
+     * @return
+     */
+    public List<String> getOperationNames();
+
+    /**
+     * Get statistics of an operation in the current window
+     * (count, errors, timeouts, bytesIn, bytesOut, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros)
+     * @param operation
+     * @return
+     */
+    public Map<String, Long> getOperationStatistics(String operation);
+
+    /**
+     * Get statistics of an operation in the previous window
+     * @param operation
+     * @return
+     */
+    public Map<String, Long> getPreviousOperationStatistics(String operation);
+
+    /**
+     * Get one line summary per operation of the current window
+     * @return operation -> count, errors, timeouts, p50/p99/p999 (us)
+     */
+    public Map<String, String> getLatencySummary();
+
+    /**
+     * Get start time of the current window
+     * @return
+     */
+    public long getWindowStartTime();
+
+    /**
+     * Get start time of the previous window
+     * @return
+     */
+    public long getPreviousWindowStartTime();
+
+    /**
+     * Start a new window (the current window becomes the previous window)
+     */
+    public void resetWindow();
+}
@@ -0,0 +1,92 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.management;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CacheMonitorMBeanImpl
+ *
+ * @since 1.3.0
+ */
+public class CacheMonitorMBeanImpl extends StandardMBean implements CacheMonitorMBean {
+
+    private final String appName;
+
+    private final CacheStatistics statistics;
+
+    public CacheMonitorMBeanImpl(String appName, CacheStatistics statistics)
+            throws NotCompliantMBeanException {
+        super(CacheMonitorMBean.class);
+        this.appName = appName;
+        this.statistics = statistics;
+    }
+
+    public String getAppName() {
+        return appName;
+    }
+
+    public List<String> getOperationNames() {
+        return statistics.getOperationNames();
+    }
+
+    public Map<String, Long> getOperationStatistics(String operation) {
+        return statistics.getStatistics(operation);
+    }
+
+    public Map<String, Long> getPreviousOperationStatistics(String operation) {
+        return statistics.getPreviousStatistics(operation);
+    }
+
+    public Map<String, String> getLatencySummary() {
+        Map<String, String> summary = new LinkedHashMap<String, String>();
+        for (String operation : statistics.getOperationNames()) {
+            Map<String, Long> stats = statistics.getStatistics(operation);
+            if (stats.isEmpty()) {
+                continue;
+            }
+            summary.put(operation, "count=" + stats.get("count")
+                    + ", errors=" + stats.get("errors")
+                    + ", timeouts=" + stats.get("timeouts")
+                    + ", p50=" + stats.get("p50Micros") + "us"
+                    + ", p99=" + stats.get("p99Micros") + "us"
+                    + ", p999=" + stats.get("p999Micros") + "us");
+        }
+        return summary;
+    }
+
+    public long getWindowStartTime() {
+        return statistics.getWindowStartTime();
+    }
+
+    public long getPreviousWindowStartTime() {
+        return statistics.getPreviousWindowStartTime();
+    }
+
+    public void resetWindow() {
+        statistics.resetWindow();
+    }
+}
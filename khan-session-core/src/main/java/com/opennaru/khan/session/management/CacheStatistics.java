@@ -0,0 +1,172 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.management;
+
+import com.opennaru.khan.session.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * backend SessionCache 연산 통계 (연산별 latency histogram, 오류/timeout 수, 읽기/쓰기 bytes)
+ *
+ * 연산 이름은 "cache.operation" (예: session.get, login.loginGet) 이다.
+ * 통계는 window 단위이고, resetWindow()를 호출하면 현재 window가 이전 window가 된다.
+ *
+ * @since 1.3.0
+ */
+public class CacheStatistics {
+
+    public static final String SESSION_CACHE = "session";
+
+    public static final String LOGIN_CACHE = "login";
+
+    private final ConcurrentHashMap<String, Window> current = new ConcurrentHashMap<String, Window>();
+
+    private volatile Map<String, Window> previous = Collections.emptyMap();
+
+    private volatile long windowStartTime = System.currentTimeMillis();
+
+    private volatile long previousWindowStartTime = 0;
+
+    /**
+     * 연산 하나를 기록
+     *
+     * @param operation cache.operation
+     * @param nanos     소요 시간
+     * @param error     실패 여부
+     * @param timeout   timeout으로 실패했는지
+     * @param bytesIn   읽은 bytes
+     * @param bytesOut  쓴 bytes
+     */
+    public void record(String operation, long nanos, boolean error, boolean timeout, long bytesIn, long bytesOut) {
+        Window window = window(operation);
+        window.latency.record(nanos);
+        if (error) {
+            window.errors.incrementAndGet();
+        }
+        if (timeout) {
+            window.timeouts.incrementAndGet();
+        }
+        if (bytesIn > 0) {
+            window.bytesIn.addAndGet(bytesIn);
+        }
+        if (bytesOut > 0) {
+            window.bytesOut.addAndGet(bytesOut);
+        }
+    }
+
+    /**
+     * 현재 window에 기록된 연산 이름
+     * @return
+     */
+    public List<String> getOperationNames() {
+        List<String> names = new ArrayList<String>(current.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * 현재 window의 연산 통계
+     * @param operation
+     * @return count, errors, timeouts, bytesIn, bytesOut, meanMicros, p50Micros, p99Micros, p999Micros, maxMicros
+     *         (없으면 빈 Map)
+     */
+    public Map<String, Long> getStatistics(String operation) {
+        return toMap(current.get(operation));
+    }
+
+    /**
+     * 이전 window의 연산 통계
+     * @param operation
+     * @return
+     */
+    public Map<String, Long> getPreviousStatistics(String operation) {
+        return toMap(previous.get(operation));
+    }
+
+    public long getWindowStartTime() {
+        return windowStartTime;
+    }
+
+    public long getPreviousWindowStartTime() {
+        return previousWindowStartTime;
+    }
+
+    /**
+     * 새 window 시작 (현재 window는 이전 window가 된다)
+     */
+    public synchronized void resetWindow() {
+        Map<String, Window> finished = new LinkedHashMap<String, Window>();
+        for (String operation : getOperationNames()) {
+            Window window = current.remove(operation);
+            if (window != null) {
+                finished.put(operation, window);
+            }
+        }
+        previous = finished;
+        previousWindowStartTime = windowStartTime;
+        windowStartTime = System.currentTimeMillis();
+    }
+
+    private Window window(String operation) {
+        Window window = current.get(operation);
+        if (window != null) {
+            return window;
+        }
+        window = new Window();
+        Window old = current.putIfAbsent(operation, window);
+        return old != null ? old : window;
+    }
+
+    private static Map<String, Long> toMap(Window window) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        if (window == null) {
+            return result;
+        }
+        LatencyHistogram latency = window.latency;
+        result.put("count", latency.getCount());
+        result.put("errors", window.errors.get());
+        result.put("timeouts", window.timeouts.get());
+        result.put("bytesIn", window.bytesIn.get());
+        result.put("bytesOut", window.bytesOut.get());
+        result.put("meanMicros", latency.getMean() / 1000);
+        result.put("p50Micros", latency.getPercentile(0.5) / 1000);
+        result.put("p99Micros", latency.getPercentile(0.99) / 1000);
+        result.put("p999Micros", latency.getPercentile(0.999) / 1000);
+        result.put("maxMicros", latency.getMax() / 1000);
+        return result;
+    }
+
+    private static class Window {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+    }
+}
@@ -43,6 +43,22 @@ public interface SessionMonitorMBean {
 
     public ArrayList<String> getSessionIds(int batchSize);
 
+    /**
+     * 세션 ID cursor를 연다. (Redis SCAN 등으로 저장소의 모든 세션을 조금씩 읽는다)
+     * @return cursor ID, 열 수 없으면 null
+     */
+    public String openSessionIdCursor();
+
+    /**
+     * cursor에서 다음 세션 ID들을 읽는다. 다 읽으면 빈 목록을 반환하고 cursor를 닫는다.
+     * @param cursorId
+     * @param batchSize
+     * @return 닫혔거나 없는 cursor면 null
+     */
+    public ArrayList<String> nextSessionIds(String cursorId, int batchSize);
+
+    public void closeSessionIdCursor(String cursorId);
+
     public Map<String, Object> getSessionAttributes(String sessionId);
 
     /**
@@ -134,5 +150,70 @@ public interface SessionMonitorMBean {
      */
     public long getMemorySize(String sessionId);
 
+    /**
+     * Get estimated memory used by the local session id index (bytes)
+     * @return
+     */
+    public long getSessionIdIndexMemorySize();
+
+    /**
+     * Get count of session ids expired from the local index
+     * @return
+     */
+    public long getSessionIdIndexExpiredCount();
+
+    /**
+     * Get count of session ids evicted because the local index was full
+     * @return
+     */
+    public long getSessionIdIndexEvictedCount();
+
+    /**
+     * Get number of sessions waiting for write-behind save
+     * @return
+     */
+    public int getWriteBehindQueueDepth();
+
+    /**
+     * Get count of saves done synchronously because write-behind queue was full
+     * @return
+     */
+    public long getWriteBehindDropCount();
+
+    /**
+     * Get count of saves merged into a pending save of the same session
+     * @return
+     */
+    public long getWriteBehindCoalescedCount();
+
+    /**
+     * Get near cache hit count
+     * @return
+     */
+    public long getNearCacheHitCount();
+
+    /**
+     * Get near cache miss count
+     * @return
+     */
+    public long getNearCacheMissCount();
+
+    /**
+     * Get near cache hit rate (percent)
+     * @return
+     */
+    public double getNearCacheHitRate();
+
+    /**
+     * Get number of entries in near cache
+     * @return
+     */
+    public int getNearCacheEntryCount();
+
+    /**
+     * Reset near cache hit/miss count
+     */
+    public void resetNearCacheStatistics();
+
     public void shutdown();
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ package com.opennaru.khan.session.management;
 
 import com.opennaru.khan.counter.*;
 import com.opennaru.khan.session.manager.KhanSessionManager;
+import com.opennaru.khan.session.util.StripedCounter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,11 +32,14 @@ import javax.management.StandardMBean;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * SessionMonitorMBeanImpl, 세션 정보에 대한 MBean 구현체
  *
+ * 요청 처리 중에 올리는 카운터는 StripedCounter를 쓰고 lock을 잡지 않는다.
+ * 카운터는 reset 하지 않고, reset 시점의 값을 빼서 보여준다.
+ * sampler에는 interval 동안의 증가분을 넘긴다.
+ *
  * @author Junshik Jeon(service@opennaru.com, nameislocus@gmail.com)
  */
 public class SessionMonitorMBeanImpl extends StandardMBean implements
@@ -44,17 +48,20 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
     private static final int DEFAULT_HISTORY_SIZE = 30;
     private static final int DEFAULT_INTERVAL_SECS = 1;
     private final KhanSessionManager sessionManager;
-    private final AtomicLong duplicatedLogin;
-    private final Counter duplicatedLoginStatistic;
+    private final StripedCounter duplicatedLogin = new StripedCounter();
     private final SampledStatistic duplicatedLoginSampled;
-    private final AtomicLong sessionsCreated;
-    private final Counter sessionsCreatedStatistic;
+    private final StripedCounter sessionsCreated = new StripedCounter();
     private final SampledStatistic sessionsCreatedSampled;
-    private final AtomicLong sessionsDestroyed;
-    private final Counter sessionsDestroyedStatistic;
+    private final StripedCounter sessionsDestroyed = new StripedCounter();
     private final SampledStatistic sessionsDestroyedSampled;
+    /**
+     * reset 시점의 카운터 값
+     */
+    private volatile long duplicatedLoginBase = 0;
+    private volatile long sessionsCreatedBase = 0;
+    private volatile long sessionsDestroyedBase = 0;
     private Logger log = LoggerFactory.getLogger(this.getClass());
-    private boolean statisticsEnabled = false;
+    private volatile boolean statisticsEnabled = false;
     private volatile SampledStatisticManager samplingManager;
 
     /**
@@ -70,17 +77,9 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
 
         samplingManager = new SampledStatisticManager();
 
-        sessionsCreatedStatistic = new SimpleCounterImpl();
-        sessionsCreatedSampled = createSampledStatistic(sessionsCreatedStatistic);
-        sessionsCreated = new AtomicLong();
-
-        duplicatedLoginStatistic = new SimpleCounterImpl();
-        duplicatedLoginSampled = createSampledStatistic(duplicatedLoginStatistic);
-        duplicatedLogin = new AtomicLong();
-
-        sessionsDestroyedStatistic = new SimpleCounterImpl();
-        sessionsDestroyedSampled = createSampledStatistic(sessionsDestroyedStatistic);
-        sessionsDestroyed = new AtomicLong();
+        sessionsCreatedSampled = createSampledStatistic(sessionsCreated);
+        duplicatedLoginSampled = createSampledStatistic(duplicatedLogin);
+        sessionsDestroyedSampled = createSampledStatistic(sessionsDestroyed);
 
         if (log.isDebugEnabled()) {
             log.debug("Session Monitor MBean Constructed");
@@ -91,16 +90,38 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
         this.samplingManager.shutdown();
     }
 
-    private SampledStatistic createSampledStatistic(Statistic statistic) {
-        return samplingManager.createSampler(statistic, DEFAULT_INTERVAL_SECS,
-                DEFAULT_HISTORY_SIZE, true);
+    /**
+     * interval 별 증가분을 sampling (증가분을 넘기므로 sampler가 reset 하지 않는다)
+     */
+    private SampledStatistic createSampledStatistic(StripedCounter counter) {
+        return samplingManager.createSampler(new IntervalStatistic(counter), DEFAULT_INTERVAL_SECS,
+                DEFAULT_HISTORY_SIZE, false);
+    }
+
+    /**
+     * 마지막으로 읽은 뒤 증가한 값 (sampler thread만 읽는다)
+     */
+    private static class IntervalStatistic implements Statistic {
+        private final StripedCounter counter;
+        private long last = 0;
+
+        IntervalStatistic(StripedCounter counter) {
+            this.counter = counter;
+        }
+
+        public synchronized long getValue() {
+            long sum = counter.sum();
+            long delta = sum - last;
+            last = sum;
+            return delta;
+        }
     }
 
     public String getAppName() {
         return sessionManager.getAppName();
     }
 
-    public synchronized boolean isStatisticsEnabled() {
+    public boolean isStatisticsEnabled() {
         return statisticsEnabled;
     }
 
@@ -125,11 +146,8 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
      * Increase Duplicate Login Count
      */
     public void duplicatedLogin() {
-        if (isStatisticsEnabled()) {
-            synchronized (this) {
-                duplicatedLogin.incrementAndGet();
-                duplicatedLoginStatistic.increment();
-            }
+        if (statisticsEnabled) {
+            duplicatedLogin.increment();
         }
     }
 
@@ -138,7 +156,7 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
      * @return
      */
     public long getDuplicatedLoginCount() {
-        return duplicatedLogin.get();
+        return duplicatedLogin.sum() - duplicatedLoginBase;
     }
 
     /**
@@ -154,7 +172,7 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
      * @return
      */
     public long getCreatedSessionCount() {
-        return sessionsCreated.get();
+        return sessionsCreated.sum() - sessionsCreatedBase;
     }
 
     /**
@@ -170,7 +188,7 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
      * @return
      */
     public long getDestroyedSessionCount() {
-        return sessionsDestroyed.get();
+        return sessionsDestroyed.sum() - sessionsDestroyedBase;
     }
 
     /**
@@ -185,7 +203,7 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
      * Get active session count
      * @return
      */
-    public synchronized long getActiveSessionCount() {
+    public long getActiveSessionCount() {
         return sessionManager.getSessionIdCount();
     }
 
@@ -212,24 +230,17 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
      * Reset all statistics
      */
     public synchronized void reset() {
-        sessionsCreatedStatistic.getAndReset();
-        sessionsCreated.set(0);
-        sessionsDestroyedStatistic.getAndReset();
-        sessionsDestroyed.set(0);
-        duplicatedLoginStatistic.getAndReset();
-        duplicatedLogin.set(0);
-
+        sessionsCreatedBase = sessionsCreated.sum();
+        sessionsDestroyedBase = sessionsDestroyed.sum();
+        duplicatedLoginBase = duplicatedLogin.sum();
     }
 
     /**
      * Increase session created count
      */
     public void sessionCreated() {
-        if (isStatisticsEnabled()) {
-            synchronized (this) {
-                sessionsCreated.incrementAndGet();
-                sessionsCreatedStatistic.increment();
-            }
+        if (statisticsEnabled) {
+            sessionsCreated.increment();
         }
     }
 
@@ -237,11 +248,8 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
      * Increase session destroyed count
      */
     public void sessionDestroyed() {
-        if (isStatisticsEnabled()) {
-            synchronized (this) {
-                sessionsDestroyed.incrementAndGet();
-                sessionsDestroyedStatistic.increment();
-            }
+        if (statisticsEnabled) {
+            sessionsDestroyed.increment();
         }
     }
 
@@ -254,6 +262,32 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
         return sessionManager.getSessionIds(batchSize);
     }
 
+    /**
+     * Open a cursor over the session ids in the store
+     * @return
+     */
+    public String openSessionIdCursor() {
+        return sessionManager.openSessionIdCursor();
+    }
+
+    /**
+     * Get next session ids of the cursor
+     * @param cursorId
+     * @param batchSize
+     * @return
+     */
+    public ArrayList<String> nextSessionIds(String cursorId, int batchSize) {
+        return sessionManager.nextSessionIds(cursorId, batchSize);
+    }
+
+    /**
+     * Close the cursor
+     * @param cursorId
+     */
+    public void closeSessionIdCursor(String cursorId) {
+        sessionManager.closeSessionIdCursor(cursorId);
+    }
+
     /**
      * get session attributes
      * @param sessionId
@@ -297,4 +331,96 @@ public class SessionMonitorMBeanImpl extends StandardMBean implements
         return sessionManager.getSessionMemorySize(sessionId);
     }
 
+    /**
+     * Get estimated memory used by the local session id index (bytes)
+     * @return
+     */
+    public long getSessionIdIndexMemorySize() {
+        return sessionManager.getSessionIdIndexMemorySize();
+    }
+
+    /**
+     * Get count of session ids expired from the local index
+     * @return
+     */
+    public long getSessionIdIndexExpiredCount() {
+        return sessionManager.getSessionIdIndexExpiredCount();
+    }
+
+    /**
+     * Get count of session ids evicted because the local index was full
+     * @return
+     */
+    public long getSessionIdIndexEvictedCount() {
+        return sessionManager.getSessionIdIndexEvictedCount();
+    }
+
+    /**
+     * Get number of sessions waiting for write-behind save
+     * @return
+     */
+    public int getWriteBehindQueueDepth() {
+        return sessionManager.getWriteBehindQueueDepth();
+    }
+
+    /**
+     * Get count of saves done synchronously because write-behind queue was full
+     * @return
+     */
+    public long getWriteBehindDropCount() {
+        return sessionManager.getWriteBehindDropCount();
+    }
+
+    /**
+     * Get count of saves merged into a pending save of the same session
+     * @return
+     */
+    public long getWriteBehindCoalescedCount() {
+        return sessionManager.getWriteBehindCoalescedCount();
+    }
+
+    /**
+     * Get near cache hit count
+     * @return
+     */
+    public long getNearCacheHitCount() {
+        return sessionManager.getNearCacheHitCount();
+    }
+
+    /**
+     * Get near cache miss count
+     * @return
+     */
+    public long getNearCacheMissCount() {
+        return sessionManager.getNearCacheMissCount();
+    }
+
+    /**
+     * Get near cache hit rate (percent)
+     * @return
+     */
+    public double getNearCacheHitRate() {
+        long hit = sessionManager.getNearCacheHitCount();
+        long total = hit + sessionManager.getNearCacheMissCount();
+        if (total == 0) {
+            return 0;
+        }
+        return hit * 100.0 / total;
+    }
+
+    /**
+     * Get number of entries in near cache
+     * @return
+     */
+    public int getNearCacheEntryCount() {
+        return sessionManager.getNearCacheEntryCount();
+    }
+
+    /**
+     * Reset near cache hit/miss count
+     */
+    public void resetNearCacheStatistics() {
+        sessionManager.resetNearCacheStatistics();
+    }
+
 }
\ No newline at end of file
@@ -19,38 +19,601 @@
  *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
  *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
+
 package com.opennaru.khan.session.manager;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * KhanSessionIdStore : Manage SessionIds
  * 세션 ID에 대한 그 메모리 크기를 저장
  *
+ * 세션 ID마다 만료 시간을 두고 timing wheel로 만료시킨다. (invalidate나 만료 알림이 없어도 남지 않는다)
+ * 세션 ID는 segment 별 open addressing 배열에, 메모리 크기와 만료 시간은 primitive 배열에 저장한다.
+ * maxSize를 넘으면 가장 먼저 만료될 세션 ID부터 제거한다.
+ *
+ * timing wheel : TICK_SECONDS 간격의 slot WHEEL_SLOTS 개 (약 85분)
+ * 더 먼 만료 시간은 한 바퀴 뒤의 slot에 넣고, 그 때 다시 넣는다.
+ * 접근(touch)은 만료 시간만 바꾸고, slot이 돌아왔을 때 만료되지 않았으면 다시 넣는다.
+ *
  * @author Junshik Jeon(service@opennaru.com, nameislocus@gmail.com)
  */
 public class KhanSessionIdStore {
     /**
-     * Session ID Store, 세션의 ID만 저장된다.
+     * 기본 최대 세션 ID 수
      */
-    private ConcurrentHashMap<String, Object> sessionStore = new ConcurrentHashMap<String, Object>();
+    public static final int DEFAULT_MAX_SIZE = 1000000;
+
+    /**
+     * 만료 시간이 없는 세션
+     */
+    public static final int NO_EXPIRY = -1;
+
+    static final int TICK_SECONDS = 10;
+
+    static final int WHEEL_SLOTS = 512;
+
+    private static final int WHEEL_MASK = WHEEL_SLOTS - 1;
+
+    private static final int SEGMENTS = 16;
+
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * compressed oops 기준 (메모리 추정용)
+     */
+    private static final int REFERENCE_BYTES = 4;
+
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private static final int STRING_BYTES = 24 + ARRAY_HEADER_BYTES;
+
+    private final String namespace;
+
+    private final int maxSize;
+
+    private final Segment[] segments;
+
+    private final long baseMillis;
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private final AtomicLong evictedCount = new AtomicLong();
 
     /**
      * Constructor
      * @param namespace
      */
     public KhanSessionIdStore(String namespace) {
-        ConcurrentHashMap<String, Long> sessionIds = new ConcurrentHashMap<String, Long>();
-        sessionStore.put(namespace, sessionIds);
+        this(namespace, DEFAULT_MAX_SIZE);
     }
 
     /**
-     * SessionStore를 반환
+     * Constructor
      * @param namespace
+     * @param maxSize 최대 세션 ID 수
+     */
+    public KhanSessionIdStore(String namespace, int maxSize) {
+        this.namespace = namespace;
+        this.maxSize = maxSize;
+        this.baseMillis = currentTimeMillis();
+        this.segments = new Segment[SEGMENTS];
+        int segmentMaxSize = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentMaxSize);
+        }
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 세션 ID와 메모리 크기를 저장 (있으면 메모리 크기와 만료 시간을 바꾼다)
+     *
+     * @param sessionId
+     * @param memorySize
+     * @param ttlSeconds 만료까지 남은 시간, NO_EXPIRY 이면 만료되지 않음
+     */
+    public void put(String sessionId, long memorySize, int ttlSeconds) {
+        int now = now();
+        segmentFor(sessionId).put(sessionId, memorySize, expireAt(now, ttlSeconds), now, true);
+    }
+
+    /**
+     * 세션 ID의 만료 시간을 늘린다. 없으면 메모리 크기 0으로 추가한다.
+     *
+     * @param sessionId
+     * @param ttlSeconds
+     * @return 추가했으면 true
+     */
+    public boolean touch(String sessionId, int ttlSeconds) {
+        int now = now();
+        return segmentFor(sessionId).put(sessionId, 0L, expireAt(now, ttlSeconds), now, false);
+    }
+
+    /**
+     * 세션 ID 제거
+     * @param sessionId
+     * @return 있었으면 true
+     */
+    public boolean remove(String sessionId) {
+        return segmentFor(sessionId).remove(sessionId, now());
+    }
+
+    public boolean contains(String sessionId) {
+        return segmentFor(sessionId).memorySize(sessionId, now()) >= 0;
+    }
+
+    /**
+     * 세션의 메모리 크기
+     * @param sessionId
+     * @return 없으면 0
+     */
+    public long getMemorySize(String sessionId) {
+        return Math.max(0L, segmentFor(sessionId).memorySize(sessionId, now()));
+    }
+
+    /**
+     * 만료 시간이 지난 세션 ID 제거
+     */
+    public void expire() {
+        int now = now();
+        for (Segment segment : segments) {
+            segment.expire(now);
+        }
+    }
+
+    /**
+     * 세션 ID 수
+     * @return
+     */
+    public int size() {
+        expire();
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * 세션 메모리 크기 합
+     * @return
+     */
+    public long getTotalMemorySize() {
+        expire();
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.totalMemorySize();
+        }
+        return total;
+    }
+
+    /**
+     * 이 index가 쓰는 메모리 추정치 (배열 + 세션 ID 문자열, bytes)
+     * @return
+     */
+    public long getIndexMemorySize() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.footprint();
+        }
+        return bytes;
+    }
+
+    /**
+     * 만료되어 제거된 세션 ID 수
      * @return
      */
-    public ConcurrentHashMap<String, Long> getSessionStore(String namespace) {
-        return (ConcurrentHashMap<String, Long>) sessionStore.get(namespace);
+    public long getExpiredCount() {
+        return expiredCount.get();
     }
 
+    /**
+     * maxSize를 넘어 제거된 세션 ID 수
+     * @return
+     */
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * 세션 ID iterator
+     * segment 별로 CHUNK_SIZE 개씩 복사하므로 weakly consistent 하다. (배열이 커지면 중복되거나 빠질 수 있다)
+     * @return
+     */
+    public Iterator<String> iterator() {
+        return new IdIterator();
+    }
+
+    /**
+     * 현재 시간 (ms)
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private int now() {
+        return (int) ((currentTimeMillis() - baseMillis) / 1000L);
+    }
+
+    private static int expireAt(int now, int ttlSeconds) {
+        if (ttlSeconds < 0) {
+            return Integer.MAX_VALUE;
+        }
+        long expireAt = (long) now + ttlSeconds;
+        return (int) Math.min(expireAt, Integer.MAX_VALUE - 1);
+    }
+
+    private static int hash(String sessionId) {
+        int h = sessionId.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private Segment segmentFor(String sessionId) {
+        return segments[(hash(sessionId) >>> 28) & (SEGMENTS - 1)];
+    }
+
+    private class Segment {
+        private final int maxSize;
+
+        private String[] ids = new String[16];
+
+        private long[] memorySizes = new long[16];
+
+        /**
+         * 만료 시간 (baseMillis 기준 초)
+         */
+        private int[] expireAts = new int[16];
+
+        /**
+         * 세션 ID가 들어 있는 wheel tick
+         */
+        private int[] wheelTicks = new int[16];
+
+        private int count = 0;
+
+        private long totalMemorySize = 0;
+
+        private long idChars = 0;
+
+        private final String[][] wheel = new String[WHEEL_SLOTS][];
+
+        private final int[] wheelCounts = new int[WHEEL_SLOTS];
+
+        private int wheelEntries = 0;
+
+        private int lastTick;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+            this.lastTick = now() / TICK_SECONDS;
+        }
+
+        synchronized boolean put(String sessionId, long memorySize, int expireAt, int now, boolean replace) {
+            advance(now);
+            int i = find(sessionId);
+            if (i >= 0) {
+                if (replace) {
+                    totalMemorySize += memorySize - memorySizes[i];
+                    memorySizes[i] = memorySize;
+                    expireAts[i] = expireAt;
+                } else if (expireAt > expireAts[i]) {
+                    expireAts[i] = expireAt;
+                }
+                return false;
+            }
+
+            if (count >= maxSize) {
+                evictOne();
+            }
+            if ((count + 1) * 4 > ids.length * 3) {
+                resize(ids.length * 2);
+            }
+            i = hash(sessionId) & (ids.length - 1);
+            while (ids[i] != null) {
+                i = (i + 1) & (ids.length - 1);
+            }
+            ids[i] = sessionId;
+            memorySizes[i] = memorySize;
+            expireAts[i] = expireAt;
+            count++;
+            totalMemorySize += memorySize;
+            idChars += sessionId.length();
+            schedule(i, lastTick);
+            return true;
+        }
+
+        synchronized boolean remove(String sessionId, int now) {
+            advance(now);
+            int i = find(sessionId);
+            if (i < 0) {
+                return false;
+            }
+            removeAt(i);
+            if (wheelEntries > count * 2 + 1024) {
+                rebuildWheel();
+            }
+            return true;
+        }
+
+        synchronized long memorySize(String sessionId, int now) {
+            advance(now);
+            int i = find(sessionId);
+            return i < 0 ? -1L : memorySizes[i];
+        }
+
+        synchronized void expire(int now) {
+            advance(now);
+        }
+
+        synchronized int size() {
+            return count;
+        }
+
+        synchronized long totalMemorySize() {
+            return totalMemorySize;
+        }
+
+        synchronized long footprint() {
+            long bytes = 4L * ARRAY_HEADER_BYTES + (long) ids.length * (REFERENCE_BYTES + 8 + 4 + 4);
+            bytes += 2L * ARRAY_HEADER_BYTES + (long) WHEEL_SLOTS * (REFERENCE_BYTES + 4);
+            for (String[] list : wheel) {
+                if (list != null) {
+                    bytes += ARRAY_HEADER_BYTES + (long) list.length * REFERENCE_BYTES;
+                }
+            }
+            bytes += (long) count * STRING_BYTES + idChars * 2;
+            return bytes;
+        }
+
+        /**
+         * lastTick 이후 지나간 slot을 처리
+         */
+        private void advance(int now) {
+            int nowTick = now / TICK_SECONDS;
+            if (nowTick <= lastTick) {
+                return;
+            }
+            int from = Math.max(lastTick + 1, nowTick - WHEEL_SLOTS + 1);
+            for (int tick = from; tick <= nowTick; tick++) {
+                fire(tick, now);
+            }
+            lastTick = nowTick;
+        }
+
+        private void fire(int tick, int now) {
+            int slot = tick & WHEEL_MASK;
+            String[] list = wheel[slot];
+            int n = wheelCounts[slot];
+            if (n == 0) {
+                return;
+            }
+            wheel[slot] = null;
+            wheelCounts[slot] = 0;
+            wheelEntries -= n;
+
+            for (int k = 0; k < n; k++) {
+                int i = find(list[k]);
+                if (i < 0 || (wheelTicks[i] & WHEEL_MASK) != slot) {
+                    // 제거되었거나 다른 slot으로 옮겨진 세션
+                    continue;
+                }
+                if (wheelTicks[i] > tick) {
+                    addToWheel(slot, ids[i]);
+                } else if (expireAts[i] <= now) {
+                    removeAt(i);
+                    expiredCount.incrementAndGet();
+                } else {
+                    schedule(i, tick);
+                }
+            }
+        }
+
+        /**
+         * 만료 시간의 tick에 넣는다. (한 바퀴보다 멀면 한 바퀴 뒤)
+         */
+        private void schedule(int i, int baseTick) {
+            long tick = expireAts[i] / TICK_SECONDS + 1;
+            tick = Math.min(tick, (long) baseTick + WHEEL_SLOTS - 1);
+            tick = Math.max(tick, (long) baseTick + 1);
+            wheelTicks[i] = (int) tick;
+            addToWheel((int) tick & WHEEL_MASK, ids[i]);
+        }
+
+        private void addToWheel(int slot, String sessionId) {
+            String[] list = wheel[slot];
+            int n = wheelCounts[slot];
+            if (list == null) {
+                list = new String[4];
+                wheel[slot] = list;
+            } else if (n == list.length) {
+                String[] grown = new String[n * 2];
+                System.arraycopy(list, 0, grown, 0, n);
+                list = grown;
+                wheel[slot] = list;
+            }
+            list[n] = sessionId;
+            wheelCounts[slot] = n + 1;
+            wheelEntries++;
+        }
+
+        /**
+         * 제거된 세션 ID가 wheel에 많이 남으면 다시 만든다.
+         */
+        private void rebuildWheel() {
+            for (int slot = 0; slot < WHEEL_SLOTS; slot++) {
+                wheel[slot] = null;
+                wheelCounts[slot] = 0;
+            }
+            wheelEntries = 0;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] != null) {
+                    schedule(i, lastTick);
+                }
+            }
+        }
+
+        /**
+         * 가장 먼저 돌아올 slot의 세션 ID를 제거
+         */
+        private void evictOne() {
+            for (int tick = lastTick + 1; tick <= lastTick + WHEEL_SLOTS; tick++) {
+                int slot = tick & WHEEL_MASK;
+                String[] list = wheel[slot];
+                for (int k = 0; k < wheelCounts[slot]; k++) {
+                    int i = find(list[k]);
+                    if (i >= 0 && (wheelTicks[i] & WHEEL_MASK) == slot) {
+                        removeAt(i);
+                        evictedCount.incrementAndGet();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private int find(String sessionId) {
+            int mask = ids.length - 1;
+            int i = hash(sessionId) & mask;
+            String id;
+            while ((id = ids[i]) != null) {
+                if (id.equals(sessionId)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * linear probing 삭제 (뒤의 세션 ID를 당겨서 빈 칸을 메운다)
+         */
+        private void removeAt(int i) {
+            count--;
+            totalMemorySize -= memorySizes[i];
+            idChars -= ids[i].length();
+
+            int mask = ids.length - 1;
+            int j = i;
+            while (true) {
+                ids[i] = null;
+                while (true) {
+                    j = (j + 1) & mask;
+                    String id = ids[j];
+                    if (id == null) {
+                        return;
+                    }
+                    int home = hash(id) & mask;
+                    boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                    if (!stays) {
+                        break;
+                    }
+                }
+                ids[i] = ids[j];
+                memorySizes[i] = memorySizes[j];
+                expireAts[i] = expireAts[j];
+                wheelTicks[i] = wheelTicks[j];
+                i = j;
+            }
+        }
+
+        private void resize(int capacity) {
+            String[] oldIds = ids;
+            long[] oldMemorySizes = memorySizes;
+            int[] oldExpireAts = expireAts;
+            int[] oldWheelTicks = wheelTicks;
+
+            ids = new String[capacity];
+            memorySizes = new long[capacity];
+            expireAts = new int[capacity];
+            wheelTicks = new int[capacity];
+
+            int mask = capacity - 1;
+            for (int k = 0; k < oldIds.length; k++) {
+                if (oldIds[k] == null) {
+                    continue;
+                }
+                int i = hash(oldIds[k]) & mask;
+                while (ids[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                ids[i] = oldIds[k];
+                memorySizes[i] = oldMemorySizes[k];
+                expireAts[i] = oldExpireAts[k];
+                wheelTicks[i] = oldWheelTicks[k];
+            }
+        }
+
+        /**
+         * position부터 세션 ID를 max 개까지 복사
+         * @return 다음 position, 끝이면 -1
+         */
+        synchronized int copyIds(int position, String[] chunk, int[] copied) {
+            int n = 0;
+            int i = position;
+            while (i < ids.length && n < chunk.length) {
+                if (ids[i] != null) {
+                    chunk[n++] = ids[i];
+                }
+                i++;
+            }
+            copied[0] = n;
+            return i < ids.length ? i : -1;
+        }
+    }
+
+    private class IdIterator implements Iterator<String> {
+        private int segment = 0;
+
+        private int position = 0;
+
+        private final String[] chunk = new String[CHUNK_SIZE];
+
+        private final int[] copied = new int[1];
+
+        private int index = 0;
+
+        private int size = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (index >= size) {
+                if (segment >= segments.length) {
+                    return false;
+                }
+                position = segments[segment].copyIds(position, chunk, copied);
+                if (position < 0) {
+                    segment++;
+                    position = 0;
+                }
+                index = 0;
+                size = copied[0];
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return chunk[index++];
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -24,9 +24,17 @@ package com.opennaru.khan.session.manager;
 import com.opennaru.khan.session.KhanHttpSession;
 import com.opennaru.khan.session.KhanSessionConfig;
 import com.opennaru.khan.session.KhanSessionKeyGenerator;
+import com.opennaru.khan.session.KhanSessionRecord;
 import com.opennaru.khan.session.filter.KhanSessionFilter;
+import com.opennaru.khan.session.management.AttributeMonitorMBeanImpl;
+import com.opennaru.khan.session.management.AttributeStatistics;
+import com.opennaru.khan.session.management.CacheMonitorMBeanImpl;
+import com.opennaru.khan.session.management.CacheStatistics;
 import com.opennaru.khan.session.management.SessionMonitorMBean;
 import com.opennaru.khan.session.management.SessionMonitorMBeanImpl;
+import com.opennaru.khan.session.store.NearSessionCache;
+import com.opennaru.khan.session.store.SessionExpirationListener;
+import com.opennaru.khan.session.store.SessionKeyCursor;
 import com.opennaru.khan.session.store.SessionStore;
 import com.opennaru.khan.session.util.StringUtils;
 import org.github.jamm.MemoryMeter;
@@ -39,12 +47,18 @@ import javax.management.MBeanRegistrationException;
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.io.Serializable;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * KhanSessionManager MBean을 관리하는 클래스
@@ -59,11 +73,41 @@ public class KhanSessionManager {
      */
     private static ConcurrentHashMap<String, KhanSessionManager> instances = new ConcurrentHashMap<String, KhanSessionManager>();
 
+    /**
+     * cleanup 할 때 한 번에 조회할 세션 ID 수
+     */
+    private static final int CLEANUP_BATCH_SIZE = 100;
+
+    /**
+     * 동시에 열 수 있는 세션 ID cursor 수
+     */
+    private static final int MAX_SESSION_ID_CURSORS = 16;
+
+    /**
+     * 이 시간 동안 읽지 않은 cursor는 닫는다.
+     */
+    private static final long SESSION_ID_CURSOR_IDLE_MILLIS = 5 * 60 * 1000L;
+
+    /**
+     * 세션 ID index의 만료 여유 시간 (저장소의 만료 알림이 먼저 오도록)
+     */
+    private static final int SESSION_ID_EXPIRY_GRACE_SECONDS = 60;
+
     /**
      * 세션 모니터링 MBean
      */
     private SessionMonitorMBean sessionMonitor;
 
+    /**
+     * Attribute 이름별 통계 (enableAttributeStatistics 일 때만)
+     */
+    private AttributeStatistics attributeStatistics = null;
+
+    /**
+     * backend cache 연산 통계 (enableCacheStatistics 일 때만)
+     */
+    private CacheStatistics cacheStatistics = null;
+
     /**
      *  WebApp의 이름
      */
@@ -86,11 +130,55 @@ public class KhanSessionManager {
 
     private boolean memoryStatError = false;
 
+    /**
+     * deep measure 할 세션 저장 간격 (memoryStatisticsSampleRate의 역수, 0이면 하지 않음)
+     */
+    private long memorySampleInterval = 0;
+
+    private final AtomicLong memorySampleCount = new AtomicLong();
+
+    private final MemoryMeter memoryMeter = new MemoryMeter();
+
+    /**
+     * heap 크기 / serialize 크기 (deep measure 할 때마다 갱신)
+     */
+    private volatile double heapToSerializedRatio = 1.0;
+
     /**
      * 세션 ID 저장소
      */
     private KhanSessionIdStore sessionIdStore = null;
 
+    /**
+     * write-behind 세션 저장 (enableWriteBehind=true 일 때만 생성)
+     */
+    private SessionWriteBehind writeBehind = null;
+
+    /**
+     * near cache (enableNearCache=true 일 때만 설정)
+     */
+    private NearSessionCache nearCache = null;
+
+    /**
+     * 저장소의 만료 알림으로 세션 ID 목록을 정리 (만료를 모두 알려주면 cleanup 하지 않음)
+     */
+    private final SessionExpirationListener expirationListener = new SessionExpirationListener() {
+        @Override
+        public void keyRemoved(String key, boolean expired) {
+            sessionKeyRemoved(key, expired);
+        }
+    };
+
+    /**
+     * 저장소가 만료된 키를 모두 알려주는지
+     */
+    private volatile boolean expirationNotified = false;
+
+    /**
+     * 열린 세션 ID cursor (cursor ID -> cursor)
+     */
+    private final ConcurrentHashMap<String, SessionIdCursor> sessionIdCursors = new ConcurrentHashMap<String, SessionIdCursor>();
+
     /**
      * Constructor
      *
@@ -99,11 +187,19 @@ public class KhanSessionManager {
     public KhanSessionManager(String appName) {
         this.appName = appName;
         this.khanSessionConfig = KhanSessionFilter.getKhanSessionConfig();
-        this.sessionIdStore = new KhanSessionIdStore(appName);
+        this.sessionIdStore = new KhanSessionIdStore(appName, khanSessionConfig.getSessionIdIndexMaxSize());
 
         statsEnabled = khanSessionConfig.isEnableStatistics();
+        double sampleRate = khanSessionConfig.getMemoryStatisticsSampleRate();
+        memorySampleInterval = sampleRate > 0 ? Math.max(1L, Math.round(1.0 / sampleRate)) : 0;
+
+        if( khanSessionConfig.isEnableWriteBehind() ) {
+            writeBehind = new SessionWriteBehind(khanSessionConfig.getWriteBehindQueueSize(),
+                    khanSessionConfig.getWriteBehindThreads());
+        }
 
         registerSessionMonitor();
+        registerAttributeMonitor();
 
         instances.put(appName, this);
 
@@ -119,6 +215,78 @@ public class KhanSessionManager {
      */
     public void setSessionStore(SessionStore sessionStore) {
         this.sessionStore = sessionStore;
+        if( statsEnabled ) {
+            expirationNotified = sessionStore.addExpirationListener(expirationListener);
+            if( log.isDebugEnabled() ) {
+                log.debug("expirationNotified=" + expirationNotified);
+            }
+        }
+    }
+
+    /**
+     * 저장소에서 세션 키가 없어지면 SessionIdStore에서 세션 ID를 제거
+     * 세션마다 하나인 metadata(또는 record) 키로 판단하고,
+     * 만료된 경우에만 destroyed 통계를 올린다. (invalidate는 SessionListener에서 센다)
+     *
+     * @param key
+     * @param expired
+     */
+    private void sessionKeyRemoved(String key, boolean expired) {
+        String namespace = khanSessionConfig.getNamespace();
+        String sessionId = KhanSessionKeyGenerator.parseSessionId(namespace, key, KhanHttpSession.METADATA_KEY);
+        if( sessionId == null )
+            sessionId = KhanSessionKeyGenerator.parseSessionId(namespace, key, KhanSessionRecord.RECORD_KEY);
+        if( sessionId == null )
+            return;
+
+        if( sessionIdStore.remove(sessionId) ) {
+            if( log.isDebugEnabled() ) {
+                log.debug("session removed from store. sessionId=" + sessionId + ", expired=" + expired);
+            }
+            if( expired && sessionMonitor != null )
+                sessionMonitor.sessionDestroyed();
+        }
+    }
+
+    /**
+     * check if expiration notification replaces cleanup polling
+     * @return
+     */
+    public boolean isExpirationNotified() {
+        return expirationNotified;
+    }
+
+    /**
+     * set near cache for statistics
+     * @param nearCache
+     */
+    public void setNearCache(NearSessionCache nearCache) {
+        this.nearCache = nearCache;
+    }
+
+    /**
+     * set backend cache statistics and register CacheMonitorMBean
+     * @param statistics
+     */
+    public synchronized void setCacheStatistics(CacheStatistics statistics) {
+        if( cacheStatistics != null ) {
+            return;
+        }
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(new CacheMonitorMBeanImpl(appName, statistics), getJMXObjectName("CacheMonitor"));
+            cacheStatistics = statistics;
+        } catch (Exception e) {
+            log.warn("Unable to register CacheMonitorMBean for '" + getAppName() + "'", e);
+        }
+    }
+
+    /**
+     * get backend cache statistics
+     * @return enableCacheStatistics가 아니면 null
+     */
+    public CacheStatistics getCacheStatistics() {
+        return cacheStatistics;
     }
 
     /**
@@ -172,21 +340,29 @@ public class KhanSessionManager {
     public long getSessionIdCount() {
         if( statsEnabled ) {
             if (log.isDebugEnabled()) {
-                log.debug("getSessionCount/size=" + sessionIdStore.getSessionStore(appName).size());
+                log.debug("getSessionCount/size=" + sessionIdStore.size());
             }
-            return (long) sessionIdStore.getSessionStore(appName).size();
+            return (long) sessionIdStore.size();
         } else {
             return 0;
         }
     }
 
     /**
-     * Infinispan에 저장된 Session의 총 갯수
+     * 저장소에 있는 Session의 총 갯수
+     * 저장소가 세션 카운터를 지원하면 최근 세션 timeout 동안 접근한 세션 수의 추정값을 돌려준다. (저장소를 세지 않음)
+     * 지원하지 않으면 저장소의 키 개수로 계산한다.
      * 세션은 메타데이터와 Attribute 두 개의 키로 나누어 저장되어 / 2 값이 세션의 총 갯수
+     * (enableCombinedRecord=true 이면 세션 당 키 하나)
      * @return
      */
     public int getTotalSessionCount() {
         if( statsEnabled ) {
+            long count = sessionStore.getActiveSessionCount();
+            if( count >= 0 )
+                return (int) count;
+            if( KhanSessionRecord.isEnabled() )
+                return sessionStore.size();
             return (sessionStore.size() / 2);
         } else {
             return 0;
@@ -195,34 +371,175 @@ public class KhanSessionManager {
 
     /**
      * Cleanup all sessions
-     *
+     * 세션 ID를 CLEANUP_BATCH_SIZE 개씩 묶어서 store에 한 번에 조회한다.
+     * 저장소가 만료 알림을 보내면 알림으로 정리하므로 조회하지 않는다.
+     * (만료 시간이 지난 세션 ID는 index에서 먼저 제거된다)
      */
     public void cleanup() {
-        ConcurrentHashMap<String, Long> sessionIds = sessionIdStore.getSessionStore(appName);
-        Enumeration<String> keys = sessionIds.keys();
-        while (keys.hasMoreElements()) {
-            String key = keys.nextElement();
-            String storeMetaKey = KhanSessionKeyGenerator.generate(khanSessionConfig.getNamespace(), key, KhanHttpSession.METADATA_KEY);
-            String storeAttrKey = KhanSessionKeyGenerator.generate(khanSessionConfig.getNamespace(), key, KhanHttpSession.ATTRIBUTES_KEY);
-
+        sessionIdStore.expire();
+        if( expirationNotified ) {
             if( log.isDebugEnabled() ) {
-                log.debug("key=" + key);
-                log.debug("storeMetaKey=" + storeMetaKey);
-                log.debug("storeAttrKey=" + storeAttrKey);
+                log.debug("cleanup skipped. expiration is notified by the store.");
             }
+            return;
+        }
+
+        List<String> batch = new ArrayList<String>(CLEANUP_BATCH_SIZE);
+        Iterator<String> keys = sessionIdStore.iterator();
+        while (keys.hasNext()) {
+            batch.add(keys.next());
+            if (batch.size() == CLEANUP_BATCH_SIZE || !keys.hasNext()) {
+                removeExpiredSessionIds(batch);
+                batch.clear();
+            }
+        }
+    }
 
-            Object attr = sessionStore.get(storeAttrKey);
-            Object meta = sessionStore.get(storeMetaKey);
+    /**
+     * store에 없는 세션 ID를 SessionIdStore에서 제거
+     *
+     * @param batch
+     */
+    private void removeExpiredSessionIds(List<String> batch) {
+        String namespace = khanSessionConfig.getNamespace();
+        boolean combinedRecord = KhanSessionRecord.isEnabled();
+
+        List<String> storeKeys = new ArrayList<String>(batch.size() * 3);
+        for (String key : batch) {
+            storeKeys.add(KhanSessionKeyGenerator.generate(namespace, key, KhanHttpSession.METADATA_KEY));
+            storeKeys.add(KhanSessionKeyGenerator.generate(namespace, key, KhanHttpSession.ATTRIBUTES_KEY));
+            if( combinedRecord )
+                storeKeys.add(KhanSessionKeyGenerator.generate(namespace, key, KhanSessionRecord.RECORD_KEY));
+        }
+
+        Map<String, Serializable> values = sessionStore.getAll(storeKeys);
+
+        for (String key : batch) {
+            String storeMetaKey = KhanSessionKeyGenerator.generate(namespace, key, KhanHttpSession.METADATA_KEY);
+            String storeAttrKey = KhanSessionKeyGenerator.generate(namespace, key, KhanHttpSession.ATTRIBUTES_KEY);
+
+            Object attr = values.get(storeAttrKey);
+            Object meta = values.get(storeMetaKey);
+            if( meta == null && combinedRecord )
+                meta = values.get(KhanSessionKeyGenerator.generate(namespace, key, KhanSessionRecord.RECORD_KEY));
 
             if( log.isDebugEnabled() ) {
+                log.debug("key=" + key);
+                log.debug("storeMetaKey=" + storeMetaKey);
+                log.debug("storeAttrKey=" + storeAttrKey);
                 log.debug("attr,meta=" + attr + "," + meta);
             }
             if (attr == null && meta == null) {
-                sessionIds.remove(key);
+                sessionIdStore.remove(key);
             }
         }
     }
 
+    /**
+     * check if write-behind save is enabled
+     * @return
+     */
+    public boolean isWriteBehindEnabled() {
+        return writeBehind != null;
+    }
+
+    /**
+     * 세션 저장을 write-behind 큐에 넣는다.
+     *
+     * @param session
+     */
+    public void saveBehind(KhanHttpSession session) {
+        if( writeBehind != null ) {
+            writeBehind.submit(session);
+        } else {
+            session.save();
+        }
+    }
+
+    /**
+     * 세션 ID에 대해 대기 중인 저장을 바로 실행 (store에서 읽기 전)
+     *
+     * @param sessionId
+     */
+    public void flushPendingSave(String sessionId) {
+        if( writeBehind != null )
+            writeBehind.flush(sessionId);
+    }
+
+    /**
+     * 세션 ID에 대해 대기 중인 저장을 취소 (invalidate)
+     *
+     * @param sessionId
+     */
+    public void cancelPendingSave(String sessionId) {
+        if( writeBehind != null )
+            writeBehind.cancel(sessionId);
+    }
+
+    /**
+     * 대기 중인 write-behind 저장을 모두 실행하고 worker를 종료
+     */
+    public void flushWriteBehind() {
+        if( writeBehind != null )
+            writeBehind.shutdown();
+    }
+
+    /**
+     * write-behind 큐에서 저장을 기다리는 세션 수
+     * @return
+     */
+    public int getWriteBehindQueueDepth() {
+        return writeBehind != null ? writeBehind.getQueueDepth() : 0;
+    }
+
+    /**
+     * write-behind 큐가 가득 차서 동기로 저장한 횟수
+     * @return
+     */
+    public long getWriteBehindDropCount() {
+        return writeBehind != null ? writeBehind.getDropCount() : 0;
+    }
+
+    /**
+     * 대기 중인 저장과 합쳐진 횟수
+     * @return
+     */
+    public long getWriteBehindCoalescedCount() {
+        return writeBehind != null ? writeBehind.getCoalescedCount() : 0;
+    }
+
+    /**
+     * near cache hit count
+     * @return
+     */
+    public long getNearCacheHitCount() {
+        return nearCache != null ? nearCache.getHitCount() : 0;
+    }
+
+    /**
+     * near cache miss count
+     * @return
+     */
+    public long getNearCacheMissCount() {
+        return nearCache != null ? nearCache.getMissCount() : 0;
+    }
+
+    /**
+     * number of entries in near cache
+     * @return
+     */
+    public int getNearCacheEntryCount() {
+        return nearCache != null ? nearCache.getEntryCount() : 0;
+    }
+
+    /**
+     * reset near cache hit/miss count
+     */
+    public void resetNearCacheStatistics() {
+        if( nearCache != null )
+            nearCache.resetStatistics();
+    }
+
 //	public boolean killSession(String sessionId) {
 //		// TODO Auto-generated method stub
 //		return false;
@@ -235,14 +552,7 @@ public class KhanSessionManager {
 
     public long getSessionMemorySize() {
         if( statsEnabled ) {
-            Enumeration<String> e = sessionIdStore.getSessionStore(appName).keys();
-            long memorySize = 0;
-
-            while (e.hasMoreElements()) {
-                memorySize += sessionIdStore.getSessionStore(appName).get(e.nextElement());
-            }
-
-            return memorySize;
+            return sessionIdStore.getTotalMemorySize();
         } else {
             return 0;
         }
@@ -256,30 +566,114 @@ public class KhanSessionManager {
      */
     public long getSessionMemorySize(String sessionId) {
         if( statsEnabled ) {
-            return sessionIdStore.getSessionStore(appName).get(sessionId);
+            return sessionIdStore.getMemorySize(sessionId);
         } else {
             return 0;
         }
     }
 
     /**
-     * 세션 ID들을 String Array로 반환
+     * 이 서버의 세션 ID들을 batchSize 개까지 반환 (batchSize <= 0 이면 전부)
+     * 전체 세션은 openSessionIdCursor/nextSessionIds로 조회한다.
      * @param batchSize
      * @return
      */
     public ArrayList<String> getSessionIds(int batchSize) {
         if( statsEnabled ) {
             if (log.isDebugEnabled()) {
-                log.debug(">>>>>>>>>> sessionIdStore.getSessionStore(" + appName + ")=" + sessionIdStore.getSessionStore(appName));
+                log.debug(">>>>>>>>>> sessionIdStore(" + appName + ").size=" + sessionIdStore.size());
             }
-            Enumeration<String> e = sessionIdStore.getSessionStore(appName).keys();
 
-            return Collections.list(e);
+            ArrayList<String> ids = new ArrayList<String>(batchSize > 0 ? batchSize : 16);
+            Iterator<String> it = sessionIdStore.iterator();
+            while( (batchSize <= 0 || ids.size() < batchSize) && it.hasNext() ) {
+                ids.add(it.next());
+            }
+            return ids;
         } else {
             return null;
         }
     }
 
+    /**
+     * 세션 ID cursor를 연다.
+     * 저장소가 키 조회(Redis SCAN 등)를 지원하면 저장소의 모든 세션을, 아니면 이 서버의 세션을 읽는다.
+     * 5분 동안 읽지 않은 cursor는 닫힌다.
+     *
+     * @return cursor ID, 열 수 없으면 null
+     */
+    public String openSessionIdCursor() {
+        reapSessionIdCursors();
+        if( sessionIdCursors.size() >= MAX_SESSION_ID_CURSORS ) {
+            log.warn("Too many session id cursors. max=" + MAX_SESSION_ID_CURSORS);
+            return null;
+        }
+
+        SessionIdCursor cursor = null;
+        SessionKeyCursor keyCursor = sessionStore == null ? null : sessionStore.openKeyCursor(KhanSessionKeyGenerator.KEY_PREFIX);
+        if( keyCursor != null ) {
+            cursor = new SessionIdCursor(keyCursor, khanSessionConfig.getNamespace());
+        } else if( statsEnabled ) {
+            cursor = new SessionIdCursor(sessionIdStore.iterator());
+        } else {
+            return null;
+        }
+
+        String cursorId = UUID.randomUUID().toString();
+        sessionIdCursors.put(cursorId, cursor);
+        if( log.isDebugEnabled() ) {
+            log.debug("openSessionIdCursor=" + cursorId + ", store=" + (keyCursor != null));
+        }
+        return cursorId;
+    }
+
+    /**
+     * cursor에서 다음 세션 ID들을 batchSize 개까지 읽는다.
+     * 다 읽으면 cursor를 닫고 빈 목록을 반환한다.
+     *
+     * @param cursorId
+     * @param batchSize
+     * @return 닫혔거나 없는 cursor면 null
+     */
+    public ArrayList<String> nextSessionIds(String cursorId, int batchSize) {
+        SessionIdCursor cursor = cursorId == null ? null : sessionIdCursors.get(cursorId);
+        if( cursor == null ) {
+            return null;
+        }
+
+        try {
+            ArrayList<String> ids = cursor.next(Math.max(1, batchSize));
+            if( !cursor.hasNext() && ids.isEmpty() ) {
+                closeSessionIdCursor(cursorId);
+            }
+            return ids;
+        } catch (IOException e) {
+            log.error("nextSessionIds", e);
+            closeSessionIdCursor(cursorId);
+            return null;
+        }
+    }
+
+    /**
+     * cursor를 닫는다.
+     * @param cursorId
+     */
+    public void closeSessionIdCursor(String cursorId) {
+        SessionIdCursor cursor = sessionIdCursors.remove(cursorId);
+        if( cursor != null ) {
+            cursor.close();
+        }
+    }
+
+    private void reapSessionIdCursors() {
+        long idleSince = System.currentTimeMillis() - SESSION_ID_CURSOR_IDLE_MILLIS;
+        for( Map.Entry<String, SessionIdCursor> entry : sessionIdCursors.entrySet() ) {
+            if( entry.getValue().getLastAccessTime() < idleSince ) {
+                closeSessionIdCursor(entry.getKey());
+            }
+        }
+    }
+
     /**
      * 세션 ID에 대한 세션 속성 반환
      * @param sessionId
@@ -289,6 +683,16 @@ public class KhanSessionManager {
         ConcurrentHashMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
         try {
             if( !StringUtils.isNullOrEmpty(sessionId) ) {
+                if( KhanSessionRecord.isEnabled() ) {
+                    KhanSessionRecord record = KhanSessionRecord.load(sessionStore, khanSessionConfig.getNamespace(), sessionId);
+                    if( record != null && record.getAttributes() != null ) {
+                        for( Map.Entry<Object, Object> entry : record.getAttributes().entrySet() ) {
+                            attributes.put(String.valueOf(entry.getKey()), entry.getValue());
+                        }
+                    }
+                    return attributes;
+                }
+
                 String key = KhanSessionKeyGenerator.generate(khanSessionConfig.getNamespace(), sessionId, KhanHttpSession.ATTRIBUTES_KEY);
 //                System.out.println( ">>>>>>>>>>>>>>>>>>> sessionStore=" + sessionStore);
 //                System.out.println( ">>>>>>>>>>>>>>>>>>> key=" + key);
@@ -308,14 +712,52 @@ public class KhanSessionManager {
      * @param session
      */
     public void putSessionId(HttpSession session) {
-        if( statsEnabled )
-            sessionIdStore.getSessionStore(appName).put(session.getId(), getSessionMemorySize(session));
+        putSessionId(session, -1L);
+    }
 
-        if( log.isDebugEnabled() ) {
-            log.debug("addSessionId/size=" + sessionIdStore.getSessionStore(appName).size());
+    /**
+     * SessionIdStore에 세션 ID와 메모리 점유 사이즈를 저장
+     *
+     * @param session
+     * @param serializedSize 저장소가 marshalling 한 byte 수, 모르면 -1
+     */
+    public void putSessionId(HttpSession session, long serializedSize) {
+        if( statsEnabled ) {
+            long memorySize = getSessionMemorySize(session, serializedSize);
+            if( memorySize >= 0 )
+                sessionIdStore.put(session.getId(), memorySize, getSessionIdTtl(session));
+            else
+                sessionIdStore.touch(session.getId(), getSessionIdTtl(session));
+            recordActiveSession(session);
+
+            if( log.isDebugEnabled() ) {
+                log.debug("addSessionId/size=" + sessionIdStore.size());
+            }
         }
     }
 
+    /**
+     * SessionIdStore에 세션 ID의 만료 시간을 늘린다. 없으면 추가 (메모리 사이즈는 계산하지 않음)
+     *
+     * @param session
+     */
+    public void touchSessionId(HttpSession session) {
+        if( statsEnabled ) {
+            sessionIdStore.touch(session.getId(), getSessionIdTtl(session));
+            recordActiveSession(session);
+        }
+    }
+
+    /**
+     * 세션 카운터에 접근한 세션을 기록
+     *
+     * @param session
+     */
+    private void recordActiveSession(HttpSession session) {
+        if( sessionStore != null )
+            sessionStore.recordActiveSession(session.getId());
+    }
+
     /**
      * SessionIdStorea에서 세션 ID에 대한 정보를 제거
      *
@@ -327,38 +769,112 @@ public class KhanSessionManager {
 
         String khanSessionId = (String) session.getAttribute("khan.session.id");
         if ( !StringUtils.isNullOrEmpty(khanSessionId) ) {
-            sessionIdStore.getSessionStore(appName).remove(khanSessionId);
+            sessionIdStore.remove(khanSessionId);
             if( log.isDebugEnabled() ) {
-                log.debug("removeSessionId/size=" + sessionIdStore.getSessionStore(appName).size());
+                log.debug("removeSessionId/size=" + sessionIdStore.size());
             }
         }
     }
 
     /**
-     * HttpSession 객체에 대한 메모리 점유 사이즈를 계산
+     * 세션 ID index의 만료 시간 (maxInactiveInterval + 여유 시간)
      *
      * @param session
      * @return
      */
-    private long getSessionMemorySize(HttpSession session) {
+    private int getSessionIdTtl(HttpSession session) {
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        if( maxInactiveInterval <= 0 )
+            return KhanSessionIdStore.NO_EXPIRY;
+        return maxInactiveInterval + SESSION_ID_EXPIRY_GRACE_SECONDS;
+    }
+
+    /**
+     * 세션 ID index가 쓰는 메모리 추정치 (bytes)
+     * @return
+     */
+    public long getSessionIdIndexMemorySize() {
+        return sessionIdStore.getIndexMemorySize();
+    }
+
+    /**
+     * 만료되어 index에서 제거된 세션 ID 수
+     * @return
+     */
+    public long getSessionIdIndexExpiredCount() {
+        return sessionIdStore.getExpiredCount();
+    }
+
+    /**
+     * index가 가득 차서 제거된 세션 ID 수
+     * @return
+     */
+    public long getSessionIdIndexEvictedCount() {
+        return sessionIdStore.getEvictedCount();
+    }
+
+    /**
+     * HttpSession 객체에 대한 메모리 점유 사이즈를 계산
+     * 저장할 때마다 deep measure 하지 않고, serialize 크기 x (heap/serialize 비율)로 추정한다.
+     * 비율은 memoryStatisticsSampleRate 만큼의 저장에서 deep measure 하여 갱신한다.
+     * serialize 크기를 모르면 (Infinispan 등) 처음 저장할 때와 sample 일 때만 측정한다.
+     *
+     * @param session
+     * @param serializedSize
+     * @return 이전 값을 유지해야 하면 -1
+     */
+    private long getSessionMemorySize(HttpSession session, long serializedSize) {
         if( statsEnabled == false )
             return 0;
         else if( khanSessionConfig.isEnableMemoryStatistics() == false )
             return 0;
 
-        if( memoryStatError )
-            return 0;
+        boolean sample = memorySampleInterval > 0 && memorySampleCount.incrementAndGet() % memorySampleInterval == 0;
+        if( serializedSize < 0 && !sessionIdStore.contains(session.getId()) )
+            sample = true;
+
+        if( sample && !memoryStatError ) {
+            long measured = measureDeep(session);
+            if( measured >= 0 ) {
+                if( serializedSize > 0 ) {
+                    heapToSerializedRatio = heapToSerializedRatio * 0.8 + ((double) measured / serializedSize) * 0.2;
+                }
+                return measured;
+            }
+        }
+
+        if( serializedSize >= 0 )
+            return (long) (serializedSize * heapToSerializedRatio);
+        return -1;
+    }
+
+    /**
+     * 메모리에 있는 세션 속성의 heap 크기 (jamm agent 필요)
+     *
+     * @param session
+     * @return 측정할 수 없으면 -1
+     */
+    private long measureDeep(HttpSession session) {
+        Map<?, ?> attributes;
+        if( session instanceof KhanHttpSession ) {
+            attributes = ((KhanHttpSession) session).toMap();
+        } else {
+            Map<String, Object> values = new HashMap<String, Object>();
+            Enumeration<String> names = session.getAttributeNames();
+            while( names.hasMoreElements() ) {
+                String name = names.nextElement();
+                values.put(name, session.getAttribute(name));
+            }
+            attributes = values;
+        }
 
-        // TODO : agent를 설정하지 않을 경우를 체크해야 함
-        long memorySize = 0;
         try {
-            MemoryMeter meter = new MemoryMeter();
-            memorySize += meter.measureDeep(getSessionAttributes(session.getId()));
+            return memoryMeter.measureDeep(attributes);
         } catch (Exception e) {
             log.error("Session memory size calculation error");
             memoryStatError = true;
+            return -1;
         }
-        return memorySize;
     }
 
     /**
@@ -377,11 +893,44 @@ public class KhanSessionManager {
         }
     }
 
+    /**
+     * AttributeMonitorMBean 등록
+     */
+    private void registerAttributeMonitor() {
+        if( khanSessionConfig.isEnableAttributeStatistics() ) {
+            AttributeStatistics statistics = new AttributeStatistics(khanSessionConfig.getAttributeStatisticsSampleRate());
+            try {
+                MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                mbs.registerMBean(new AttributeMonitorMBeanImpl(appName, statistics), getJMXObjectName("AttributeMonitor"));
+                attributeStatistics = statistics;
+            } catch (Exception e) {
+                log.warn("Unable to register AttributeMonitorMBean for '" + getAppName() + "'", e);
+            }
+        }
+    }
+
+    /**
+     * get attribute statistics
+     * @return enableAttributeStatistics가 아니면 null
+     */
+    public AttributeStatistics getAttributeStatistics() {
+        return attributeStatistics;
+    }
+
     /**
      * JMX ObjectName
      * @return
      */
     private ObjectName getJMXObjectName() {
+        return getJMXObjectName("SessionMonitor");
+    }
+
+    /**
+     * JMX ObjectName
+     * @param type
+     * @return
+     */
+    private ObjectName getJMXObjectName(String type) {
         try {
             String appNameStr = appName.replaceAll(":|=|\n", ".");
             appNameStr = appNameStr.replaceAll("/", "");
@@ -390,7 +939,7 @@ public class KhanSessionManager {
                 appNameStr = "ROOT";
 
             StringBuilder sb = new StringBuilder(
-                    "com.opennaru.khan.session:type=SessionMonitor").append(",appName=")
+                    "com.opennaru.khan.session:type=").append(type).append(",appName=")
                     .append(appNameStr);
             return new ObjectName(sb.toString());
         } catch (Exception e) {
@@ -412,15 +961,33 @@ public class KhanSessionManager {
     public void destroy() {
         sessionMonitor.shutdown();
 
+        // 대기 중인 write-behind 저장을 먼저 실행
+        flushWriteBehind();
+
+        if( sessionStore != null )
+            sessionStore.removeExpirationListener(expirationListener);
+
+        for( String cursorId : sessionIdCursors.keySet() ) {
+            closeSessionIdCursor(cursorId);
+        }
+
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
 
         try {
             mbs.unregisterMBean(getJMXObjectName());
+            if( attributeStatistics != null )
+                mbs.unregisterMBean(getJMXObjectName("AttributeMonitor"));
+            if( cacheStatistics != null )
+                mbs.unregisterMBean(getJMXObjectName("CacheMonitor"));
         } catch (MBeanRegistrationException e) {
             e.printStackTrace();
         } catch (InstanceNotFoundException e) {
             e.printStackTrace();
         }
+
+        // write-behind 저장이 끝난 뒤 store의 connection / thread를 닫는다
+        if( sessionStore != null )
+            sessionStore.destroy();
     }
 
 }
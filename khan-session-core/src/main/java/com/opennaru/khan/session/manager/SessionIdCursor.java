@@ -0,0 +1,151 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.manager;
+
+import com.opennaru.khan.session.KhanHttpSession;
+import com.opennaru.khan.session.KhanSessionKeyGenerator;
+import com.opennaru.khan.session.KhanSessionRecord;
+import com.opennaru.khan.session.store.SessionKeyCursor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * 세션 ID cursor (JMX 세션 목록 조회용)
+ *
+ * 저장소의 키 cursor(SCAN 등)에서 세션마다 하나인 metadata(또는 record) 키만 골라 세션 ID로 바꾼다.
+ * 저장소가 키 조회를 지원하지 않으면 이 서버의 세션 ID 목록을 읽는다.
+ * 저장소에서 한 번에 읽은 키 중 batch를 넘는 세션 ID는 다음 호출까지 보관한다.
+ *
+ * @since 1.3.0
+ */
+class SessionIdCursor {
+
+    private final SessionKeyCursor keyCursor;
+
+    private final Iterator<String> localIds;
+
+    private final String namespace;
+
+    /**
+     * 이전 호출에서 batch를 넘은 세션 ID
+     */
+    private final LinkedList<String> pending = new LinkedList<String>();
+
+    private volatile long lastAccessTime = System.currentTimeMillis();
+
+    /**
+     * 저장소 키 cursor
+     *
+     * @param keyCursor
+     * @param namespace
+     */
+    SessionIdCursor(SessionKeyCursor keyCursor, String namespace) {
+        this.keyCursor = keyCursor;
+        this.localIds = null;
+        this.namespace = namespace;
+    }
+
+    /**
+     * 이 서버의 세션 ID 목록 (weakly consistent iterator)
+     *
+     * @param localIds
+     */
+    SessionIdCursor(Iterator<String> localIds) {
+        this.keyCursor = null;
+        this.localIds = localIds;
+        this.namespace = null;
+    }
+
+    /**
+     * 다음 세션 ID들
+     *
+     * @param batchSize
+     * @return 끝났으면 빈 목록
+     * @throws IOException
+     */
+    synchronized ArrayList<String> next(int batchSize) throws IOException {
+        lastAccessTime = System.currentTimeMillis();
+
+        ArrayList<String> ids = new ArrayList<String>(batchSize);
+        while (ids.size() < batchSize && !pending.isEmpty()) {
+            ids.add(pending.removeFirst());
+        }
+
+        if (localIds != null) {
+            while (ids.size() < batchSize && localIds.hasNext()) {
+                ids.add(localIds.next());
+            }
+            return ids;
+        }
+
+        while (ids.size() < batchSize && keyCursor.hasNext()) {
+            List<String> keys = keyCursor.next(batchSize - ids.size());
+            for (String key : keys) {
+                String sessionId = toSessionId(key);
+                if (sessionId == null) {
+                    continue;
+                }
+                if (ids.size() < batchSize) {
+                    ids.add(sessionId);
+                } else {
+                    pending.add(sessionId);
+                }
+            }
+        }
+        return ids;
+    }
+
+    synchronized boolean hasNext() {
+        if (!pending.isEmpty()) {
+            return true;
+        }
+        return localIds != null ? localIds.hasNext() : keyCursor.hasNext();
+    }
+
+    synchronized void close() {
+        pending.clear();
+        if (keyCursor != null) {
+            try {
+                keyCursor.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    private String toSessionId(String key) {
+        String sessionId = KhanSessionKeyGenerator.parseSessionId(namespace, key, KhanHttpSession.METADATA_KEY);
+        if (sessionId == null) {
+            sessionId = KhanSessionKeyGenerator.parseSessionId(namespace, key, KhanSessionRecord.RECORD_KEY);
+        }
+        return sessionId;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.manager;
+
+import com.opennaru.khan.session.KhanHttpSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind session save
+ * 요청이 끝난 세션의 save()를 worker thread에서 실행한다.
+ * 같은 세션 ID에 대해 대기 중인 save는 마지막 것 하나로 합쳐진다.
+ * 큐가 가득 차면 호출한 thread에서 바로 저장한다. (drop count 증가)
+ */
+public class SessionWriteBehind {
+    private static Logger log = LoggerFactory.getLogger(SessionWriteBehind.class);
+
+    private static final int LOCK_STRIPES = 64;
+    private static final long POLL_TIMEOUT_MS = 100L;
+
+    /**
+     * 저장 대기 중인 세션 (세션 ID -> 마지막 세션)
+     */
+    private final ConcurrentHashMap<String, KhanHttpSession> pending = new ConcurrentHashMap<String, KhanHttpSession>();
+
+    /**
+     * 저장 순서 큐 (세션 ID)
+     */
+    private final BlockingQueue<String> queue;
+
+    /**
+     * 같은 세션 ID의 저장을 직렬화하기 위한 lock
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final ExecutorService workers;
+
+    private final AtomicLong dropCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong saveCount = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * Constructor
+     *
+     * @param queueSize
+     * @param threads
+     */
+    public SessionWriteBehind(int queueSize, int threads) {
+        this.queue = new ArrayBlockingQueue<String>(queueSize);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "khan-session-write-behind-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        for (int i = 0; i < threads; i++) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+    }
+
+    /**
+     * 세션 저장을 큐에 넣는다.
+     *
+     * @param session
+     */
+    public void submit(KhanHttpSession session) {
+        String sessionId = session.getId();
+
+        if (!running) {
+            session.save();
+            return;
+        }
+
+        if (pending.put(sessionId, session) != null) {
+            coalescedCount.incrementAndGet();
+            return;
+        }
+
+        if (!queue.offer(sessionId)) {
+            dropCount.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("write-behind queue is full. save synchronously. (" + sessionId + ")");
+            }
+            flush(sessionId);
+        }
+    }
+
+    /**
+     * 대기 중인 세션 저장을 바로 실행한다.
+     * 세션을 store에서 다시 읽기 전에 호출한다.
+     *
+     * @param sessionId
+     */
+    public void flush(String sessionId) {
+        synchronized (lockFor(sessionId)) {
+            KhanHttpSession session;
+            while ((session = pending.get(sessionId)) != null) {
+                save(session);
+                pending.remove(sessionId, session);
+            }
+        }
+    }
+
+    /**
+     * 대기 중인 세션 저장을 취소한다. (invalidate)
+     * 실행 중인 저장이 있으면 끝날 때까지 기다린다.
+     *
+     * @param sessionId
+     */
+    public void cancel(String sessionId) {
+        synchronized (lockFor(sessionId)) {
+            pending.remove(sessionId);
+        }
+    }
+
+    /**
+     * 대기 중인 저장을 모두 실행하고 worker를 종료한다.
+     */
+    public void shutdown() {
+        running = false;
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (String sessionId : pending.keySet()) {
+            flush(sessionId);
+        }
+        queue.clear();
+    }
+
+    /**
+     * 저장 대기 중인 세션 수
+     * @return
+     */
+    public int getQueueDepth() {
+        return pending.size();
+    }
+
+    /**
+     * 큐가 가득 차서 동기로 저장한 횟수
+     * @return
+     */
+    public long getDropCount() {
+        return dropCount.get();
+    }
+
+    /**
+     * 대기 중인 저장과 합쳐진 횟수
+     * @return
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * worker가 저장한 횟수
+     * @return
+     */
+    public long getSaveCount() {
+        return saveCount.get();
+    }
+
+    /**
+     * worker loop
+     */
+    private void drain() {
+        while (running || !queue.isEmpty()) {
+            try {
+                String sessionId = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (sessionId != null) {
+                    flush(sessionId);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void save(KhanHttpSession session) {
+        try {
+            session.save();
+            saveCount.incrementAndGet();
+        } catch (Exception e) {
+            log.error("write-behind save failed. (" + session.getId() + ")", e);
+        }
+    }
+
+    private Object lockFor(String sessionId) {
+        return locks[(sessionId.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+}
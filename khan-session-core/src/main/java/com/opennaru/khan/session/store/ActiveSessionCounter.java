@@ -0,0 +1,210 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store;
+
+import com.opennaru.khan.session.KhanSessionKeyGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Active session counter
+ *
+ * 접근한 세션 ID를 로컬에 모았다가 refresh 주기마다 현재 시간 bucket의 카운터 키(HyperLogLog)에 더한다.
+ * 활성 세션 수는 최근 window(세션 timeout) 동안의 bucket들의 합집합 크기로 추정한다.
+ * 만료된 세션은 bucket이 window를 벗어나면 빠지므로 따로 감소시킬 필요가 없다.
+ * (invalidate된 세션은 window가 지날 때까지 포함되며, 최대 한 bucket 만큼 더 셀 수 있다)
+ *
+ * @since 1.3.0
+ */
+public class ActiveSessionCounter {
+    private static Logger log = LoggerFactory.getLogger(ActiveSessionCounter.class);
+
+    /**
+     * 로컬에 모은 ID를 저장소로 보내고 추정값을 다시 읽는 주기 (초)
+     */
+    public static final int DEFAULT_REFRESH_SECONDS = 10;
+
+    /**
+     * window 당 bucket 수
+     */
+    private static final int BUCKETS_PER_WINDOW = 30;
+
+    /**
+     * 최소 bucket 크기 (초)
+     */
+    private static final int MIN_BUCKET_SECONDS = 60;
+
+    private final SessionCounter counter;
+
+    private final String namespace;
+
+    private final String name;
+
+    private final long windowSeconds;
+
+    private final long bucketSeconds;
+
+    private final long refreshMillis;
+
+    /**
+     * 아직 저장소에 더하지 않은 ID
+     */
+    private final ConcurrentHashMap<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private volatile long lastFlushTime = System.currentTimeMillis();
+
+    private volatile long estimate = -1;
+
+    private volatile long estimateTime = 0;
+
+    /**
+     * Constructor
+     *
+     * @param counter       backend counter
+     * @param namespace
+     * @param name          카운터 이름 (SESSION, LOGIN)
+     * @param windowSeconds 세션 timeout
+     * @param refreshSeconds
+     */
+    public ActiveSessionCounter(SessionCounter counter, String namespace, String name,
+                                long windowSeconds, int refreshSeconds) {
+        this.counter = counter;
+        this.namespace = namespace;
+        this.name = name;
+        this.windowSeconds = windowSeconds;
+        this.bucketSeconds = Math.max(MIN_BUCKET_SECONDS, windowSeconds / BUCKETS_PER_WINDOW);
+        this.refreshMillis = refreshSeconds * 1000L;
+    }
+
+    /**
+     * 접근한 ID를 기록
+     * refresh 주기가 지났으면 호출한 thread에서 저장소로 보낸다. (다른 thread가 보내는 중이면 기다리지 않음)
+     *
+     * @param member
+     */
+    public void record(String member) {
+        pending.put(member, Boolean.TRUE);
+
+        long now = System.currentTimeMillis();
+        if (now - lastFlushTime >= refreshMillis && flushLock.tryLock()) {
+            try {
+                flush(now);
+            } finally {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 활성 ID 수의 추정값
+     * refresh 주기 안에서는 이전 값을 돌려준다.
+     *
+     * @return 저장소에서 읽을 수 없으면 -1
+     */
+    public long estimate() {
+        long now = System.currentTimeMillis();
+        if (now - estimateTime < refreshMillis) {
+            return estimate;
+        }
+
+        flushLock.lock();
+        try {
+            if (now - estimateTime < refreshMillis) {
+                return estimate;
+            }
+            flush(now);
+            try {
+                estimate = counter.countUnion(counterKeys(now));
+            } catch (Exception e) {
+                log.warn("Failed to count " + name + " (" + e.getMessage() + ")");
+                estimate = -1;
+            }
+            estimateTime = now;
+            return estimate;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 모은 ID를 현재 bucket의 카운터 키에 더한다.
+     * 실패하면 그 ID들은 버린다. (추정값이므로 다시 보내지 않음)
+     *
+     * @param now
+     */
+    private void flush(long now) {
+        lastFlushTime = now;
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<String> members = new ArrayList<String>(pending.keySet());
+        for (String member : members) {
+            pending.remove(member);
+        }
+        try {
+            counter.addToCounter(counterKey(bucketOf(now)), members, windowSeconds + 2 * bucketSeconds);
+        } catch (Exception e) {
+            log.warn("Failed to update " + name + " counter (" + e.getMessage() + ")");
+        }
+    }
+
+    private long bucketOf(long timeMillis) {
+        return timeMillis / 1000L / bucketSeconds;
+    }
+
+    private String counterKey(long bucket) {
+        return KhanSessionKeyGenerator.generateCounterKey(namespace, name, bucket);
+    }
+
+    /**
+     * window를 덮는 bucket들의 카운터 키
+     *
+     * @param now
+     * @return
+     */
+    List<String> counterKeys(long now) {
+        long first = bucketOf(now - windowSeconds * 1000L);
+        long last = bucketOf(now);
+        List<String> keys = new ArrayList<String>((int) (last - first + 1));
+        for (long bucket = first; bucket <= last; bucket++) {
+            keys.add(counterKey(bucket));
+        }
+        return keys;
+    }
+
+    /**
+     * 저장소에 더하지 않은 ID 수
+     * @return
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous companion of SessionCache
+ *
+ * 각 연산은 바로 Future를 돌려주므로 여러 요청을 겹쳐서 보낼 수 있다.
+ * 실패는 Future.get()의 ExecutionException으로 전달된다.
+ * SessionCache를 상속하므로 동기 메소드를 쓰는 기존 코드는 그대로 동작한다.
+ * 동기 메소드도 여러 키를 다룰 때는 비동기 연산을 한꺼번에 보내고 기다린다.
+ * (세션 저장을 응답과 겹치려면 write-behind를 사용한다)
+ *
+ * @since 1.3.0
+ */
+public interface AsyncSessionCache extends SessionCache {
+
+    /**
+     * Get Session Value
+     *
+     * @param key
+     * @param <T>
+     * @return
+     */
+    public <T> Future<T> getAsync(String key);
+
+    /**
+     * Put Session Value
+     *
+     * @param key
+     * @param value
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     */
+    public <T> Future<Void> putAsync(String key, T value, long secondsToExpire);
+
+    /**
+     * Delete Session Value
+     *
+     * @param key
+     * @return
+     */
+    public Future<Void> deleteAsync(String key);
+
+    /**
+     * Extend expiration of a key
+     *
+     * @param key
+     * @param secondsToExpire
+     * @return false if the key does not exist
+     */
+    public Future<Boolean> touchAsync(String key, long secondsToExpire);
+
+    /**
+     * Get values of several keys
+     *
+     * @param keys
+     * @param <T>
+     * @return map of found keys (missing keys are not included)
+     */
+    public <T> Future<Map<String, T>> getAllAsync(Collection<String> keys);
+
+    /**
+     * Get values of the keys of a session and extend their expiration
+     *
+     * @param keys
+     * @param secondsToExpire
+     * @param <T>
+     * @return map of found keys (missing keys are not included)
+     */
+    public <T> Future<Map<String, T>> loadSessionAsync(Collection<String> keys, long secondsToExpire);
+
+    /**
+     * Put several values
+     *
+     * @param entries
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     */
+    public <T> Future<Void> putAllAsync(Map<String, T> entries, long secondsToExpire);
+
+    /**
+     * Delete several keys
+     *
+     * @param keys
+     * @return
+     */
+    public Future<Void> deleteAllAsync(Collection<String> keys);
+}
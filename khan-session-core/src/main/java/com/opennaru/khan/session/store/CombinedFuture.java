@@ -0,0 +1,193 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 여러 Future의 결과를 하나로 합치는 Future
+ * (하나의 Future 결과를 다른 타입으로 바꿀 때도 사용)
+ *
+ * @since 1.3.0
+ */
+public abstract class CombinedFuture<T> implements Future<T> {
+
+    private final List<? extends Future<?>> futures;
+
+    /**
+     * @param futures
+     */
+    protected CombinedFuture(List<? extends Future<?>> futures) {
+        this.futures = futures;
+    }
+
+    /**
+     * @param future
+     */
+    protected CombinedFuture(Future<?> future) {
+        this(Collections.singletonList(future));
+    }
+
+    /**
+     * 각 Future의 결과(같은 순서)로 결과를 만든다.
+     *
+     * @param results
+     * @return
+     * @throws Exception
+     */
+    protected abstract T combine(List<Object> results) throws Exception;
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = false;
+        for (Future<?> future : futures) {
+            cancelled |= future.cancel(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        for (Future<?> future : futures) {
+            if (future.isCancelled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        List<Object> results = new ArrayList<Object>(futures.size());
+        for (Future<?> future : futures) {
+            results.add(future.get());
+        }
+        return result(results);
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Object> results = new ArrayList<Object>(futures.size());
+        for (Future<?> future : futures) {
+            results.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+        }
+        return result(results);
+    }
+
+    private T result(List<Object> results) throws ExecutionException {
+        try {
+            return combine(results);
+        } catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * 결과를 무시하는 Future
+     *
+     * @param futures
+     * @return
+     */
+    public static Future<Void> allOf(List<? extends Future<?>> futures) {
+        return new CombinedFuture<Void>(futures) {
+            @Override
+            protected Void combine(List<Object> results) {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * 키별 Future 결과를 Map으로 (값이 null인 키는 제외)
+     *
+     * @param keys
+     * @param futures keys와 같은 순서
+     * @return
+     */
+    public static <T> Future<Map<String, T>> valuesOf(final List<String> keys, List<? extends Future<?>> futures) {
+        return new CombinedFuture<Map<String, T>>(futures) {
+            @Override
+            @SuppressWarnings("unchecked")
+            protected Map<String, T> combine(List<Object> results) {
+                Map<String, T> values = new HashMap<String, T>();
+                for (int i = 0; i < keys.size(); i++) {
+                    if (results.get(i) != null) {
+                        values.put(keys.get(i), (T) results.get(i));
+                    }
+                }
+                return values;
+            }
+        };
+    }
+
+    /**
+     * 이미 끝난 Future
+     *
+     * @param value
+     * @return
+     */
+    public static <T> Future<T> completed(final T value) {
+        return new CombinedFuture<T>(Collections.<Future<?>>emptyList()) {
+            @Override
+            protected T combine(List<Object> results) {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * 실패한 Future
+     *
+     * @param cause
+     * @return
+     */
+    public static <T> Future<T> failed(final Throwable cause) {
+        return new CombinedFuture<T>(Collections.<Future<?>>emptyList()) {
+            @Override
+            protected T combine(List<Object> results) throws Exception {
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw new ExecutionException(cause);
+            }
+        };
+    }
+}
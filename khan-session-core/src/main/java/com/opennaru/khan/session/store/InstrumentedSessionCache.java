@@ -0,0 +1,365 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store;
+
+import com.opennaru.khan.session.management.CacheStatistics;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * backend SessionCache의 연산마다 소요 시간, 실패/timeout, 읽기/쓰기 bytes를 CacheStatistics에 기록하는 decorator
+ *
+ * bytes는 backend가 SerializedSizeRecorder에 기록한 marshalling 크기이다. (기록하지 않는 backend는 0)
+ * 호출한 thread의 누적 값 차이로 계산하므로 backend는 호출한 thread에서 marshalling 해야 한다.
+ * (redis-async는 응답을 reader thread가 아니라 Future.get()을 호출한 thread에서 unmarshal 한다)
+ * 예외는 기록만 하고 그대로 던진다.
+ *
+ * @since 1.3.0
+ */
+public class InstrumentedSessionCache implements SessionCache, SessionExpirationNotifier, SessionKeyScanner,
+        SessionTouchSupport {
+
+    private static final String SESSION = CacheStatistics.SESSION_CACHE + ".";
+    private static final String LOGIN = CacheStatistics.LOGIN_CACHE + ".";
+
+    private final SessionCache delegate;
+
+    private final CacheStatistics statistics;
+
+    /**
+     * Constructor
+     *
+     * @param delegate   backend SessionCache
+     * @param statistics
+     */
+    public InstrumentedSessionCache(SessionCache delegate, CacheStatistics statistics) {
+        this.delegate = delegate;
+        this.statistics = statistics;
+    }
+
+    public SessionCache getDelegate() {
+        return delegate;
+    }
+
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return delegate.isInitialized();
+    }
+
+    @Override
+    public void initialize(String servers, String cacheName, String loginCacheName) throws IOException {
+        delegate.initialize(servers, cacheName, loginCacheName);
+    }
+
+    @Override
+    public <T> boolean contains(String key) throws IOException {
+        Call call = new Call(SESSION + "contains");
+        try {
+            return delegate.contains(key);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> void put(String key, T value, long secondsToExpire) throws IOException {
+        Call call = new Call(SESSION + "put");
+        try {
+            delegate.put(key, value, secondsToExpire);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> T get(String key) throws IOException {
+        Call call = new Call(SESSION + "get");
+        try {
+            return delegate.<T>get(key);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> void delete(String key) throws IOException {
+        Call call = new Call(SESSION + "delete");
+        try {
+            delegate.delete(key);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys) throws IOException {
+        Call call = new Call(SESSION + "getAll");
+        try {
+            return delegate.<T>getAll(keys);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> Map<String, T> loadSession(Collection<String> keys, long secondsToExpire) throws IOException {
+        Call call = new Call(SESSION + "loadSession");
+        try {
+            return delegate.<T>loadSession(keys, secondsToExpire);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> void putAll(Map<String, T> entries, long secondsToExpire) throws IOException {
+        Call call = new Call(SESSION + "putAll");
+        try {
+            delegate.putAll(entries, secondsToExpire);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) throws IOException {
+        Call call = new Call(SESSION + "deleteAll");
+        try {
+            delegate.deleteAll(keys);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public boolean touch(String key, long secondsToExpire) throws IOException {
+        Call call = new Call(SESSION + "touch");
+        try {
+            return delegate.touch(key, secondsToExpire);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public int size() throws IOException {
+        Call call = new Call(SESSION + "size");
+        try {
+            return delegate.size();
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> boolean loginContains(String key) throws IOException {
+        Call call = new Call(LOGIN + "loginContains");
+        try {
+            return delegate.loginContains(key);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> void loginPut(String key, T value, long secondsToExpire) throws IOException {
+        Call call = new Call(LOGIN + "loginPut");
+        try {
+            delegate.loginPut(key, value, secondsToExpire);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> T loginGet(String key) throws IOException {
+        Call call = new Call(LOGIN + "loginGet");
+        try {
+            return delegate.<T>loginGet(key);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public <T> void loginDelete(String key) throws IOException {
+        Call call = new Call(LOGIN + "loginDelete");
+        try {
+            delegate.loginDelete(key);
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public int loginSize() throws IOException {
+        Call call = new Call(LOGIN + "loginSize");
+        try {
+            return delegate.loginSize();
+        } catch (IOException e) {
+            throw call.failed(e);
+        } catch (RuntimeException e) {
+            throw call.failed(e);
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        delegate.destroy();
+    }
+
+    @Override
+    public boolean addExpirationListener(SessionExpirationListener listener) {
+        return delegate instanceof SessionExpirationNotifier
+                && ((SessionExpirationNotifier) delegate).addExpirationListener(listener);
+    }
+
+    @Override
+    public void removeExpirationListener(SessionExpirationListener listener) {
+        if (delegate instanceof SessionExpirationNotifier) {
+            ((SessionExpirationNotifier) delegate).removeExpirationListener(listener);
+        }
+    }
+
+    @Override
+    public boolean isTouchSupported() {
+        return !(delegate instanceof SessionTouchSupport) || ((SessionTouchSupport) delegate).isTouchSupported();
+    }
+
+    @Override
+    public SessionKeyCursor openKeyCursor(String prefix) throws IOException {
+        if (delegate instanceof SessionKeyScanner) {
+            return ((SessionKeyScanner) delegate).openKeyCursor(prefix);
+        }
+        return null;
+    }
+
+    /**
+     * timeout으로 실패했는지 (cause chain에 timeout 예외가 있으면)
+     */
+    static boolean isTimeout(Throwable e) {
+        for (int depth = 0; e != null && depth < 10; depth++) {
+            if (e instanceof SocketTimeoutException || e instanceof TimeoutException
+                    || e.getClass().getSimpleName().contains("Timeout")) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * 연산 하나의 시작 시간과 시작 시점의 thread 누적 bytes
+     */
+    private class Call {
+        private final String operation;
+        private final long startNanos;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private Throwable failure;
+
+        Call(String operation) {
+            this.operation = operation;
+            this.bytesRead = SerializedSizeRecorder.getBytesRead();
+            this.bytesWritten = SerializedSizeRecorder.getBytesWritten();
+            this.startNanos = System.nanoTime();
+        }
+
+        <E extends Throwable> E failed(E e) {
+            failure = e;
+            return e;
+        }
+
+        void end() {
+            long nanos = System.nanoTime() - startNanos;
+            statistics.record(operation, nanos, failure != null, failure != null && isTimeout(failure),
+                    SerializedSizeRecorder.getBytesRead() - bytesRead,
+                    SerializedSizeRecorder.getBytesWritten() - bytesWritten);
+        }
+    }
+}
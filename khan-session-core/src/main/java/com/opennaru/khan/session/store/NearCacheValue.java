@@ -0,0 +1,79 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store;
+
+import com.opennaru.khan.session.util.SerializationUtil;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Near cache가 backend에 저장하는 값
+ * 값과 버전을 하나의 키에 함께 저장하므로 다른 서버의 값에 이 서버의 버전이 붙는 일이 없다.
+ * 값은 serialize된 byte array로 가지고 있어서 near cache가 로컬 복사본을 만들 때 다시 serialize 하지 않는다.
+ *
+ * @since 1.3.0
+ */
+public class NearCacheValue implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+
+    private final byte[] bytes;
+
+    /**
+     * Constructor
+     *
+     * @param version
+     * @param bytes   SerializationUtil로 serialize한 값
+     */
+    public NearCacheValue(long version, byte[] bytes) {
+        this.version = version;
+        this.bytes = bytes;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * deserialize한 값 (호출할 때마다 새 객체)
+     *
+     * @return
+     * @throws java.io.IOException
+     */
+    public <T> T getValue() throws IOException {
+        return SerializationUtil.fromBytes(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return "NearCacheValue{" +
+                "version=" + version +
+                ", bytes=" + (bytes == null ? -1 : bytes.length) +
+                '}';
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store;
+
+import com.opennaru.khan.session.util.SerializationUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Near cache (L1) SessionCache
+ * 최근에 사용한 세션 값을 로컬 LRU 캐시에 보관하는 SessionCache decorator
+ *
+ * 값은 임의의 버전과 함께 하나의 키에 저장한다. (NearCacheValue)
+ * 값과 버전이 한 번에 쓰여지므로 backend가 여러 키를 atomic 하게 쓰지 못해도 짝이 어긋나지 않는다.
+ * staleness 시간 안에는 backend를 읽지 않고 로컬 값을 그대로 사용한다.
+ * 그 이후에는 backend에서 값 전체를 읽고 그 버전으로 로컬 값이 최신인지 확인한다.
+ * 버전만 읽는 가벼운 확인은 없으므로 backend 읽기를 줄이는 것은 staleness 시간 안의 읽기뿐이다.
+ * backend의 값이 NearCacheValue 형식이므로 모든 서버가 같은 enableNearCache 설정을 써야 한다.
+ * 값은 한 번만 serialize 하여 backend에 저장하는 값과 로컬 값이 같은 byte array를 쓰고,
+ * 요청마다 그 byte array에서 복사본을 만들어 반환한다.
+ * backend가 만료 알림을 지원하면 만료/삭제된 키의 로컬 값도 바로 버린다.
+ */
+public class NearSessionCache implements SessionCache, SessionExpirationNotifier, SessionKeyScanner,
+        SessionTouchSupport {
+    private static Logger log = LoggerFactory.getLogger(NearSessionCache.class);
+
+    private final SessionCache delegate;
+
+    private final Map<String, NearEntry> entries;
+
+    private final long ttlMillis;
+
+    private final long stalenessMillis;
+
+    private final Random random = new Random();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * 만료 알림 listener (backend의 알림을 전달)
+     */
+    private final List<SessionExpirationListener> expirationListeners = new CopyOnWriteArrayList<SessionExpirationListener>();
+
+    private final SessionExpirationListener backendListener = new SessionExpirationListener() {
+        @Override
+        public void keyRemoved(String key, boolean expired) {
+            evict(key);
+            for (SessionExpirationListener listener : expirationListeners) {
+                listener.keyRemoved(key, expired);
+            }
+        }
+    };
+
+    private boolean expirationNotified = false;
+
+    /**
+     * Constructor
+     *
+     * @param delegate        backend SessionCache
+     * @param maxEntries      로컬에 보관할 최대 엔트리 수
+     * @param ttlSeconds      로컬 엔트리의 최대 보관 시간
+     * @param stalenessMillis backend를 읽지 않고 로컬 값을 사용하는 시간 (0 : 항상 backend에서 확인)
+     */
+    public NearSessionCache(SessionCache delegate, final int maxEntries, long ttlSeconds, long stalenessMillis) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.stalenessMillis = stalenessMillis;
+        this.entries = new LinkedHashMap<String, NearEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NearEntry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return delegate.isInitialized();
+    }
+
+    @Override
+    public void initialize(String servers, String cacheName, String loginCacheName) throws IOException {
+        delegate.initialize(servers, cacheName, loginCacheName);
+    }
+
+    @Override
+    public <T> boolean contains(String key) throws IOException {
+        NearEntry entry = lookup(key, System.currentTimeMillis());
+        if (entry != null) {
+            return true;
+        }
+        return delegate.contains(key);
+    }
+
+    @Override
+    public <T> void put(String key, T value, long secondsToExpire) throws IOException {
+        byte[] bytes = serialize(key, value);
+        if (bytes == null) {
+            delegate.put(key, value, secondsToExpire);
+            return;
+        }
+        long version = nextVersion();
+        delegate.put(key, new NearCacheValue(version, bytes), secondsToExpire);
+        cacheLocal(key, bytes, version, System.currentTimeMillis());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) throws IOException {
+        long now = System.currentTimeMillis();
+        NearEntry entry = lookup(key, now);
+
+        if (entry != null && now - entry.validatedAt <= stalenessMillis) {
+            try {
+                T value = SerializationUtil.fromBytes(entry.bytes);
+                hitCount.incrementAndGet();
+                return value;
+            } catch (IOException e) {
+                log.warn("near cache entry can not be deserialized. (" + key + ")", e);
+            }
+        }
+
+        return (T) fromStore(key, entry, delegate.get(key), now);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> getAll(Collection<String> keys) throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, T> values = new HashMap<String, T>();
+        List<String> missing = collectLocalValues(keys, values, now);
+
+        if (!missing.isEmpty()) {
+            Map<String, Object> fetched = delegate.getAll(missing);
+            for (String key : missing) {
+                Object value = fromStore(key, lookup(key, now), fetched.get(key), now);
+                if (value != null) {
+                    values.put(key, (T) value);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * staleness 시간 안의 로컬 값은 backend를 거치지 않는다.
+     * (그 값은 staleness 시간 전에 backend에서 읽은 값이라 만료 시간 연장은 그만큼만 늦어진다)
+     * 나머지 키는 backend의 loadSession으로 읽는다.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> loadSession(Collection<String> keys, long secondsToExpire) throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, T> values = new HashMap<String, T>();
+        List<String> missing = collectLocalValues(keys, values, now);
+
+        if (!missing.isEmpty()) {
+            Map<String, Object> fetched = delegate.loadSession(missing, secondsToExpire);
+            for (String key : missing) {
+                Object value = fromStore(key, lookup(key, now), fetched.get(key), now);
+                if (value != null) {
+                    values.put(key, (T) value);
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public <T> void putAll(Map<String, T> entries, long secondsToExpire) throws IOException {
+        Map<String, Object> stored = new HashMap<String, Object>();
+        Map<String, NearCacheValue> versioned = new HashMap<String, NearCacheValue>();
+        for (Map.Entry<String, T> entry : entries.entrySet()) {
+            byte[] bytes = serialize(entry.getKey(), entry.getValue());
+            if (bytes == null) {
+                stored.put(entry.getKey(), entry.getValue());
+            } else {
+                NearCacheValue value = new NearCacheValue(nextVersion(), bytes);
+                stored.put(entry.getKey(), value);
+                versioned.put(entry.getKey(), value);
+            }
+        }
+        delegate.putAll(stored, secondsToExpire);
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, NearCacheValue> entry : versioned.entrySet()) {
+            cacheLocal(entry.getKey(), entry.getValue().getBytes(), entry.getValue().getVersion(), now);
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) throws IOException {
+        for (String key : keys) {
+            evict(key);
+        }
+        delegate.deleteAll(keys);
+    }
+
+    @Override
+    public <T> void delete(String key) throws IOException {
+        evict(key);
+        delegate.delete(key);
+    }
+
+    @Override
+    public boolean touch(String key, long secondsToExpire) throws IOException {
+        return delegate.touch(key, secondsToExpire);
+    }
+
+    @Override
+    public int size() throws IOException {
+        return delegate.size();
+    }
+
+    @Override
+    public <T> boolean loginContains(String key) throws IOException {
+        return delegate.loginContains(key);
+    }
+
+    @Override
+    public <T> void loginPut(String key, T value, long secondsToExpire) throws IOException {
+        delegate.loginPut(key, value, secondsToExpire);
+    }
+
+    @Override
+    public <T> T loginGet(String key) throws IOException {
+        return delegate.loginGet(key);
+    }
+
+    @Override
+    public <T> void loginDelete(String key) throws IOException {
+        delegate.loginDelete(key);
+    }
+
+    @Override
+    public int loginSize() throws IOException {
+        return delegate.loginSize();
+    }
+
+    @Override
+    public void destroy() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        delegate.destroy();
+    }
+
+    /**
+     * Get near cache hit count
+     * @return
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Get near cache miss count
+     * @return
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Get number of local entries
+     * @return
+     */
+    public int getEntryCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Reset hit/miss count
+     */
+    public void resetStatistics() {
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    /**
+     * backend가 만료 알림을 지원하면 backend에 등록하고 알림을 전달한다.
+     *
+     * @param listener
+     * @return
+     */
+    @Override
+    public synchronized boolean addExpirationListener(SessionExpirationListener listener) {
+        if (!(delegate instanceof SessionExpirationNotifier)) {
+            return false;
+        }
+        if (expirationListeners.isEmpty()) {
+            expirationNotified = ((SessionExpirationNotifier) delegate).addExpirationListener(backendListener);
+        }
+        expirationListeners.add(listener);
+        return expirationNotified;
+    }
+
+    @Override
+    public synchronized void removeExpirationListener(SessionExpirationListener listener) {
+        if (expirationListeners.remove(listener) && expirationListeners.isEmpty()) {
+            ((SessionExpirationNotifier) delegate).removeExpirationListener(backendListener);
+        }
+    }
+
+    @Override
+    public boolean isTouchSupported() {
+        return !(delegate instanceof SessionTouchSupport) || ((SessionTouchSupport) delegate).isTouchSupported();
+    }
+
+    @Override
+    public SessionKeyCursor openKeyCursor(String prefix) throws IOException {
+        if (delegate instanceof SessionKeyScanner) {
+            return ((SessionKeyScanner) delegate).openKeyCursor(prefix);
+        }
+        return null;
+    }
+
+    private NearEntry lookup(String key, long now) {
+        synchronized (entries) {
+            NearEntry entry = entries.get(key);
+            if (entry != null && now - entry.createdAt > ttlMillis) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * 저장할 값을 serialize 한다.
+     * serialize 할 수 없는 값은 null을 돌려주고 near cache 없이 그대로 저장한다.
+     */
+    private byte[] serialize(String key, Object value) {
+        try {
+            return SerializationUtil.toBytes(value);
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("value is not cached in near cache. (" + key + ")" + e.getMessage());
+            }
+            evict(key);
+            return null;
+        }
+    }
+
+    private void cacheLocal(String key, byte[] bytes, long version, long now) {
+        NearEntry entry = new NearEntry(bytes, version, now);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    private void evict(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    private long nextVersion() {
+        return random.nextLong();
+    }
+
+    /**
+     * staleness 시간 안의 로컬 값을 values에 넣고, backend에서 읽어야 할 키를 돌려준다.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<String> collectLocalValues(Collection<String> keys, Map<String, T> values, long now) {
+        List<String> missing = new ArrayList<String>();
+        for (String key : keys) {
+            NearEntry entry = lookup(key, now);
+            if (entry == null || now - entry.validatedAt > stalenessMillis) {
+                missing.add(key);
+                continue;
+            }
+            try {
+                values.put(key, (T) SerializationUtil.fromBytes(entry.bytes));
+            } catch (IOException e) {
+                log.warn("near cache entry can not be deserialized. (" + key + ")", e);
+                missing.add(key);
+            }
+        }
+        hitCount.addAndGet(values.size());
+        return missing;
+    }
+
+    /**
+     * backend에서 읽은 값으로 로컬 엔트리를 확인/갱신하고 원래 값을 돌려준다.
+     * 버전이 같으면 로컬 값이 최신이므로 확인 시각만 바꾼다. (hit)
+     * 버전이 다르면 backend에서 읽은 byte array를 그대로 로컬 값으로 쓴다. (다시 serialize 하지 않음)
+     * NearCacheValue가 아닌 값(near cache 없이 저장된 값)은 로컬에 보관하지 않는다.
+     *
+     * @param key
+     * @param entry  로컬 엔트리 (없으면 null)
+     * @param stored backend에서 읽은 값
+     * @param now
+     * @return
+     * @throws java.io.IOException
+     */
+    private Object fromStore(String key, NearEntry entry, Object stored, long now) throws IOException {
+        if (!(stored instanceof NearCacheValue)) {
+            evict(key);
+            missCount.incrementAndGet();
+            return stored;
+        }
+
+        NearCacheValue versioned = (NearCacheValue) stored;
+        if (entry != null && entry.version == versioned.getVersion()) {
+            entry.validatedAt = now;
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+            cacheLocal(key, versioned.getBytes(), versioned.getVersion(), now);
+        }
+        return versioned.getValue();
+    }
+
+    /**
+     * Local entry
+     */
+    private static class NearEntry {
+        final byte[] bytes;
+        final long version;
+        final long createdAt;
+        volatile long validatedAt;
+
+        NearEntry(byte[] bytes, long version, long now) {
+            this.bytes = bytes;
+            this.version = version;
+            this.createdAt = now;
+            this.validatedAt = now;
+        }
+    }
+}
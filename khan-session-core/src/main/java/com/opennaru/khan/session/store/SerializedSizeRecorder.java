@@ -0,0 +1,113 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store;
+
+/**
+ * 세션 저장 시 marshaller가 만든 byte 수를 기록한다. (메모리 통계용)
+ *
+ * KhanHttpSession이 저장 전에 start(), 저장 후에 take()를 호출하고,
+ * SessionCache 구현은 값을 marshalling 한 뒤 record()를 호출한다.
+ * 저장과 marshalling이 같은 thread에서 일어날 때만 기록된다.
+ *
+ * start/take와 별개로 thread 별 누적 쓰기/읽기 byte 수도 센다. (SessionCache 통계용)
+ * 호출 전후의 차이로 연산 하나의 byte 수를 구하므로 start/take와 겹쳐도 된다.
+ *
+ * @since 1.3.0
+ */
+public final class SerializedSizeRecorder {
+
+    private static final int IDLE = 0;
+    private static final int STARTED = 1;
+    private static final int RECORDED = 2;
+
+    /**
+     * {state, bytes, 누적 쓰기 bytes, 누적 읽기 bytes}
+     */
+    private static final ThreadLocal<long[]> current = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[4];
+        }
+    };
+
+    private SerializedSizeRecorder() {
+    }
+
+    /**
+     * 기록 시작
+     */
+    public static void start() {
+        long[] recorder = current.get();
+        recorder[0] = STARTED;
+        recorder[1] = 0;
+    }
+
+    /**
+     * marshalling 된 byte 수를 더한다. (start 하지 않았으면 누적 byte 수에만 더한다)
+     * @param bytes
+     */
+    public static void record(int bytes) {
+        long[] recorder = current.get();
+        recorder[2] += bytes;
+        if (recorder[0] != IDLE) {
+            recorder[0] = RECORDED;
+            recorder[1] += bytes;
+        }
+    }
+
+    /**
+     * 기록된 byte 수를 반환하고 기록을 끝낸다.
+     * @return 기록이 없으면 -1
+     */
+    public static long take() {
+        long[] recorder = current.get();
+        long bytes = recorder[0] == RECORDED ? recorder[1] : -1L;
+        recorder[0] = IDLE;
+        recorder[1] = 0;
+        return bytes;
+    }
+
+    /**
+     * unmarshalling 한 byte 수를 더한다.
+     * @param bytes
+     */
+    public static void recordRead(int bytes) {
+        current.get()[3] += bytes;
+    }
+
+    /**
+     * 이 thread에서 marshalling 한 누적 byte 수
+     * @return
+     */
+    public static long getBytesWritten() {
+        return current.get()[2];
+    }
+
+    /**
+     * 이 thread에서 unmarshalling 한 누적 byte 수
+     * @return
+     */
+    public static long getBytesRead() {
+        return current.get()[3];
+    }
+}
@@ -22,6 +22,8 @@
 package com.opennaru.khan.session.store;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Store Interface for Session Data
@@ -88,6 +90,57 @@ public interface SessionCache {
      */
     public <T> void delete(String key) throws IOException;
 
+    /**
+     * Get Session Values of keys in one batch
+     *
+     * @param keys
+     * @param <T>
+     * @return map of found keys (missing keys are not included)
+     * @throws java.io.IOException
+     */
+    public <T> Map<String, T> getAll(Collection<String> keys) throws IOException;
+
+    /**
+     * Load a session : get values of session keys and extend expiration of
+     * the found keys in one operation
+     *
+     * @param keys
+     * @param secondsToExpire
+     * @param <T>
+     * @return map of found keys (missing keys are not included)
+     * @throws java.io.IOException
+     */
+    public <T> Map<String, T> loadSession(Collection<String> keys, long secondsToExpire) throws IOException;
+
+    /**
+     * Put Session Values in one batch
+     *
+     * @param entries
+     * @param secondsToExpire
+     * @param <T>
+     * @throws java.io.IOException
+     */
+    public <T> void putAll(Map<String, T> entries, long secondsToExpire) throws IOException;
+
+    /**
+     * Delete Session Values of keys in one batch
+     *
+     * @param keys
+     * @throws java.io.IOException
+     */
+    public void deleteAll(Collection<String> keys) throws IOException;
+
+    /**
+     * Extend expiration of Session value without rewriting it
+     *
+     * @param key
+     * @param secondsToExpire
+     * @return false if key does not exist or the expiration can not be extended without the value
+     * @throws java.io.IOException
+     * @see SessionTouchSupport
+     */
+    public boolean touch(String key, long secondsToExpire) throws IOException;
+
     /**
      * Size of Session
      * @return
@@ -142,4 +195,10 @@ public interface SessionCache {
      */
     public int loginSize() throws IOException;
 
+    /**
+     * Release connections and threads of Session Store
+     * (called once when the application is undeployed)
+     */
+    public void destroy();
+
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Session counter support of SessionCache
+ *
+ * 시간 bucket 별 카운터 키에 세션 ID를 HyperLogLog로 더하고,
+ * 여러 bucket의 합집합 크기를 추정한다.
+ * size()/loginSize()처럼 저장소 전체를 세지 않으므로 자주 호출해도 된다.
+ *
+ * @see ActiveSessionCounter
+ * @since 1.3.0
+ */
+public interface SessionCounter {
+
+    /**
+     * 카운터 키에 값들을 더한다.
+     *
+     * @param counterKey
+     * @param members
+     * @param secondsToExpire 카운터 키의 만료 시간
+     * @throws IOException
+     */
+    public void addToCounter(String counterKey, Collection<String> members, long secondsToExpire) throws IOException;
+
+    /**
+     * 카운터 키들의 합집합 크기(추정값)
+     *
+     * @param counterKeys
+     * @return
+     * @throws IOException
+     */
+    public long countUnion(List<String> counterKeys) throws IOException;
+
+    /**
+     * loginSize()가 O(1)이고 정확한지
+     * (login 전용 database의 DBSIZE 처럼) true이면 login 카운터를 따로 두지 않는다.
+     *
+     * @return
+     */
+    public boolean isLoginSizeExact();
+}
@@ -0,0 +1,43 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store;
+
+/**
+ * Listener for keys removed from the backend store
+ *
+ * 저장소에서 만료(expire/eviction)되거나 삭제된 키를 알려준다.
+ * backend의 notification thread에서 호출되므로 오래 걸리는 작업을 하면 안 된다.
+ *
+ * @see SessionExpirationNotifier
+ * @since 1.3.0
+ */
+public interface SessionExpirationListener {
+
+    /**
+     * 키가 저장소에서 없어짐
+     *
+     * @param key
+     * @param expired 만료/eviction이면 true, 삭제(delete)이면 false
+     */
+    public void keyRemoved(String key, boolean expired);
+}
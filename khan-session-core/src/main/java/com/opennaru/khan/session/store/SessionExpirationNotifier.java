@@ -0,0 +1,50 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store;
+
+/**
+ * Expiration notification support of SessionCache
+ *
+ * 저장소가 만료된 키를 알려주면 KhanSessionManager는 세션 ID를 하나씩 조회하는 cleanup 대신
+ * 알림으로 세션 ID 목록과 통계를 갱신한다.
+ *
+ * @since 1.3.0
+ */
+public interface SessionExpirationNotifier {
+
+    /**
+     * listener 등록
+     *
+     * @param listener
+     * @return 만료된 키를 모두 알려주면 true
+     *         (false이면 알림이 없거나 삭제/eviction만 알려주므로 cleanup이 필요)
+     */
+    public boolean addExpirationListener(SessionExpirationListener listener);
+
+    /**
+     * listener 제거 (listener가 없으면 알림을 받는 연결/thread를 정리한다)
+     *
+     * @param listener
+     */
+    public void removeExpirationListener(SessionExpirationListener listener);
+}
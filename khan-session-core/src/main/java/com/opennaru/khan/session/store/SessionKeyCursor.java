@@ -0,0 +1,54 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Cursor over keys in the backend store
+ *
+ * 저장소의 키를 조금씩 읽는다. 한 번에 읽는 양만 메모리에 올라간다.
+ * 읽는 동안 추가/삭제된 키는 포함되지 않을 수 있다.
+ *
+ * @see SessionKeyScanner
+ * @since 1.3.0
+ */
+public interface SessionKeyCursor extends Closeable {
+
+    /**
+     * 다음 키들
+     *
+     * @param count 읽을 키 수 (hint, 조금 더 많거나 적을 수 있다)
+     * @return 더 읽을 키가 없으면 빈 목록
+     * @throws IOException
+     */
+    public List<String> next(int count) throws IOException;
+
+    /**
+     * 더 읽을 키가 있는지
+     * @return
+     */
+    public boolean hasNext();
+}
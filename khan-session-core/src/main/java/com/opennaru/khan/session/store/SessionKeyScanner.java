@@ -0,0 +1,44 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store;
+
+import java.io.IOException;
+
+/**
+ * Key enumeration support of SessionCache
+ *
+ * 저장소 전체의 키를 cursor로 읽는다. (Redis SCAN, Infinispan key set iterator)
+ *
+ * @since 1.3.0
+ */
+public interface SessionKeyScanner {
+
+    /**
+     * prefix로 시작하는 키의 cursor를 연다.
+     *
+     * @param prefix
+     * @return 지원하지 않으면 null
+     * @throws IOException
+     */
+    public SessionKeyCursor openKeyCursor(String prefix) throws IOException;
+}
@@ -22,6 +22,8 @@
 package com.opennaru.khan.session.store;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Session Store Interface
@@ -54,12 +56,58 @@ public interface SessionStore {
      */
     public <V extends Serializable> void put(String key, V value, long expire);
 
+    /**
+     * Get Session values of keys in one batch
+     * @param keys
+     * @param <V>
+     * @return map of found keys
+     */
+    public <V extends Serializable> Map<String, V> getAll(Collection<String> keys);
+
+    /**
+     * Get Session values of keys and extend their expiration
+     * @param keys
+     * @param expire
+     * @param <V>
+     * @return map of found keys
+     */
+    public <V extends Serializable> Map<String, V> loadSession(Collection<String> keys, long expire);
+
+    /**
+     * Put Session values in one batch
+     * @param entries
+     * @param expire
+     * @param <V>
+     */
+    public <V extends Serializable> void putAll(Map<String, V> entries, long expire);
+
+    /**
+     * Remove Session values of keys in one batch
+     * @param keys
+     */
+    public void removeAll(Collection<String> keys);
+
     /**
      * Remove Session ID
      * @param key
      */
     public void remove(String key);
 
+    /**
+     * Extend expiration of Session value
+     * @param key
+     * @param expire
+     * @return false if key does not exist or the expiration can not be extended without the value
+     */
+    public boolean touch(String key, long expire);
+
+    /**
+     * Check if touch/loadSession extend expiration
+     * (false : the value has to be written again to extend expiration)
+     * @return
+     */
+    public boolean isTouchSupported();
+
     /**
      * Get number of Session
      * @return
@@ -102,4 +150,41 @@ public interface SessionStore {
      * @return
      */
     public int loginSize();
+
+    /**
+     * Record session access for the active session counter
+     * @param sessionId
+     */
+    public void recordActiveSession(String sessionId);
+
+    /**
+     * Estimated number of active sessions (maintained counter, no store scan)
+     * @return -1 if the session cache does not support counters
+     */
+    public long getActiveSessionCount();
+
+    /**
+     * Register a listener for keys expired/removed in the backend store
+     * @param listener
+     * @return true if the backend reports every expired key (cleanup polling is not needed)
+     */
+    public boolean addExpirationListener(SessionExpirationListener listener);
+
+    /**
+     * Unregister the expiration listener
+     * @param listener
+     */
+    public void removeExpirationListener(SessionExpirationListener listener);
+
+    /**
+     * Open a cursor over the keys in the backend store
+     * @param prefix
+     * @return null if the session cache does not support key enumeration
+     */
+    public SessionKeyCursor openKeyCursor(String prefix);
+
+    /**
+     * Release connections and threads of the backend store
+     */
+    public void destroy();
 }
@@ -26,6 +26,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Session Store Implementation
@@ -37,10 +40,39 @@ public class SessionStoreImpl implements SessionStore {
     private final SessionCache sessionCache;
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
+    /**
+     * active session counter (SessionCounter를 지원하는 cache일 때만)
+     */
+    private ActiveSessionCounter sessionCounter = null;
+    /**
+     * login counter (loginSize()가 정확하지 않거나 비싼 cache일 때만)
+     */
+    private ActiveSessionCounter loginCounter = null;
+
     public SessionStoreImpl(SessionCache sessionCache1) {
         this.sessionCache = sessionCache1;
     }
 
+    /**
+     * Constructor with session counters
+     *
+     * @param sessionCache1
+     * @param counter       backend counter (null이면 카운터를 쓰지 않음)
+     * @param namespace
+     * @param windowSeconds session timeout
+     */
+    public SessionStoreImpl(SessionCache sessionCache1, SessionCounter counter, String namespace, long windowSeconds) {
+        this(sessionCache1);
+        if (counter != null) {
+            sessionCounter = new ActiveSessionCounter(counter, namespace, "SESSION", windowSeconds,
+                    ActiveSessionCounter.DEFAULT_REFRESH_SECONDS);
+            if (!counter.isLoginSizeExact()) {
+                loginCounter = new ActiveSessionCounter(counter, namespace, "LOGIN", windowSeconds,
+                        ActiveSessionCounter.DEFAULT_REFRESH_SECONDS);
+            }
+        }
+    }
+
     /**
      * Check if Session ID is in cache
      * @param key
@@ -111,6 +143,97 @@ public class SessionStoreImpl implements SessionStore {
         }
     }
 
+    /**
+     * Get Session values of keys in one batch
+     * @param keys
+     * @param <V>
+     * @return
+     */
+    @Override
+    public <V extends Serializable> Map<String, V> getAll(Collection<String> keys) {
+        try {
+            Map<String, V> values = sessionCache.<V>getAll(keys);
+
+            if (log.isDebugEnabled()) {
+                Throwable t = new Throwable();
+                String message = ">>> GETALL [" + keys + " -> " + values + "]";
+                log.debug(message + StackTraceUtil.getStackTrace(t));
+            }
+            return values;
+
+        } catch (Exception e) {
+            log.debug("Failed to get values for " + keys, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Get Session values of keys and extend their expiration
+     * @param keys
+     * @param expire
+     * @param <V>
+     * @return
+     */
+    @Override
+    public <V extends Serializable> Map<String, V> loadSession(Collection<String> keys, long expire) {
+        try {
+            Map<String, V> values = sessionCache.<V>loadSession(keys, expire);
+
+            if (log.isDebugEnabled()) {
+                Throwable t = new Throwable();
+                String message = ">>> LOAD (expire:" + expire + ") [" + keys + " -> " + values + "]";
+                log.debug(message + StackTraceUtil.getStackTrace(t));
+            }
+            return values;
+
+        } catch (Exception e) {
+            log.debug("Failed to load values for " + keys, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Put Session values in one batch
+     * @param entries
+     * @param expire
+     * @param <V>
+     */
+    @Override
+    public <V extends Serializable> void putAll(Map<String, V> entries, long expire) {
+
+        if (log.isDebugEnabled()) {
+            Throwable t = new Throwable();
+            String message = ">>> SETALL (expire:" + expire + ") [" + entries + "]";
+            log.debug(message + StackTraceUtil.getStackTrace(t));
+        }
+
+        try {
+            sessionCache.putAll(entries, expire);
+        } catch (Exception e) {
+            log.debug("Failed to set values for " + entries.keySet(), e);
+        }
+    }
+
+    /**
+     * Remove Session values of keys in one batch
+     * @param keys
+     */
+    @Override
+    public void removeAll(Collection<String> keys) {
+
+        if (log.isDebugEnabled()) {
+            Throwable t = new Throwable();
+            String message = ">>> DELETEALL: [" + keys + "]";
+            log.debug(message + StackTraceUtil.getStackTrace(t));
+        }
+
+        try {
+            sessionCache.deleteAll(keys);
+        } catch (Exception e) {
+            log.debug("Failed to delete values for " + keys, e);
+        }
+    }
+
     /**
      * Remove Session ID
      * @param key
@@ -131,6 +254,29 @@ public class SessionStoreImpl implements SessionStore {
         }
     }
 
+    /**
+     * Extend expiration of Session value
+     * @param key
+     * @param expire
+     * @return
+     */
+    @Override
+    public boolean touch(String key, long expire) {
+
+        if (log.isDebugEnabled()) {
+            Throwable t = new Throwable();
+            String message = ">>> TOUCH (expire:" + expire + "): [" + key + "]";
+            log.debug(message + StackTraceUtil.getStackTrace(t));
+        }
+
+        try {
+            return sessionCache.touch(key, expire);
+        } catch (Exception e) {
+            log.debug("Failed to touch value for " + key, e);
+            return false;
+        }
+    }
+
     /**
      * Get number of Session
      * @return
@@ -208,6 +354,9 @@ public class SessionStoreImpl implements SessionStore {
                 sessionCache.loginDelete(key);
             } else {
                 sessionCache.loginPut(key, value, expire);
+                if (loginCounter != null) {
+                    loginCounter.record(key);
+                }
             }
         } catch (Exception e) {
             log.debug("Failed to set value for " + key, e);
@@ -240,6 +389,13 @@ public class SessionStoreImpl implements SessionStore {
      */
     @Override
     public int loginSize() {
+        if (loginCounter != null) {
+            long count = loginCounter.estimate();
+            if (count >= 0) {
+                return (int) count;
+            }
+        }
+
         int size = 0;
         try {
             size = sessionCache.loginSize();
@@ -248,4 +404,91 @@ public class SessionStoreImpl implements SessionStore {
         }
         return size;
     }
+
+    /**
+     * Record session access for the active session counter
+     * @param sessionId
+     */
+    @Override
+    public void recordActiveSession(String sessionId) {
+        if (sessionCounter != null) {
+            sessionCounter.record(sessionId);
+        }
+    }
+
+    /**
+     * Estimated number of active sessions
+     * @return -1 if not supported
+     */
+    @Override
+    public long getActiveSessionCount() {
+        return sessionCounter != null ? sessionCounter.estimate() : -1;
+    }
+
+    /**
+     * Check if touch/loadSession extend expiration
+     * @return
+     */
+    @Override
+    public boolean isTouchSupported() {
+        return !(sessionCache instanceof SessionTouchSupport)
+                || ((SessionTouchSupport) sessionCache).isTouchSupported();
+    }
+
+    /**
+     * Register a listener for keys expired/removed in the backend store
+     * @param listener
+     * @return false if the session cache does not support notifications
+     */
+    @Override
+    public boolean addExpirationListener(SessionExpirationListener listener) {
+        if (sessionCache instanceof SessionExpirationNotifier) {
+            try {
+                return ((SessionExpirationNotifier) sessionCache).addExpirationListener(listener);
+            } catch (Exception e) {
+                log.warn("Failed to register expiration listener", e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unregister the expiration listener
+     * @param listener
+     */
+    @Override
+    public void removeExpirationListener(SessionExpirationListener listener) {
+        if (sessionCache instanceof SessionExpirationNotifier) {
+            ((SessionExpirationNotifier) sessionCache).removeExpirationListener(listener);
+        }
+    }
+
+    /**
+     * Open a cursor over the keys in the backend store
+     * @param prefix
+     * @return null if not supported
+     */
+    @Override
+    public SessionKeyCursor openKeyCursor(String prefix) {
+        if (sessionCache instanceof SessionKeyScanner) {
+            try {
+                return ((SessionKeyScanner) sessionCache).openKeyCursor(prefix);
+            } catch (Exception e) {
+                log.warn("Failed to open key cursor", e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Release connections and threads of the backend store
+     */
+    @Override
+    public void destroy() {
+        try {
+            sessionCache.destroy();
+        } catch (Exception e) {
+            log.warn("Failed to destroy session cache", e);
+        }
+    }
 }
@@ -0,0 +1,41 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store;
+
+/**
+ * Expiration refresh support of SessionCache
+ *
+ * 값을 다시 보내지 않고는 만료 시간을 연장할 수 없는 저장소(HotRod 6)는 false를 반환한다.
+ * 그런 저장소의 touch()는 항상 false이고 loadSession()은 읽기만 하므로,
+ * 호출하는 쪽이 값을 다시 저장해서 만료 시간을 연장한다.
+ * 구현하지 않은 SessionCache는 지원하는 것으로 본다.
+ *
+ * @since 1.3.0
+ */
+public interface SessionTouchSupport {
+
+    /**
+     * touch/loadSession이 만료 시간을 연장하는지
+     * @return
+     */
+    public boolean isTouchSupported();
+}
@@ -0,0 +1,121 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.zip.CRC32;
+
+/**
+ * Java Serialization Utility
+ * 세션 Attribute의 변경 여부 확인, near cache 복사에 사용
+ */
+public class SerializationUtil {
+
+    /**
+     * 객체를 java serialization으로 byte array로 변환
+     *
+     * @param o
+     * @return
+     * @throws java.io.IOException
+     */
+    public static byte[] toBytes(Object o) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(o);
+            oos.flush();
+        } finally {
+            oos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * byte array를 객체로 변환
+     * 웹 애플리케이션 클래스를 찾기 위해 Thread context class loader를 먼저 사용
+     *
+     * @param bytes
+     * @return
+     * @throws java.io.IOException
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T fromBytes(byte[] bytes) throws IOException {
+        ObjectInputStream ois = new ContextObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return (T) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            ois.close();
+        }
+    }
+
+    /**
+     * byte array의 checksum (상위 32bit : 길이, 하위 32bit : CRC32)
+     *
+     * @param bytes
+     * @return
+     */
+    public static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        return ((long) bytes.length << 32) | crc.getValue();
+    }
+
+    /**
+     * checksum에서 serialize된 길이를 반환
+     *
+     * @param checksum
+     * @return
+     */
+    public static int length(long checksum) {
+        return (int) (checksum >>> 32);
+    }
+
+    /**
+     * Thread context class loader로 클래스를 찾는 ObjectInputStream
+     */
+    private static class ContextObjectInputStream extends ObjectInputStream {
+        ContextObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            if (cl != null) {
+                try {
+                    return Class.forName(desc.getName(), false, cl);
+                } catch (ClassNotFoundException e) {
+                    // fall through
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
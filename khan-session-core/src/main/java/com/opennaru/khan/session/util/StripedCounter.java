@@ -0,0 +1,98 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Striped counter
+ * thread마다 다른 stripe(cache line)에 더하고, 읽을 때 합한다. (Java 8 LongAdder와 같은 방식)
+ * 많은 thread가 동시에 올려도 한 변수에서 경합하지 않는다.
+ *
+ * sum()은 동시에 더해지는 값을 포함하지 않을 수 있다. (snapshot)
+ *
+ * @since 1.3.0
+ */
+public class StripedCounter {
+
+    private static final int STRIPES = stripes();
+
+    /**
+     * stripe 사이 간격 (long 16개 = 128 bytes, false sharing 방지)
+     */
+    private static final int PADDING = 16;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(long x) {
+        cells.addAndGet(index(), x);
+    }
+
+    /**
+     * 합계
+     * @return
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /**
+     * 0으로 초기화 (동시에 더해지는 값은 남을 수 있다)
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0L);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(sum());
+    }
+
+    private static int index() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+        return (h & (STRIPES - 1)) * PADDING;
+    }
+
+    /**
+     * CPU 수의 2배 이상인 2의 거듭제곱 (최대 64)
+     */
+    private static int stripes() {
+        int n = Math.min(64, Runtime.getRuntime().availableProcessors() * 2);
+        int stripes = 1;
+        while (stripes < n) {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+}
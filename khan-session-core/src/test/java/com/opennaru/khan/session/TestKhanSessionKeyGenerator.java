@@ -0,0 +1,46 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * KhanSessionKeyGenerator test
+ */
+public class TestKhanSessionKeyGenerator {
+    @Test
+    public void testParseSessionId() throws Exception {
+        String key = KhanSessionKeyGenerator.generate("app ns", "abc-123_x", KhanHttpSession.METADATA_KEY);
+        Assert.assertEquals("abc-123_x", KhanSessionKeyGenerator.parseSessionId("app ns", key, KhanHttpSession.METADATA_KEY));
+        Assert.assertNull(KhanSessionKeyGenerator.parseSessionId("app ns", key, KhanHttpSession.ATTRIBUTES_KEY));
+        Assert.assertNull(KhanSessionKeyGenerator.parseSessionId("other", key, KhanHttpSession.METADATA_KEY));
+
+        // hash tagged key
+        Assert.assertEquals("abc", KhanSessionKeyGenerator.parseSessionId("ns", "KHAN_SESSION__{abc}_ns__META_", KhanHttpSession.METADATA_KEY));
+
+        // login / counter keys
+        Assert.assertNull(KhanSessionKeyGenerator.parseSessionId("ns", KhanSessionKeyGenerator.generateLoginKey("SID", "abc"), KhanHttpSession.METADATA_KEY));
+        Assert.assertNull(KhanSessionKeyGenerator.parseSessionId("ns", KhanSessionKeyGenerator.generateCounterKey("ns", "SESSION", 1L), KhanHttpSession.METADATA_KEY));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session;
+
+import com.opennaru.khan.session.util.SerializationUtil;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * KhanSessionRecord test
+ */
+public class TestKhanSessionRecord {
+    @Test
+    public void testSerialize() throws Exception {
+        KhanSessionMetadata metadata = new KhanSessionMetadata();
+        metadata.setInvalidated(false);
+        metadata.setCreationTime(new Date(1000L));
+        metadata.setLastAccessedTime(new Date(2000L));
+        metadata.setClientIp("127.0.0.1");
+
+        ConcurrentHashMap<Object, Object> attributes = new ConcurrentHashMap<Object, Object>();
+        attributes.put("name", "value");
+
+        KhanSessionRecord record = SerializationUtil.fromBytes(
+                SerializationUtil.toBytes(new KhanSessionRecord(metadata, attributes)));
+
+        Assert.assertEquals(Boolean.FALSE, record.getMetadata().getInvalidated());
+        Assert.assertEquals(1000L, record.getMetadata().getCreationTime().getTime());
+        Assert.assertEquals(2000L, record.getMetadata().getLastAccessedTime().getTime());
+        Assert.assertEquals("127.0.0.1", record.getMetadata().getClientIp());
+        Assert.assertEquals("value", record.getAttributes().get("name"));
+        Assert.assertFalse(record.isLegacy());
+    }
+
+    @Test
+    public void testSerializeNewSession() throws Exception {
+        KhanSessionMetadata metadata = new KhanSessionMetadata();
+        metadata.setInvalidated(true);
+        metadata.setCreationTime(new Date(1000L));
+
+        KhanSessionRecord record = SerializationUtil.fromBytes(
+                SerializationUtil.toBytes(new KhanSessionRecord(metadata, null)));
+
+        Assert.assertEquals(Boolean.TRUE, record.getMetadata().getInvalidated());
+        Assert.assertEquals(1000L, record.getMetadata().getCreationTime().getTime());
+        Assert.assertNull(record.getMetadata().getLastAccessedTime());
+        Assert.assertNull(record.getMetadata().getClientIp());
+        Assert.assertNull(record.getAttributes());
+    }
+
+    @Test
+    public void testSerializeWithoutCreationTime() throws Exception {
+        KhanSessionRecord record = SerializationUtil.fromBytes(
+                SerializationUtil.toBytes(new KhanSessionRecord(new KhanSessionMetadata(), null)));
+
+        Assert.assertNull(record.getMetadata().getCreationTime());
+    }
+
+    @Test
+    public void testSerializeWhileAttributesChange() throws Exception {
+        KhanSessionMetadata metadata = new KhanSessionMetadata();
+        metadata.setCreationTime(new Date(1000L));
+
+        final ConcurrentHashMap<Object, Object> attributes = new ConcurrentHashMap<Object, Object>();
+        attributes.put("fixed", "value");
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                int i = 0;
+                while (running.get()) {
+                    String key = "key" + (i++ % 64);
+                    if (attributes.remove(key) == null)
+                        attributes.put(key, new char[256]);
+                }
+            }
+        };
+        writer.start();
+        try {
+            KhanSessionRecord source = new KhanSessionRecord(metadata, attributes);
+            for (int i = 0; i < 2000; i++) {
+                KhanSessionRecord record = SerializationUtil.fromBytes(SerializationUtil.toBytes(source));
+
+                Assert.assertEquals("value", record.getAttributes().get("fixed"));
+                for (Object key : record.getAttributes().keySet()) {
+                    Assert.assertTrue(key instanceof String);
+                }
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+}
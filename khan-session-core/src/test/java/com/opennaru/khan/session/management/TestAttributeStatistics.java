@@ -0,0 +1,75 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.management;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * AttributeStatistics test
+ */
+public class TestAttributeStatistics {
+    @Test
+    public void testTopN() throws Exception {
+        AttributeStatistics statistics = new AttributeStatistics(1.0);
+        for (int i = 0; i < 100; i++) {
+            statistics.recordSize("cart", 20000 + i);
+            statistics.recordSize("user", 300);
+            statistics.recordWrite("cart");
+        }
+        for (int i = 0; i < 1000; i++) {
+            statistics.recordWrite("lastPage");
+            statistics.recordRead("user");
+        }
+
+        Map<String, Long> byBytes = statistics.getTopByBytes(1);
+        Assert.assertEquals(1, byBytes.size());
+        Assert.assertEquals(20049L, (long) byBytes.get("cart"));
+
+        Map<String, Double> byWrites = statistics.getTopByWriteRate(2);
+        Assert.assertEquals("lastPage", new ArrayList<String>(byWrites.keySet()).get(0));
+        Assert.assertEquals("cart", new ArrayList<String>(byWrites.keySet()).get(1));
+
+        Map<String, Long> user = statistics.getStatistics("user");
+        Assert.assertEquals(1000L, (long) user.get("reads"));
+        Assert.assertEquals(300L, (long) user.get("sizeP50"));
+        Assert.assertTrue(statistics.getStatistics("cart").get("sizeP99") >= 20000L);
+
+        statistics.reset();
+        Assert.assertTrue(statistics.getAttributeNames().isEmpty());
+    }
+
+    @Test
+    public void testBoundedNames() throws Exception {
+        AttributeStatistics statistics = new AttributeStatistics(0);
+        for (int i = 0; i < AttributeStatistics.MAX_ATTRIBUTES * 2; i++) {
+            statistics.recordWrite("attr-" + i);
+        }
+        Assert.assertTrue(statistics.getAttributeNames().size() <= AttributeStatistics.MAX_ATTRIBUTES + 1);
+        Assert.assertTrue(statistics.getAttributeNames().contains(AttributeStatistics.OTHER));
+        Assert.assertFalse(statistics.isSampled());
+    }
+}
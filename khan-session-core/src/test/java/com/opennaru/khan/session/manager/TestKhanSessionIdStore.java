@@ -0,0 +1,116 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.manager;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * KhanSessionIdStore test
+ */
+public class TestKhanSessionIdStore {
+
+    private static long time = 0;
+
+    private static class ManualClockStore extends KhanSessionIdStore {
+        ManualClockStore(int maxSize) {
+            super("test", maxSize);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return time;
+        }
+    }
+
+    @Test
+    public void testPutRemove() throws Exception {
+        time = 0;
+        KhanSessionIdStore store = new ManualClockStore(100000);
+        for (int i = 0; i < 10000; i++) {
+            store.put("session-" + i, i, 600);
+        }
+        Assert.assertEquals(10000, store.size());
+        Assert.assertEquals(1234, store.getMemorySize("session-1234"));
+        Assert.assertEquals((long) 9999 * 10000 / 2, store.getTotalMemorySize());
+
+        for (int i = 0; i < 10000; i += 2) {
+            Assert.assertTrue(store.remove("session-" + i));
+        }
+        Assert.assertFalse(store.remove("session-0"));
+        Assert.assertEquals(5000, store.size());
+        Assert.assertFalse(store.contains("session-2"));
+        Assert.assertTrue(store.contains("session-3"));
+
+        Set<String> ids = new HashSet<String>();
+        for (Iterator<String> it = store.iterator(); it.hasNext(); ) {
+            ids.add(it.next());
+        }
+        Assert.assertEquals(5000, ids.size());
+        Assert.assertTrue(store.getIndexMemorySize() > 0);
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        time = 0;
+        KhanSessionIdStore store = new ManualClockStore(100000);
+        store.put("short", 0, 60);
+        store.put("long", 0, 7200);
+        store.put("forever", 0, KhanSessionIdStore.NO_EXPIRY);
+
+        time = 50 * 1000L;
+        store.touch("short", 60);
+
+        time = 100 * 1000L;
+        Assert.assertTrue(store.contains("short"));
+
+        time = 200 * 1000L;
+        Assert.assertFalse(store.contains("short"));
+        Assert.assertEquals(2, store.size());
+
+        // longer than one wheel round
+        time = 7000 * 1000L;
+        Assert.assertTrue(store.contains("long"));
+        time = 7300 * 1000L;
+        Assert.assertEquals(1, store.size());
+        Assert.assertTrue(store.contains("forever"));
+        Assert.assertEquals(2, store.getExpiredCount());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        time = 0;
+        KhanSessionIdStore store = new ManualClockStore(160);
+        for (int i = 0; i < 1000; i++) {
+            store.put("session-" + i, 0, 600 + i);
+        }
+        Assert.assertTrue("size=" + store.size(), store.size() <= 160);
+        Assert.assertEquals(1000 - store.size(), store.getEvictedCount());
+        // the sessions expiring last are kept
+        Assert.assertTrue(store.contains("session-999"));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * HyperLogLog test
+ */
+public class TestHyperLogLog {
+    @Test
+    public void testCardinality() throws Exception {
+        HyperLogLog hll = new HyperLogLog();
+        Assert.assertEquals(0, hll.cardinality());
+
+        for (int i = 0; i < 100000; i++) {
+            hll.add("session-" + i);
+        }
+        // duplicates are not counted
+        for (int i = 0; i < 100000; i++) {
+            hll.add("session-" + i);
+        }
+        long estimate = hll.cardinality();
+        Assert.assertTrue("estimate=" + estimate, Math.abs(estimate - 100000) < 100000 * 0.05);
+
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 100; i++) {
+            small.add("small-" + i);
+        }
+        Assert.assertTrue("estimate=" + small.cardinality(), Math.abs(small.cardinality() - 100) <= 3);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            a.add("session-" + i);
+            b.add("session-" + (i + 10000));
+        }
+        HyperLogLog merged = a.copy();
+        merged.merge(b);
+        Assert.assertFalse(merged.equals(a));
+        long estimate = merged.cardinality();
+        Assert.assertTrue("estimate=" + estimate, Math.abs(estimate - 30000) < 30000 * 0.05);
+
+        // merging a subset does not change registers
+        HyperLogLog again = merged.copy();
+        again.merge(a);
+        Assert.assertEquals(merged, again);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.util;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+/**
+ * LatencyHistogram test
+ */
+public class TestLatencyHistogram {
+    @Test
+    public void testBuckets() throws Exception {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucket(value);
+            Assert.assertTrue("value=" + value, value <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                Assert.assertTrue("value=" + value, value > LatencyHistogram.upperBound(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentile() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(0.99));
+
+        // 1 ~ 10000 us
+        for (long micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        Assert.assertEquals(10000, histogram.getCount());
+        Assert.assertEquals(10000000, histogram.getMax());
+
+        long p50 = histogram.getPercentile(0.5);
+        long p99 = histogram.getPercentile(0.99);
+        long p999 = histogram.getPercentile(0.999);
+        Assert.assertTrue("p50=" + p50, p50 >= 5000000 && p50 <= 5000000 * 1.125);
+        Assert.assertTrue("p99=" + p99, p99 >= 9900000 && p99 <= 9900000 * 1.125);
+        Assert.assertTrue("p999=" + p999, p999 >= 9990000 && p999 <= 10000000);
+    }
+}
@@ -21,10 +21,16 @@
  */
 package com.opennaru.khan.session.store.infinispan;
 
-import com.opennaru.khan.session.store.SessionCache;
+import com.opennaru.khan.session.store.AsyncSessionCache;
+import com.opennaru.khan.session.store.CombinedFuture;
+import com.opennaru.khan.session.store.SessionCounter;
+import com.opennaru.khan.session.store.SessionTouchSupport;
+import com.opennaru.khan.session.util.HyperLogLog;
 import com.opennaru.khan.session.util.StringUtils;
+import org.infinispan.client.hotrod.Flag;
 import org.infinispan.client.hotrod.RemoteCache;
 import org.infinispan.client.hotrod.RemoteCacheManager;
+import org.infinispan.client.hotrod.VersionedValue;
 import org.infinispan.client.hotrod.configuration.Configuration;
 import org.infinispan.client.hotrod.configuration.ConfigurationBuilder;
 import org.infinispan.client.hotrod.exceptions.HotRodClientException;
@@ -34,7 +40,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -42,7 +56,7 @@ import java.util.concurrent.TimeUnit;
  *
  * @author Junshik Jeon(service@opennaru.com, nameislocus@gmail.com)
  */
-public class InfinispanHotRodImpl implements SessionCache {
+public class InfinispanHotRodImpl implements AsyncSessionCache, SessionCounter, SessionTouchSupport {
 
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
@@ -59,6 +73,11 @@ public class InfinispanHotRodImpl implements SessionCache {
      */
     private RemoteCache<Object, Object> loginCache;
 
+    /**
+     * 카운터 갱신 충돌 시 재시도 횟수
+     */
+    private static final int COUNTER_RETRIES = 10;
+
     /**
      * 생성자
      */
@@ -199,6 +218,202 @@ public class InfinispanHotRodImpl implements SessionCache {
             log.trace("@@@@@@@@@@@@@ cache.size=" + cache.size());
     }
 
+    /**
+     * 여러 키의 값을 가져온다.
+     * HotRod 6에는 getAll이 없어서 비동기 get을 한꺼번에 보내고 결과를 모은다.
+     *
+     * @param keys
+     * @param <T>
+     * @return
+     * @throws IOException
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> getAll(Collection<String> keys) throws IOException {
+        return await(this.<T>getAllAsync(keys));
+    }
+
+    /**
+     * 세션 키들의 값을 읽는다.
+     * HotRod 6에는 값을 다시 보내지 않고 lifespan을 갱신하는 연산이 없어서 만료 시간은 연장하지 않는다.
+     * (isTouchSupported()가 false 이므로 세션 저장 시 값을 다시 쓴다)
+     *
+     * @param keys
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public <T> Map<String, T> loadSession(Collection<String> keys, long secondsToExpire) throws IOException {
+        return getAll(keys);
+    }
+
+    /**
+     * 여러 키의 값을 한 번에 저장
+     * @param entries
+     * @param secondsToExpire
+     * @param <T>
+     * @throws IOException
+     */
+    @Override
+    public <T> void putAll(Map<String, T> entries, long secondsToExpire) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        cache.putAll(new HashMap<Object, Object>(entries), secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 여러 키의 값을 삭제 (비동기 remove를 한꺼번에 보내고 기다린다)
+     * @param keys
+     * @throws IOException
+     */
+    @Override
+    public void deleteAll(Collection<String> keys) throws IOException {
+        await(deleteAllAsync(keys));
+    }
+
+    private static <V> V await(Future<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 비동기 get
+     * @param key
+     * @param <T>
+     * @return
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> getAsync(String key) {
+        return (Future<T>) cache.getAsync(key);
+    }
+
+    /**
+     * 비동기 put
+     * @param key
+     * @param value
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Future<Void> putAsync(String key, T value, long secondsToExpire) {
+        return CombinedFuture.allOf(Collections.singletonList(
+                cache.putAsync(key, value, secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS)));
+    }
+
+    /**
+     * 비동기 remove
+     * @param key
+     * @return
+     */
+    @Override
+    public Future<Void> deleteAsync(String key) {
+        return CombinedFuture.allOf(Collections.singletonList(cache.removeAsync(key)));
+    }
+
+    /**
+     * 만료 시간을 연장하지 않는다. (touch 참고)
+     * @param key
+     * @param secondsToExpire
+     * @return
+     */
+    @Override
+    public Future<Boolean> touchAsync(String key, long secondsToExpire) {
+        return CombinedFuture.completed(Boolean.FALSE);
+    }
+
+    /**
+     * 키마다 비동기 get을 한꺼번에 보낸다. (HotRod 6에는 getAll이 없음)
+     * @param keys
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Future<Map<String, T>> getAllAsync(Collection<String> keys) {
+        List<String> keyList = new ArrayList<String>(keys);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(keyList.size());
+        for (String key : keyList) {
+            futures.add(cache.getAsync(key));
+        }
+        return CombinedFuture.valuesOf(keyList, futures);
+    }
+
+    /**
+     * 읽기만 한다. (loadSession 참고)
+     * @param keys
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Future<Map<String, T>> loadSessionAsync(Collection<String> keys, long secondsToExpire) {
+        return getAllAsync(keys);
+    }
+
+    /**
+     * 비동기 putAll
+     * @param entries
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Future<Void> putAllAsync(Map<String, T> entries, long secondsToExpire) {
+        if (entries.isEmpty()) {
+            return CombinedFuture.completed(null);
+        }
+        return CombinedFuture.allOf(Collections.singletonList(cache.putAllAsync(new HashMap<Object, Object>(entries),
+                secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS)));
+    }
+
+    /**
+     * 키마다 비동기 remove를 한꺼번에 보낸다.
+     * @param keys
+     * @return
+     */
+    @Override
+    public Future<Void> deleteAllAsync(Collection<String> keys) {
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(keys.size());
+        for (String key : keys) {
+            futures.add(cache.removeAsync(key));
+        }
+        return CombinedFuture.allOf(futures);
+    }
+
+    /**
+     * HotRod 6에는 lifespan만 갱신하는 연산이 없다.
+     * 값을 읽어서 다시 보내면 일반 put보다 비싸므로 아무것도 하지 않고 false를 반환한다.
+     * 호출하는 쪽이 값을 다시 저장한다.
+     *
+     * @param key
+     * @param secondsToExpire
+     * @return always false
+     * @throws IOException
+     */
+    @Override
+    public boolean touch(String key, long secondsToExpire) throws IOException {
+        return false;
+    }
+
+    /**
+     * touch/loadSession은 만료 시간을 연장하지 않는다.
+     * @return false
+     */
+    @Override
+    public boolean isTouchSupported() {
+        return false;
+    }
+
     /**
      * 캐시의 데이터 크기를 반환
      * @return
@@ -274,4 +489,73 @@ public class InfinispanHotRodImpl implements SessionCache {
         return loginCache.size();
     }
 
-}
\ No newline at end of file
+    /**
+     * RemoteCacheManager의 connection을 닫는다.
+     */
+    @Override
+    public void destroy() {
+        if( cacheManager != null )
+            cacheManager.stop();
+    }
+
+    /**
+     * 카운터(HyperLogLog)에 값들을 더한다.
+     * 다른 노드와 동시에 갱신할 수 있으므로 putIfAbsent/replaceWithVersion으로 합친다.
+     *
+     * @param counterKey
+     * @param members
+     * @param secondsToExpire
+     * @throws IOException
+     */
+    @Override
+    public void addToCounter(String counterKey, Collection<String> members, long secondsToExpire) throws IOException {
+        HyperLogLog added = new HyperLogLog();
+        for (String member : members) {
+            added.add(member);
+        }
+
+        for (int i = 0; i < COUNTER_RETRIES; i++) {
+            VersionedValue<Object> current = cache.getVersioned(counterKey);
+            if (current == null) {
+                if (cache.withFlags(Flag.FORCE_RETURN_VALUE)
+                        .putIfAbsent(counterKey, added, secondsToExpire, TimeUnit.SECONDS) == null) {
+                    return;
+                }
+            } else {
+                HyperLogLog merged = ((HyperLogLog) current.getValue()).copy();
+                merged.merge(added);
+                if (merged.equals(current.getValue())
+                        || cache.replaceWithVersion(counterKey, merged, current.getVersion(), (int) secondsToExpire)) {
+                    return;
+                }
+            }
+        }
+        throw new IOException("Failed to update counter " + counterKey + " (conflict)");
+    }
+
+    /**
+     * 카운터들을 한꺼번에 읽어서 합친 크기를 추정한다.
+     *
+     * @param counterKeys
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public long countUnion(List<String> counterKeys) throws IOException {
+        Map<String, HyperLogLog> counters = await(this.<HyperLogLog>getAllAsync(counterKeys));
+        HyperLogLog union = new HyperLogLog();
+        for (HyperLogLog counter : counters.values()) {
+            union.merge(counter);
+        }
+        return union.cardinality();
+    }
+
+    /**
+     * loginCache.size()는 서버 전체를 세므로 login 카운터를 쓴다.
+     * @return
+     */
+    @Override
+    public boolean isLoginSizeExact() {
+        return false;
+    }
+}
@@ -22,7 +22,6 @@
 package com.opennaru.khan.session.filter;
 
 import com.opennaru.khan.session.store.SessionCache;
-import com.opennaru.khan.session.store.SessionStoreImpl;
 import com.opennaru.khan.session.store.infinispan.InfinispanLibrayImpl;
 import com.opennaru.khan.session.util.StringUtils;
 import org.slf4j.Logger;
@@ -85,7 +84,7 @@ public class InfinispanLibSessionFilter extends KhanSessionFilter implements Fil
             sessionCache = new InfinispanLibrayImpl();
             sessionCache.initialize(configFileName, cacheName, loginCacheName);
 
-            sessionStore = new SessionStoreImpl(sessionCache);
+            sessionStore = createSessionStore(sessionCache);
             sessionManager.setSessionStore(sessionStore);
         } catch (Exception e) {
             throw new IllegalStateException("Failed", e);
@@ -0,0 +1,78 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store.infinispan;
+
+import com.opennaru.khan.session.store.SessionKeyCursor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Infinispan key set cursor
+ *
+ * keySet()의 iterator를 조금씩 읽는다. keySet()은 data container의 view이므로 키를 복사하지 않는다.
+ * Infinispan 6에는 cluster 전체를 읽는 entry iterator가 없으므로 이 노드에 있는 키만 읽는다.
+ * (REPL 모드에서는 전체, DIST 모드에서는 이 노드가 owner인 키)
+ *
+ * @since 1.3.0
+ */
+public class InfinispanKeyCursor implements SessionKeyCursor {
+
+    private final Iterator<Object> iterator;
+
+    private final String prefix;
+
+    private boolean closed = false;
+
+    public InfinispanKeyCursor(Iterator<Object> iterator, String prefix) {
+        this.iterator = iterator;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public synchronized List<String> next(int count) {
+        if (!hasNext()) {
+            return Collections.emptyList();
+        }
+        List<String> keys = new ArrayList<String>(count);
+        while (keys.size() < count && iterator.hasNext()) {
+            Object key = iterator.next();
+            if (key instanceof String && ((String) key).startsWith(prefix)) {
+                keys.add((String) key);
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        return !closed && iterator.hasNext();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+}
@@ -21,15 +21,31 @@
  */
 package com.opennaru.khan.session.store.infinispan;
 
+import com.opennaru.khan.session.store.AsyncSessionCache;
+import com.opennaru.khan.session.store.CombinedFuture;
 import com.opennaru.khan.session.store.SessionCache;
+import com.opennaru.khan.session.store.SessionCounter;
+import com.opennaru.khan.session.store.SessionExpirationListener;
+import com.opennaru.khan.session.store.SessionExpirationNotifier;
+import com.opennaru.khan.session.store.SessionKeyCursor;
+import com.opennaru.khan.session.store.SessionKeyScanner;
+import com.opennaru.khan.session.util.HyperLogLog;
 import com.opennaru.khan.session.util.StringUtils;
 import org.infinispan.Cache;
 import org.infinispan.commons.util.concurrent.FutureListener;
+import org.infinispan.context.Flag;
 import org.infinispan.manager.DefaultCacheManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -39,7 +55,7 @@ import java.util.concurrent.TimeUnit;
  *
  * @author Junshik Jeon(service@opennaru.com, nameislocus@gmail.com)
  */
-public class InfinispanLibrayImpl implements SessionCache {
+public class InfinispanLibrayImpl implements AsyncSessionCache, SessionCounter, SessionExpirationNotifier, SessionKeyScanner {
 
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
@@ -66,6 +82,16 @@ public class InfinispanLibrayImpl implements SessionCache {
      */
     private String loginCacheName = SessionCache.DEFAULT_LOGIN_CACHENAME;
 
+    /**
+     * 삭제/eviction 알림 (listener가 있을 때만 cache에 등록)
+     */
+    private InfinispanRemovalListener removalListener = null;
+
+    /**
+     * 카운터 갱신 충돌 시 재시도 횟수
+     */
+    private static final int COUNTER_RETRIES = 10;
+
     /**
      * Default Constructor
      */
@@ -178,6 +204,223 @@ public class InfinispanLibrayImpl implements SessionCache {
             log.trace("@@@@@@@@@@@@@ cache.size=" + cache.size());
     }
 
+    /**
+     * 여러 키의 값을 가져온다. (로컬 캐시 호출)
+     * @param keys
+     * @param <T>
+     * @return
+     * @throws IOException
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> getAll(Collection<String> keys) throws IOException {
+        Map<String, T> values = new HashMap<String, T>();
+        for (String key : keys) {
+            Object value = cache.get(key);
+            if (value != null) {
+                values.put(key, (T) value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 세션 키들의 값을 읽고 만료 시간을 연장한다.
+     * 만료 시간 연장(replace)은 키마다 비동기로 한꺼번에 보내고 기다린다.
+     * @param keys
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public <T> Map<String, T> loadSession(Collection<String> keys, long secondsToExpire) throws IOException {
+        return await(this.<T>loadSessionAsync(keys, secondsToExpire));
+    }
+
+    private static <V> V await(Future<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * 여러 키의 값을 한 번에 저장
+     * @param entries
+     * @param secondsToExpire
+     * @param <T>
+     * @throws IOException
+     */
+    @Override
+    public <T> void putAll(Map<String, T> entries, long secondsToExpire) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        cache.putAll(new HashMap<Object, Object>(entries), secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 여러 키의 값을 삭제
+     * @param keys
+     * @throws IOException
+     */
+    @Override
+    public void deleteAll(Collection<String> keys) throws IOException {
+        for (String key : keys) {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * 캐시 값의 만료 시간을 연장한다.
+     * 같은 객체로 replace 한다.
+     * local 캐시에서는 marshalling 하지 않지만, clustered 캐시에서는 replace도 값을 marshalling 해서
+     * 다른 노드로 보내므로 put과 비용이 같다.
+     *
+     * @param key
+     * @param secondsToExpire
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public boolean touch(String key, long secondsToExpire) throws IOException {
+        Object value = cache.get(key);
+        if (value == null) {
+            return false;
+        }
+        return cache.replace(key, value, value, secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 비동기 get
+     * @param key
+     * @param <T>
+     * @return
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Future<T> getAsync(String key) {
+        return (Future<T>) cache.getAsync(key);
+    }
+
+    /**
+     * 비동기 put
+     * @param key
+     * @param value
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Future<Void> putAsync(String key, T value, long secondsToExpire) {
+        return CombinedFuture.allOf(Collections.singletonList(
+                cache.putAsync(key, value, secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS)));
+    }
+
+    /**
+     * 비동기 remove
+     * @param key
+     * @return
+     */
+    @Override
+    public Future<Void> deleteAsync(String key) {
+        return CombinedFuture.allOf(Collections.singletonList(cache.removeAsync(key)));
+    }
+
+    /**
+     * 로컬에서 값을 읽고 같은 객체로 비동기 replace 한다.
+     * @param key
+     * @param secondsToExpire
+     * @return
+     */
+    @Override
+    public Future<Boolean> touchAsync(String key, long secondsToExpire) {
+        Object value = cache.get(key);
+        if (value == null) {
+            return CombinedFuture.completed(Boolean.FALSE);
+        }
+        return cache.replaceAsync(key, value, value, secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 키마다 비동기 get을 한꺼번에 보낸다.
+     * @param keys
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Future<Map<String, T>> getAllAsync(Collection<String> keys) {
+        List<String> keyList = new ArrayList<String>(keys);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(keyList.size());
+        for (String key : keyList) {
+            futures.add(cache.getAsync(key));
+        }
+        return CombinedFuture.valuesOf(keyList, futures);
+    }
+
+    /**
+     * 세션 키들의 값을 읽고 만료 시간 연장(replace)은 비동기로 보낸다.
+     * 반환된 future는 모든 replace가 끝나면 완료된다.
+     * @param keys
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Future<Map<String, T>> loadSessionAsync(Collection<String> keys, long secondsToExpire) {
+        final Map<String, T> values = new HashMap<String, T>();
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(keys.size());
+        for (String key : keys) {
+            Object value = cache.get(key);
+            if (value != null) {
+                values.put(key, (T) value);
+                futures.add(cache.replaceAsync(key, value, value, secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS));
+            }
+        }
+        return new CombinedFuture<Map<String, T>>(futures) {
+            @Override
+            protected Map<String, T> combine(List<Object> results) {
+                return values;
+            }
+        };
+    }
+
+    /**
+     * 비동기 putAll
+     * @param entries
+     * @param secondsToExpire
+     * @param <T>
+     * @return
+     */
+    @Override
+    public <T> Future<Void> putAllAsync(Map<String, T> entries, long secondsToExpire) {
+        if (entries.isEmpty()) {
+            return CombinedFuture.completed(null);
+        }
+        return CombinedFuture.allOf(Collections.singletonList(cache.putAllAsync(new HashMap<Object, Object>(entries),
+                secondsToExpire, TimeUnit.SECONDS, secondsToExpire, TimeUnit.SECONDS)));
+    }
+
+    /**
+     * 키마다 비동기 remove를 한꺼번에 보낸다.
+     * @param keys
+     * @return
+     */
+    @Override
+    public Future<Void> deleteAllAsync(Collection<String> keys) {
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(keys.size());
+        for (String key : keys) {
+            futures.add(cache.removeAsync(key));
+        }
+        return CombinedFuture.allOf(futures);
+    }
+
     /**
      * 캐시에 저장된 세션의 개수
      * @return
@@ -254,4 +497,112 @@ public class InfinispanLibrayImpl implements SessionCache {
         return loginCache.size();
     }
 
-}
\ No newline at end of file
+    /**
+     * 이 노드의 CacheManager를 종료한다. (cluster에서 빠진다)
+     */
+    @Override
+    public synchronized void destroy() {
+        if( removalListener != null ) {
+            cache.removeListener(removalListener);
+            removalListener = null;
+        }
+        if( cacheManager != null )
+            cacheManager.stop();
+    }
+
+    /**
+     * 카운터(HyperLogLog)에 값들을 더한다.
+     * 다른 노드와 동시에 갱신할 수 있으므로 putIfAbsent/replace(old, new)로 합친다.
+     *
+     * @param counterKey
+     * @param members
+     * @param secondsToExpire
+     * @throws IOException
+     */
+    @Override
+    public void addToCounter(String counterKey, Collection<String> members, long secondsToExpire) throws IOException {
+        HyperLogLog added = new HyperLogLog();
+        for (String member : members) {
+            added.add(member);
+        }
+
+        for (int i = 0; i < COUNTER_RETRIES; i++) {
+            HyperLogLog current = (HyperLogLog) cache.get(counterKey);
+            if (current == null) {
+                if (cache.putIfAbsent(counterKey, added, secondsToExpire, TimeUnit.SECONDS) == null) {
+                    return;
+                }
+            } else {
+                HyperLogLog merged = current.copy();
+                merged.merge(added);
+                if (merged.equals(current)
+                        || cache.replace(counterKey, current, merged, secondsToExpire, TimeUnit.SECONDS)) {
+                    return;
+                }
+            }
+        }
+        throw new IOException("Failed to update counter " + counterKey + " (conflict)");
+    }
+
+    /**
+     * 카운터들을 합쳐서 크기를 추정한다.
+     *
+     * @param counterKeys
+     * @return
+     * @throws IOException
+     */
+    @Override
+    public long countUnion(List<String> counterKeys) throws IOException {
+        HyperLogLog union = new HyperLogLog();
+        for (String counterKey : counterKeys) {
+            HyperLogLog counter = (HyperLogLog) cache.get(counterKey);
+            if (counter != null) {
+                union.merge(counter);
+            }
+        }
+        return union.cardinality();
+    }
+
+    /**
+     * cache.size()는 cluster 전체를 세므로 login 카운터를 쓴다.
+     * @return
+     */
+    @Override
+    public boolean isLoginSizeExact() {
+        return false;
+    }
+
+    /**
+     * 삭제/eviction을 알려준다.
+     * Infinispan 6에는 expiration 이벤트가 없으므로 false를 반환한다. (만료는 cleanup으로 정리, 로컬 호출)
+     *
+     * @param listener
+     * @return
+     */
+    @Override
+    public synchronized boolean addExpirationListener(SessionExpirationListener listener) {
+        if (removalListener == null) {
+            removalListener = new InfinispanRemovalListener();
+            cache.addListener(removalListener);
+        }
+        removalListener.addListener(listener);
+        return false;
+    }
+
+    @Override
+    public synchronized void removeExpirationListener(SessionExpirationListener listener) {
+        if (removalListener != null && removalListener.removeListener(listener)) {
+            cache.removeListener(removalListener);
+            removalListener = null;
+        }
+    }
+
+    /**
+     * 이 노드의 키를 읽는다. (cache store는 읽지 않는다)
+     */
+    @Override
+    public SessionKeyCursor openKeyCursor(String prefix) {
+        return new InfinispanKeyCursor(cache.getAdvancedCache().withFlags(Flag.CACHE_MODE_LOCAL, Flag.SKIP_CACHE_LOAD)
+                .keySet().iterator(), prefix);
+    }
+}
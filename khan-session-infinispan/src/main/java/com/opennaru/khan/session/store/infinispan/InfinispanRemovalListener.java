@@ -0,0 +1,90 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store.infinispan;
+
+import com.opennaru.khan.session.store.SessionExpirationListener;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntriesEvicted;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryRemoved;
+import org.infinispan.notifications.cachelistener.event.CacheEntriesEvictedEvent;
+import org.infinispan.notifications.cachelistener.event.CacheEntryRemovedEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Infinispan cache listener
+ * 세션 캐시에서 삭제/eviction된 키를 SessionExpirationListener에 알려준다.
+ * (Infinispan 6에는 expiration 이벤트가 없으므로 만료는 알려주지 않는다)
+ *
+ * @since 1.3.0
+ */
+@Listener(sync = false)
+public class InfinispanRemovalListener {
+    private static Logger log = LoggerFactory.getLogger(InfinispanRemovalListener.class);
+
+    private final List<SessionExpirationListener> listeners = new CopyOnWriteArrayList<SessionExpirationListener>();
+
+    public void addListener(SessionExpirationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * listener 제거
+     *
+     * @param listener
+     * @return 남은 listener가 없으면 true
+     */
+    public boolean removeListener(SessionExpirationListener listener) {
+        listeners.remove(listener);
+        return listeners.isEmpty();
+    }
+
+    @CacheEntryRemoved
+    public void entryRemoved(CacheEntryRemovedEvent<Object, Object> event) {
+        if (!event.isPre() && event.getKey() instanceof String) {
+            notifyListeners((String) event.getKey(), false);
+        }
+    }
+
+    @CacheEntriesEvicted
+    public void entriesEvicted(CacheEntriesEvictedEvent<Object, Object> event) {
+        for (Object key : event.getEntries().keySet()) {
+            if (key instanceof String) {
+                notifyListeners((String) key, true);
+            }
+        }
+    }
+
+    private void notifyListeners(String key, boolean expired) {
+        for (SessionExpirationListener listener : listeners) {
+            try {
+                listener.keyRemoved(key, expired);
+            } catch (Exception e) {
+                log.warn("Expiration listener failed. key=" + key, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,602 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis.async;
+
+import com.opennaru.khan.session.store.AsyncSessionCache;
+import com.opennaru.khan.session.store.CombinedFuture;
+import com.opennaru.khan.session.store.SerializedSizeRecorder;
+import com.opennaru.khan.session.store.SessionCounter;
+import com.opennaru.khan.session.store.SessionExpirationListener;
+import com.opennaru.khan.session.store.SessionExpirationNotifier;
+import com.opennaru.khan.session.store.SessionKeyCursor;
+import com.opennaru.khan.session.store.SessionKeyScanner;
+import com.opennaru.khan.session.store.marshaller.KhanMarshaller;
+import com.opennaru.khan.session.store.redis.RedisConfigurationProperties;
+import com.opennaru.khan.session.store.redis.RedisExpirationSubscriber;
+import com.opennaru.khan.session.store.redis.RedisKeyCursor;
+import com.opennaru.khan.session.store.redis.RedisScript;
+import com.opennaru.khan.session.store.redis.RedisServer;
+import com.opennaru.khan.session.util.ClassUtil;
+import com.opennaru.khan.session.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Session Store using multiplexed (non-blocking) Redis connections
+ *
+ * 몇 개의 connection을 모든 요청 thread가 함께 사용한다. 각 연산은 바로 Future를 돌려주고
+ * (getAsync, putAsync, ...), SessionCache의 동기 메소드는 그 Future를 기다린다.
+ *
+ * @since 1.3.0
+ */
+public class RedisAsyncClientImpl implements AsyncSessionCache, SessionCounter, SessionExpirationNotifier, SessionKeyScanner {
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * session database connections
+     */
+    private RedisMultiplexedConnection[] connections = null;
+
+    /**
+     * login database (database + 1) connection
+     */
+    private RedisMultiplexedConnection loginConnection = null;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * 동기 메소드의 응답 대기 시간 (ms)
+     */
+    private long timeout;
+
+    /**
+     * Marshaller
+     */
+    private KhanMarshaller marshaller;
+
+    private RedisConfigurationProperties redisProp;
+
+    private RedisServer redisServer;
+
+    /**
+     * expired key notification (구독 전용 Jedis connection)
+     */
+    private RedisExpirationSubscriber expirationSubscriber = null;
+
+    /**
+     * SUBSCRIBE, SCAN 처럼 multiplexed connection에서 할 수 없는 명령용 pool (처음 쓸 때 만든다)
+     */
+    private JedisPool jedisPool = null;
+
+    /**
+     * Default Constructor
+     */
+    public RedisAsyncClientImpl() {
+
+    }
+
+    /**
+     * 초기화되어 있는지 체크
+     *
+     * @return
+     */
+    @Override
+    public boolean isInitialized() {
+        return connections != null;
+    }
+
+    /**
+     * 초기화
+     *
+     * @param configFile
+     * @param cacheName
+     * @param loginCacheName
+     * @throws java.io.IOException
+     */
+    @Override
+    public void initialize(String configFile, String cacheName, String loginCacheName)
+            throws IOException {
+        StringUtils.isNotNull("configFile", configFile);
+
+        redisProp = new RedisConfigurationProperties();
+        redisProp.loadProperties(configFile);
+
+        redisServer = redisProp.getRedisServer();
+        String password = getPassword();
+        timeout = redisServer.getTimeout();
+
+        int connectionCount = Math.max(1, redisProp.getAsyncConnections());
+        RedisMultiplexedConnection[] newConnections = new RedisMultiplexedConnection[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            newConnections[i] = new RedisMultiplexedConnection("khan-session-redis-async-" + i,
+                    redisServer.getHostname(), redisServer.getPort(), redisServer.getTimeout(), password,
+                    redisServer.getDatabase(), redisProp.getAsyncMaxBatch());
+        }
+        loginConnection = new RedisMultiplexedConnection("khan-session-redis-async-login",
+                redisServer.getHostname(), redisServer.getPort(), redisServer.getTimeout(), password,
+                redisServer.getDatabase() + 1, redisProp.getAsyncMaxBatch());
+
+        String marshallerClass = redisProp.getMarshaller();
+        marshaller = (KhanMarshaller)ClassUtil.getInstance(marshallerClass, this.getClass().getClassLoader());
+
+        connections = newConnections;
+    }
+
+    private String getPassword() {
+        return StringUtils.isNullOrEmpty( redisServer.getPassword() ) ? null : redisServer.getPassword();
+    }
+
+    private RedisMultiplexedConnection connection() {
+        return connections[(next.getAndIncrement() & Integer.MAX_VALUE) % connections.length];
+    }
+
+    /**
+     * Future 결과를 기다린다. (redis timeout)
+     */
+    private <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for redis reply");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static byte[][] toBytes(List<String> keys) {
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = keys.get(i).getBytes();
+        }
+        return rawKeys;
+    }
+
+    private static Object[] command(Protocol.Command command, byte[]... args) {
+        return new Object[]{command, args};
+    }
+
+    // ------------------------------------------------------------------------------------------------
+    // async operations
+    // ------------------------------------------------------------------------------------------------
+
+    public Future<Boolean> containsAsync(String key) {
+        return existsOn(connection(), key);
+    }
+
+    @Override
+    public <T> Future<T> getAsync(String key) {
+        return getOn(connection(), key);
+    }
+
+    /**
+     * marshalling 오류는 실패한 future로 돌려준다.
+     */
+    @Override
+    public <T> Future<Void> putAsync(String key, T value, long secondsToExpire) {
+        try {
+            return setexOn(connection(), key, value, secondsToExpire);
+        } catch (IOException e) {
+            return CombinedFuture.failed(e);
+        }
+    }
+
+    @Override
+    public Future<Void> deleteAsync(String key) {
+        return delOn(connection(), key);
+    }
+
+    @Override
+    public Future<Boolean> touchAsync(String key, long secondsToExpire) {
+        return connection().send(new RedisFuture<Boolean>(1) {
+            @Override
+            protected Boolean convert(Object[] replies) {
+                return ((Long) replies[0]) == 1L;
+            }
+        }, Protocol.Command.EXPIRE, key.getBytes(), Protocol.toByteArray((int) secondsToExpire));
+    }
+
+    /**
+     * MGET
+     */
+    @Override
+    public <T> Future<Map<String, T>> getAllAsync(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return RedisFuture.completed((Map<String, T>) new HashMap<String, T>());
+        }
+        final List<String> keyList = new ArrayList<String>(keys);
+        List<Object[]> commands = new ArrayList<Object[]>(1);
+        commands.add(command(Protocol.Command.MGET, toBytes(keyList)));
+        return connection().send(new ValuesFuture<T>(keyList, 1), commands);
+    }
+
+    /**
+     * MGET + EXPIRE (같은 connection에 연속으로 보낸다)
+     */
+    @Override
+    public <T> Future<Map<String, T>> loadSessionAsync(Collection<String> keys, long secondsToExpire) {
+        if (keys.isEmpty()) {
+            return RedisFuture.completed((Map<String, T>) new HashMap<String, T>());
+        }
+        final List<String> keyList = new ArrayList<String>(keys);
+        byte[][] rawKeys = toBytes(keyList);
+        byte[] seconds = Protocol.toByteArray((int) secondsToExpire);
+
+        List<Object[]> commands = new ArrayList<Object[]>(rawKeys.length + 1);
+        commands.add(command(Protocol.Command.MGET, rawKeys));
+        for (byte[] rawKey : rawKeys) {
+            commands.add(command(Protocol.Command.EXPIRE, rawKey, seconds));
+        }
+        return connection().send(new ValuesFuture<T>(keyList, commands.size()), commands);
+    }
+
+    /**
+     * SETEX (같은 connection에 연속으로 보낸다)
+     */
+    @Override
+    public <T> Future<Void> putAllAsync(Map<String, T> entries, long secondsToExpire) {
+        if (entries.isEmpty()) {
+            return RedisFuture.completed(null);
+        }
+        byte[] seconds = Protocol.toByteArray((int) secondsToExpire);
+        List<Object[]> commands = new ArrayList<Object[]>(entries.size());
+        try {
+            for (Map.Entry<String, T> entry : entries.entrySet()) {
+                commands.add(command(Protocol.Command.SETEX, entry.getKey().getBytes(), seconds,
+                        marshal(entry.getValue())));
+            }
+        } catch (IOException e) {
+            return CombinedFuture.failed(e);
+        }
+        return connection().send(new VoidFuture(commands.size()), commands);
+    }
+
+    /**
+     * DEL
+     */
+    @Override
+    public Future<Void> deleteAllAsync(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return RedisFuture.completed(null);
+        }
+        List<Object[]> commands = new ArrayList<Object[]>(1);
+        commands.add(command(Protocol.Command.DEL, toBytes(new ArrayList<String>(keys))));
+        return connection().send(new VoidFuture(1), commands);
+    }
+
+    private Future<Boolean> existsOn(RedisMultiplexedConnection connection, String key) {
+        return connection.send(new RedisFuture<Boolean>(1) {
+            @Override
+            protected Boolean convert(Object[] replies) {
+                return ((Long) replies[0]) == 1L;
+            }
+        }, Protocol.Command.EXISTS, key.getBytes());
+    }
+
+    private <T> Future<T> getOn(RedisMultiplexedConnection connection, String key) {
+        return connection.send(new RedisFuture<T>(1) {
+            @Override
+            @SuppressWarnings("unchecked")
+            protected T convert(Object[] replies) throws IOException {
+                return (T) unmarshal((byte[]) replies[0]);
+            }
+        }, Protocol.Command.GET, key.getBytes());
+    }
+
+    private <T> Future<Void> setexOn(RedisMultiplexedConnection connection, String key, T value, long secondsToExpire)
+            throws IOException {
+        return connection.send(new VoidFuture(1), Protocol.Command.SETEX,
+                key.getBytes(), Protocol.toByteArray((int) secondsToExpire), marshal(value));
+    }
+
+    private Future<Void> delOn(RedisMultiplexedConnection connection, String key) {
+        return connection.send(new VoidFuture(1), Protocol.Command.DEL, key.getBytes());
+    }
+
+    private Future<Long> dbSizeOn(RedisMultiplexedConnection connection) {
+        return connection.send(new RedisFuture<Long>(1), Protocol.Command.DBSIZE);
+    }
+
+    /**
+     * 응답 값이 필요 없는 명령
+     */
+    private static class VoidFuture extends RedisFuture<Void> {
+        VoidFuture(int replyCount) {
+            super(replyCount);
+        }
+
+        @Override
+        protected Void convert(Object[] replies) {
+            return null;
+        }
+    }
+
+    /**
+     * 첫번째 응답(MGET)을 key → value Map으로 변환
+     */
+    private class ValuesFuture<T> extends RedisFuture<Map<String, T>> {
+        private final List<String> keys;
+
+        ValuesFuture(List<String> keys, int replyCount) {
+            super(replyCount);
+            this.keys = keys;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Map<String, T> convert(Object[] replies) throws IOException {
+            List<Object> rawValues = (List<Object>) replies[0];
+            Map<String, T> values = new HashMap<String, T>();
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] rawValue = (byte[]) rawValues.get(i);
+                if (rawValue != null) {
+                    values.put(keys.get(i), (T) unmarshal(rawValue));
+                }
+            }
+            return values;
+        }
+    }
+
+    // ------------------------------------------------------------------------------------------------
+    // SessionCache
+    // ------------------------------------------------------------------------------------------------
+
+    @Override
+    public <T> boolean contains(String key) throws IOException {
+        return await(containsAsync(key));
+    }
+
+    /**
+     * marshalling 후 byte 수를 기록 (메모리 통계)
+     */
+    private byte[] marshal(Object value) throws IOException {
+        byte[] bytes = marshaller.objectToBytes(value);
+        SerializedSizeRecorder.record(bytes.length);
+        return bytes;
+    }
+
+    /**
+     * unmarshalling 하고 byte 수를 기록 (SessionCache 통계)
+     */
+    private Object unmarshal(byte[] bytes) throws IOException {
+        if (bytes != null) {
+            SerializedSizeRecorder.recordRead(bytes.length);
+        }
+        return marshaller.objectFromByteBuffer(bytes);
+    }
+
+    @Override
+    public <T> void put(String key, T value, long secondsToExpire) throws IOException {
+        await(putAsync(key, value, secondsToExpire));
+    }
+
+    @Override
+    public <T> T get(String key) throws IOException {
+        return await(this.<T>getAsync(key));
+    }
+
+    @Override
+    public <T> void delete(String key) throws IOException {
+        await(deleteAsync(key));
+    }
+
+    @Override
+    public <T> Map<String, T> getAll(Collection<String> keys) throws IOException {
+        return await(this.<T>getAllAsync(keys));
+    }
+
+    @Override
+    public <T> Map<String, T> loadSession(Collection<String> keys, long secondsToExpire) throws IOException {
+        return await(this.<T>loadSessionAsync(keys, secondsToExpire));
+    }
+
+    @Override
+    public <T> void putAll(Map<String, T> entries, long secondsToExpire) throws IOException {
+        await(putAllAsync(entries, secondsToExpire));
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) throws IOException {
+        await(deleteAllAsync(keys));
+    }
+
+    @Override
+    public boolean touch(String key, long secondsToExpire) throws IOException {
+        return await(touchAsync(key, secondsToExpire));
+    }
+
+    @Override
+    public int size() throws IOException {
+        Long dbSize = await(dbSizeOn(connection()));
+        if( log.isTraceEnabled() )
+            log.trace("sizeof=" + dbSize);
+
+        return dbSize.intValue();
+    }
+
+    @Override
+    public <T> boolean loginContains(String key) throws IOException {
+        return await(existsOn(loginConnection, key));
+    }
+
+    @Override
+    public <T> void loginPut(String key, T value, long secondsToExpire) throws IOException {
+        await(setexOn(loginConnection, key, value, secondsToExpire));
+    }
+
+    @Override
+    public <T> T loginGet(String key) throws IOException {
+        return await(this.<T>getOn(loginConnection, key));
+    }
+
+    @Override
+    public <T> void loginDelete(String key) throws IOException {
+        await(delOn(loginConnection, key));
+    }
+
+    @Override
+    public int loginSize() throws IOException {
+        Long dbSize = await(dbSizeOn(loginConnection));
+        if( log.isTraceEnabled() )
+            log.trace("sizeof=" + dbSize);
+
+        return dbSize.intValue();
+    }
+
+    /**
+     * PFADD + EXPIRE (EVAL, redis 2.8.9+)
+     */
+    @Override
+    public void addToCounter(String counterKey, Collection<String> members, long secondsToExpire) throws IOException {
+        if (members.isEmpty()) {
+            return;
+        }
+        byte[] script = RedisScript.ADD_TO_COUNTER.getBytes();
+        List<Object[]> commands = new ArrayList<Object[]>();
+        for (List<byte[]> args : RedisScript.counterArgs(members, secondsToExpire)) {
+            args.add(0, counterKey.getBytes());
+            args.add(0, Protocol.toByteArray(1));
+            args.add(0, script);
+            commands.add(command(Protocol.Command.EVAL, args.toArray(new byte[args.size()][])));
+        }
+        await(connection().send(new VoidFuture(commands.size()), commands));
+    }
+
+    /**
+     * PFCOUNT (EVAL, redis 2.8.9+)
+     */
+    @Override
+    public long countUnion(List<String> counterKeys) throws IOException {
+        List<byte[]> args = new ArrayList<byte[]>(counterKeys.size() + 2);
+        args.add(RedisScript.COUNT_UNION.getBytes());
+        args.add(Protocol.toByteArray(counterKeys.size()));
+        for (String counterKey : counterKeys) {
+            args.add(counterKey.getBytes());
+        }
+        return await(connection().send(new RedisFuture<Long>(1), Protocol.Command.EVAL,
+                args.toArray(new byte[args.size()][])));
+    }
+
+    /**
+     * login database에는 login 키만 있으므로 DBSIZE가 정확하다.
+     */
+    @Override
+    public boolean isLoginSizeExact() {
+        return true;
+    }
+
+    /**
+     * keyspace notification (expired)을 구독한다.
+     * 구독은 multiplexed connection에서 할 수 없으므로 Jedis connection을 따로 쓴다.
+     */
+    @Override
+    public synchronized boolean addExpirationListener(SessionExpirationListener listener) {
+        if (!redisProp.getExpirationEventsEnabled()) {
+            return false;
+        }
+        if (expirationSubscriber == null) {
+            expirationSubscriber = new RedisExpirationSubscriber(Collections.singletonList(jedisPool()),
+                    redisServer.getDatabase(), redisProp.getExpirationEventsConfigureServer());
+        }
+        return expirationSubscriber.addListener(listener);
+    }
+
+    @Override
+    public synchronized void removeExpirationListener(SessionExpirationListener listener) {
+        if (expirationSubscriber != null) {
+            expirationSubscriber.removeListener(listener);
+        }
+    }
+
+    /**
+     * SCAN은 cursor 마다 응답을 기다려야 하므로 Jedis connection을 따로 쓴다.
+     */
+    @Override
+    public SessionKeyCursor openKeyCursor(String prefix) {
+        return new RedisKeyCursor(Collections.singletonList(jedisPool()), prefix);
+    }
+
+    private synchronized JedisPool jedisPool() {
+        if (jedisPool == null) {
+            JedisPoolConfig poolConfig = new JedisPoolConfig();
+            poolConfig.setMaxTotal(3);
+            jedisPool = new JedisPool(poolConfig, redisServer.getHostname(), redisServer.getPort(),
+                    redisServer.getTimeout(), getPassword(), redisServer.getDatabase());
+        }
+        return jedisPool;
+    }
+
+    /**
+     * 보내지 않은 명령 수 (모든 session connection)
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (RedisMultiplexedConnection connection : connections) {
+            depth += connection.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * connection 종료
+     */
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (expirationSubscriber != null) {
+                expirationSubscriber.shutdown();
+            }
+            if (jedisPool != null) {
+                jedisPool.destroy();
+            }
+        }
+        for (RedisMultiplexedConnection connection : connections) {
+            connection.close();
+        }
+        loginConnection.close();
+    }
+}
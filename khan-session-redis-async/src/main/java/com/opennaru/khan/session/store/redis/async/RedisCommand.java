@@ -0,0 +1,48 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis.async;
+
+import redis.clients.jedis.Protocol;
+
+/**
+ * connection에 쓸 Redis 명령 하나
+ *
+ * @since 1.3.0
+ */
+class RedisCommand {
+    final Protocol.Command command;
+    final byte[][] args;
+    final RedisFuture<?> future;
+    final int index;
+
+    /**
+     * socket에 쓴 시각 (System.nanoTime)
+     */
+    long sentAt;
+
+    RedisCommand(Protocol.Command command, byte[][] args, RedisFuture<?> future, int index) {
+        this.command = command;
+        this.args = args;
+        this.future = future;
+        this.index = index;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis.async;
+
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 하나 이상의 Redis 명령 응답을 기다리는 Future
+ *
+ * 한 Future의 명령들은 같은 connection에 연속으로 쓰여지고, 마지막 응답이 오면 완료된다.
+ * convert()는 reader thread가 아니라 get()을 호출한 thread에서 한 번만 실행된다.
+ * (unmarshalling이 다른 connection의 응답 처리를 막지 않고, 읽은 byte 수도 호출한 thread에 기록된다)
+ * 응답 중 하나라도 오류이면 ExecutionException.
+ *
+ * @since 1.3.0
+ */
+public class RedisFuture<T> implements Future<T> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private final Object[] replies;
+
+    /**
+     * reader thread만 변경한다.
+     */
+    private int received = 0;
+
+    private volatile T value;
+    private volatile Throwable error;
+
+    /**
+     * convert()를 실행했는지 (this로 동기화)
+     */
+    private boolean converted = false;
+
+    /**
+     * @param replyCount 기다릴 응답 수
+     */
+    public RedisFuture(int replyCount) {
+        this.replies = new Object[replyCount];
+    }
+
+    /**
+     * 명령 없이 끝난 Future (빈 batch 등)
+     *
+     * @param value
+     * @return
+     */
+    public static <T> RedisFuture<T> completed(T value) {
+        RedisFuture<T> future = new RedisFuture<T>(0);
+        future.value = value;
+        future.converted = true;
+        future.latch.countDown();
+        return future;
+    }
+
+    /**
+     * 응답으로 결과를 만든다. (기본 : 첫번째 응답)
+     *
+     * @param replies
+     * @return
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    protected T convert(Object[] replies) throws Exception {
+        return (T) replies[0];
+    }
+
+    int getReplyCount() {
+        return replies.length;
+    }
+
+    /**
+     * index번째 명령의 응답 (JedisDataException 이면 오류 응답)
+     */
+    void reply(int index, Object reply) {
+        replies[index] = reply;
+        if (++received == replies.length) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * 연결 오류 등으로 응답을 받을 수 없음
+     */
+    void fail(Throwable cause) {
+        if (latch.getCount() > 0) {
+            error = cause;
+            latch.countDown();
+        }
+    }
+
+    /**
+     * 응답으로 결과를 만든다. (get()을 호출한 thread)
+     */
+    private synchronized void convertReplies() {
+        if (converted) {
+            return;
+        }
+        converted = true;
+        for (Object reply : replies) {
+            if (reply instanceof JedisDataException) {
+                error = (JedisDataException) reply;
+                return;
+            }
+        }
+        try {
+            value = convert(replies);
+        } catch (Exception e) {
+            error = e;
+        }
+    }
+
+    /**
+     * 이미 보낸 명령은 취소할 수 없다.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException("redis reply timeout (" + unit.toMillis(timeout) + "ms)");
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (error == null) {
+            convertReplies();
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+}
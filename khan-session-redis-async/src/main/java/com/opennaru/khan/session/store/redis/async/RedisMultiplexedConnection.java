@@ -0,0 +1,314 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis.async;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.RedisInputStream;
+import redis.clients.util.RedisOutputStream;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 여러 요청 thread가 함께 쓰는 Redis connection
+ *
+ * 요청 thread는 명령을 queue에 넣고 바로 Future를 받는다.
+ * writer thread는 queue에 쌓인 명령을 한 번에 쓰고 flush 하며 (automatic pipelining),
+ * reader thread는 응답을 보낸 순서대로 Future에 전달한다.
+ * 연결이 끊어지면 응답을 기다리던 명령은 실패하고, 다음 명령에서 다시 연결한다.
+ * 응답이 timeout 보다 오래 오지 않으면 (half-open connection 등) 연결을 끊는다.
+ *
+ * @since 1.3.0
+ */
+public class RedisMultiplexedConnection {
+    private static Logger log = LoggerFactory.getLogger(RedisMultiplexedConnection.class);
+
+    private final String host;
+    private final int port;
+    private final int timeout;
+    private final String password;
+    private final int database;
+    private final int maxBatch;
+
+    private final BlockingQueue<RedisCommand> writeQueue = new LinkedBlockingQueue<RedisCommand>();
+
+    /**
+     * socket / 응답 대기 queue 변경은 lock 안에서
+     */
+    private final Object lock = new Object();
+    private Socket socket;
+    private RedisOutputStream outputStream;
+    private BlockingQueue<RedisCommand> pending;
+
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor
+     *
+     * @param name     thread 이름
+     * @param host
+     * @param port
+     * @param timeout  connect / reply timeout (ms)
+     * @param password null이면 AUTH 하지 않음
+     * @param database
+     * @param maxBatch 한 번에 쓸 최대 명령 수
+     */
+    public RedisMultiplexedConnection(String name, String host, int port, int timeout, String password,
+                                      int database, int maxBatch) {
+        this.host = host;
+        this.port = port;
+        this.timeout = timeout;
+        this.password = password;
+        this.database = database;
+        this.maxBatch = maxBatch;
+
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, name + "-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Future의 명령들을 연속으로 보낸다.
+     *
+     * @param future
+     * @param commands 명령 수 = future.getReplyCount()
+     * @return future
+     */
+    public <T> RedisFuture<T> send(RedisFuture<T> future, List<Object[]> commands) {
+        if (closed) {
+            future.fail(new JedisConnectionException("connection closed"));
+            return future;
+        }
+        for (int i = 0; i < commands.size(); i++) {
+            Object[] command = commands.get(i);
+            writeQueue.add(new RedisCommand((Protocol.Command) command[0], (byte[][]) command[1], future, i));
+        }
+        return future;
+    }
+
+    /**
+     * 명령 하나를 보낸다.
+     */
+    public <T> RedisFuture<T> send(RedisFuture<T> future, Protocol.Command command, byte[]... args) {
+        List<Object[]> commands = new ArrayList<Object[]>(1);
+        commands.add(new Object[]{command, args});
+        return send(future, commands);
+    }
+
+    private void writeLoop() {
+        List<RedisCommand> batch = new ArrayList<RedisCommand>(maxBatch);
+        while (!closed) {
+            try {
+                batch.add(writeQueue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            writeQueue.drainTo(batch, maxBatch - 1);
+
+            synchronized (lock) {
+                int written = 0;
+                try {
+                    connectIfNeeded();
+                    long now = System.nanoTime();
+                    for (RedisCommand command : batch) {
+                        command.sentAt = now;
+                        pending.add(command);
+                        written++;
+                        Protocol.sendCommand(outputStream, command.command, command.args);
+                    }
+                    outputStream.flush();
+                } catch (Exception e) {
+                    log.warn("redis " + host + ":" + port + " write failed. (" + e.getMessage() + ")");
+                    for (int i = written; i < batch.size(); i++) {
+                        batch.get(i).future.fail(e);
+                    }
+                    disconnect(e);
+                }
+            }
+            batch.clear();
+        }
+        failAll(new JedisConnectionException("connection closed"));
+    }
+
+    /**
+     * 연결, AUTH, SELECT 후 이 socket의 reader thread를 시작한다. (lock 안에서 호출)
+     */
+    private void connectIfNeeded() throws IOException {
+        if (socket != null) {
+            return;
+        }
+
+        Socket newSocket = new Socket();
+        newSocket.setReuseAddress(true);
+        newSocket.setKeepAlive(true);
+        newSocket.setTcpNoDelay(true);
+        newSocket.connect(new InetSocketAddress(host, port), timeout);
+        newSocket.setSoTimeout(timeout);
+
+        RedisOutputStream out = new RedisOutputStream(newSocket.getOutputStream());
+        final RedisInputStream in = new RedisInputStream(newSocket.getInputStream());
+        try {
+            if (password != null) {
+                Protocol.sendCommand(out, Protocol.Command.AUTH, password.getBytes(Protocol.CHARSET));
+                out.flush();
+                Protocol.read(in);
+            }
+            if (database != 0) {
+                Protocol.sendCommand(out, Protocol.Command.SELECT, Protocol.toByteArray(database));
+                out.flush();
+                Protocol.read(in);
+            }
+        } catch (RuntimeException e) {
+            newSocket.close();
+            throw e;
+        }
+
+        final Socket readerSocket = newSocket;
+        final BlockingQueue<RedisCommand> readerPending = new LinkedBlockingQueue<RedisCommand>();
+        socket = newSocket;
+        outputStream = out;
+        pending = readerPending;
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLoop(readerSocket, in, readerPending);
+            }
+        }, writer.getName().replace("-writer", "-reader"));
+        reader.setDaemon(true);
+        reader.start();
+
+        if (log.isDebugEnabled()) {
+            log.debug("redis " + host + ":" + port + "/" + database + " connected.");
+        }
+    }
+
+    private void readLoop(Socket readerSocket, RedisInputStream in, BlockingQueue<RedisCommand> readerPending) {
+        while (true) {
+            Object reply;
+            try {
+                reply = Protocol.read(in);
+            } catch (JedisConnectionException e) {
+                if (e.getCause() instanceof SocketTimeoutException && !isOverdue(readerPending)) {
+                    // 응답을 기다리는 명령이 없거나 아직 timeout 전
+                    continue;
+                }
+                if (e.getCause() instanceof SocketTimeoutException) {
+                    log.warn("redis " + host + ":" + port + " reply timeout (" + timeout + "ms). disconnect.");
+                }
+                synchronized (lock) {
+                    if (socket == readerSocket) {
+                        disconnect(e);
+                    }
+                }
+                failPending(readerPending, e);
+                return;
+            } catch (JedisDataException e) {
+                // 오류 응답 (-ERR ...)
+                reply = e;
+            }
+
+            RedisCommand command = readerPending.poll();
+            if (command == null) {
+                log.warn("redis " + host + ":" + port + " unexpected reply.");
+                continue;
+            }
+            command.future.reply(command.index, reply);
+        }
+    }
+
+    /**
+     * 가장 오래 기다린 명령이 timeout을 넘었는지
+     * (timeout 동안 받은 응답이 없으므로 읽다 만 응답은 없다)
+     */
+    private boolean isOverdue(BlockingQueue<RedisCommand> readerPending) {
+        RedisCommand oldest = readerPending.peek();
+        return oldest != null
+                && System.nanoTime() - oldest.sentAt >= TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * socket을 닫고 응답 대기 명령을 실패시킨다. (lock 안에서 호출)
+     */
+    private void disconnect(Exception cause) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        socket = null;
+        outputStream = null;
+        failPending(pending, cause);
+        pending = null;
+    }
+
+    private static void failPending(BlockingQueue<RedisCommand> queue, Exception cause) {
+        RedisCommand command;
+        while ((command = queue.poll()) != null) {
+            command.future.fail(cause);
+        }
+    }
+
+    private void failAll(Exception cause) {
+        synchronized (lock) {
+            disconnect(cause);
+        }
+        failPending(writeQueue, cause);
+    }
+
+    /**
+     * 보내지 않은 명령 수
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return writeQueue.size();
+    }
+
+    /**
+     * connection 종료
+     */
+    public void close() {
+        closed = true;
+        writer.interrupt();
+    }
+}
@@ -22,8 +22,9 @@
 package com.opennaru.khan.session.filter;
 
 import com.opennaru.khan.session.store.SessionCache;
-import com.opennaru.khan.session.store.SessionStoreImpl;
 import com.opennaru.khan.session.store.redis.RedisClientImpl;
+import com.opennaru.khan.session.store.redis.RedisClusterClientImpl;
+import com.opennaru.khan.session.store.redis.RedisConfigurationProperties;
 import com.opennaru.khan.session.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,10 +71,19 @@ public class RedisSessionFilter extends KhanSessionFilter implements Filter {
         try {
             SessionCache sessionCache = null;
 
-            sessionCache = new RedisClientImpl();
+            RedisConfigurationProperties redisProp = new RedisConfigurationProperties();
+            redisProp.loadProperties(configFileName);
+
+            if (redisProp.getClusterEnabled()) {
+                // 한 세션의 키들이 같은 slot에 있어야 multi-key 명령을 쓸 수 있다.
+                khanSessionConfig.setEnableKeyHashTag(true);
+                sessionCache = new RedisClusterClientImpl();
+            } else {
+                sessionCache = new RedisClientImpl();
+            }
             sessionCache.initialize(configFileName, "", "");
 
-            sessionStore = new SessionStoreImpl(sessionCache);
+            sessionStore = createSessionStore(sessionCache);
             sessionManager.setSessionStore(sessionStore);
         } catch (Exception e) {
             throw new IllegalStateException("Failed", e);
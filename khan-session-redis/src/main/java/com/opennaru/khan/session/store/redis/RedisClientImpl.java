@@ -21,7 +21,13 @@
  */
 package com.opennaru.khan.session.store.redis;
 
+import com.opennaru.khan.session.store.SerializedSizeRecorder;
 import com.opennaru.khan.session.store.SessionCache;
+import com.opennaru.khan.session.store.SessionCounter;
+import com.opennaru.khan.session.store.SessionExpirationListener;
+import com.opennaru.khan.session.store.SessionExpirationNotifier;
+import com.opennaru.khan.session.store.SessionKeyCursor;
+import com.opennaru.khan.session.store.SessionKeyScanner;
 import com.opennaru.khan.session.store.marshaller.KhanMarshaller;
 import com.opennaru.khan.session.util.ClassUtil;
 import com.opennaru.khan.session.util.StringUtils;
@@ -30,8 +36,21 @@ import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.Pool;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Session Store using Jedis Client
@@ -39,7 +58,7 @@ import java.io.IOException;
  * @since 1.1.0
  * @author Junshik Jeon(service@opennaru.com, nameislocus@gmail.com)
  */
-public class RedisClientImpl implements SessionCache {
+public class RedisClientImpl implements SessionCache, SessionCounter, SessionExpirationNotifier, SessionKeyScanner {
 
     private Logger log = LoggerFactory.getLogger(this.getClass());
 
@@ -49,9 +68,38 @@ public class RedisClientImpl implements SessionCache {
     private RedisServer redisServer;
 
     /**
-     * Redis Pool
+     * Redis Pool (session database)
      */
-    private JedisPool pool = null;
+    private Pool<Jedis> pool = null;
+
+    /**
+     * Redis Pool (login database : database + 1)
+     */
+    private Pool<Jedis> loginPool = null;
+
+    /**
+     * replica read routing (redis.client.read.policy=replica | replica-ryw)
+     */
+    private RedisReplicaRouter replicaRouter = null;
+
+    /**
+     * Group commit writer (redis.client.groupCommit.enabled=true)
+     */
+    private RedisGroupCommitWriter groupCommitWriter = null;
+
+    /**
+     * expired key notification (redis.client.expirationEvents.enabled=true)
+     */
+    private RedisExpirationSubscriber expirationSubscriber = null;
+
+    /**
+     * Lua scripts (EVALSHA)
+     */
+    private RedisScript loadSessionScript = new RedisScript(RedisScript.LOAD_SESSION);
+    private RedisScript saveSessionScript = new RedisScript(RedisScript.SAVE_SESSION);
+    private RedisScript addToCounterScript = new RedisScript(RedisScript.ADD_TO_COUNTER);
+    private RedisScript countUnionScript = new RedisScript(RedisScript.COUNT_UNION);
+    private boolean scriptsEnabled = false;
 
     /**
      * Marshaller
@@ -114,15 +162,28 @@ public class RedisClientImpl implements SessionCache {
 //        pool = new JedisPool("redis://:password@localhost:6379/1");
         redisServer = redisProp.getRedisServer();
 
-        if( StringUtils.isNullOrEmpty( redisServer.getPassword() ) ) {
-            pool = new JedisPool(
-                jedisPoolConfig, redisServer.getHostname(), redisServer.getPort(), redisServer.getTimeout()
-            );
-        } else {
-            pool = new JedisPool(
-                jedisPoolConfig, redisServer.getHostname(), redisServer.getPort(), redisServer.getTimeout(),
-                redisServer.getPassword()
-            );
+        // 각 pool의 connection은 접속할 때 database를 선택한다 (요청마다 SELECT 하지 않음)
+        pool = createPool(jedisPoolConfig, redisServer.getDatabase());
+        loginPool = createPool(jedisPoolConfig, redisServer.getDatabase() + 1);
+
+        if( redisProp.getScriptsEnabled() ) {
+            registerScripts();
+        }
+
+        RedisReadPolicy readPolicy = redisProp.getReadPolicy();
+        if( readPolicy != RedisReadPolicy.MASTER ) {
+            replicaRouter = new RedisReplicaRouter(pool, readPolicy,
+                    redisProp.getReadReplicas(), redisProp.getSentinelMaster(), redisProp.getSentinelNodes(),
+                    jedisPoolConfig, redisServer.getTimeout(), getPassword(), redisServer.getDatabase(),
+                    redisProp.getReadMaxLagMillis(), redisProp.getReadCheckIntervalMillis());
+        }
+
+        if( redisProp.getGroupCommitEnabled() ) {
+            groupCommitWriter = new RedisGroupCommitWriter(pool,
+                    redisProp.getGroupCommitConnections(),
+                    redisProp.getGroupCommitWindowMicros(),
+                    redisProp.getGroupCommitMaxBatch(),
+                    redisServer.getTimeout());
         }
 
         String marshallerClass = redisProp.getMarshaller();
@@ -131,11 +192,51 @@ public class RedisClientImpl implements SessionCache {
         waitForConnectionReady();
     }
 
+    /**
+     * database에 연결되는 pool 생성
+     * redis.client.sentinel.master 가 있으면 sentinel이 알려주는 master에 연결한다.
+     *
+     * @param jedisPoolConfig
+     * @param database
+     * @return
+     */
+    private Pool<Jedis> createPool(JedisPoolConfig jedisPoolConfig, int database) {
+        String sentinelMaster = redisProp.getSentinelMaster();
+        if( sentinelMaster != null ) {
+            return new JedisSentinelPool(sentinelMaster, redisProp.getSentinelNodes(), jedisPoolConfig,
+                    redisServer.getTimeout(), getPassword(), database);
+        }
+        return new JedisPool(
+            jedisPoolConfig, redisServer.getHostname(), redisServer.getPort(), redisServer.getTimeout(),
+            getPassword(), database
+        );
+    }
+
+    private String getPassword() {
+        return StringUtils.isNullOrEmpty( redisServer.getPassword() ) ? null : redisServer.getPassword();
+    }
+
+    /**
+     * Lua script 등록 (Redis 2.6 이상)
+     * 등록에 실패하면 MGET/pipeline으로 동작한다.
+     */
+    private void registerScripts() {
+        Jedis jedis = pool.getResource();
+        try {
+            loadSessionScript.load(jedis);
+            saveSessionScript.load(jedis);
+            scriptsEnabled = true;
+        } catch (JedisDataException e) {
+            log.warn("Redis Lua scripts are not available. (" + e.getMessage() + ")");
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
     @Override
     public <T> boolean contains(String key) {
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase());
             return jedis.exists(key);
         } finally {
             pool.returnResource(jedis);
@@ -143,21 +244,41 @@ public class RedisClientImpl implements SessionCache {
     }
 
 
+    /**
+     * marshalling 후 byte 수를 기록 (메모리 통계)
+     */
+    private byte[] marshal(Object value) throws IOException {
+        byte[] bytes = marshaller.objectToBytes(value);
+        SerializedSizeRecorder.record(bytes.length);
+        return bytes;
+    }
+
+    /**
+     * unmarshalling 하고 byte 수를 기록 (SessionCache 통계)
+     */
+    private Object unmarshal(byte[] bytes) throws IOException {
+        if (bytes != null) {
+            SerializedSizeRecorder.recordRead(bytes.length);
+        }
+        return marshaller.objectFromByteBuffer(bytes);
+    }
+
     @Override
     public <T> void put(String key, T value, long secondsToExpire)
             throws IOException {
+        if( groupCommitWriter != null ) {
+            groupCommitWriter.setex(key.getBytes(), marshal(value), (int) secondsToExpire);
+            recordWrite(key);
+            return;
+        }
+
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase());
-
-            if (jedis.exists(key)) {
-                jedis.set(key.getBytes(), marshaller.objectToBytes(value), "XX".getBytes(), "EX".getBytes(), secondsToExpire);
-            } else {
-                jedis.set(key.getBytes(), marshaller.objectToBytes(value), "NX".getBytes(), "EX".getBytes(), secondsToExpire);
-            }
+            jedis.setex(key.getBytes(), (int) secondsToExpire, marshal(value));
         } finally {
             pool.returnResource(jedis);
         }
+        recordWrite(key);
         //cache.put(key, value, secondsToExpire, TimeUnit.SECONDS);
         //logger.debug("@@@@@@@@@@@@@ cache.size=" + cache.size());
     }
@@ -166,11 +287,13 @@ public class RedisClientImpl implements SessionCache {
     @SuppressWarnings("unchecked")
     public <T> T get(String key) throws IOException {
         //logger.debug("@@@@@@@@@@@@@ cache.size=" + cache.size());
+        if( replicaRouter != null ) {
+            return (T) unmarshal(read(new String[]{key}).get(0));
+        }
+
         Jedis jedis = pool.getResource();
         try {
-
-            jedis.select(redisServer.getDatabase());
-            return (T) marshaller.objectFromByteBuffer(jedis.get(key.getBytes()));
+            return (T) unmarshal(jedis.get(key.getBytes()));
         } finally {
             pool.returnResource(jedis);
         }
@@ -181,90 +304,445 @@ public class RedisClientImpl implements SessionCache {
     public <T> void delete(String key) throws IOException {
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase());
             jedis.del(key);
         } finally {
             pool.returnResource(jedis);
         }
+        recordWrite(key);
 //        cache.remove(key);
         //logger.debug("@@@@@@@@@@@@@ cache.size=" + cache.size());
     }
 
+    /**
+     * MGET으로 여러 키의 값을 가져온다.
+     */
     @Override
-    public int size() throws IOException {
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> getAll(Collection<String> keys) throws IOException {
+        Map<String, T> values = new HashMap<String, T>();
+        if (keys.isEmpty()) {
+            return values;
+        }
+
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        List<byte[]> rawValues = read(keyArray);
+
+        for (int i = 0; i < keyArray.length; i++) {
+            byte[] rawValue = rawValues.get(i);
+            if (rawValue != null) {
+                values.put(keyArray[i], (T) unmarshal(rawValue));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * MGET (replica read policy 이면 replica에서 읽고, replica에 없는 키는 master에서 다시 읽는다)
+     *
+     * @param keyArray
+     * @return
+     */
+    private List<byte[]> read(String[] keyArray) {
+        byte[][] rawKeys = toBytes(keyArray);
+        List<byte[]> rawValues = null;
+        if (replicaRouter != null) {
+            rawValues = replicaRouter.mget(Arrays.asList(keyArray), rawKeys);
+        }
+
+        List<Integer> missing = new ArrayList<Integer>();
+        if (rawValues == null) {
+            for (int i = 0; i < rawKeys.length; i++) {
+                missing.add(i);
+            }
+            rawValues = new ArrayList<byte[]>(Collections.<byte[]>nCopies(rawKeys.length, null));
+        } else {
+            rawValues = new ArrayList<byte[]>(rawValues);
+            for (int i = 0; i < rawKeys.length; i++) {
+                if (rawValues.get(i) == null) {
+                    // 다른 서버에서 방금 만든 세션이 아직 복제되지 않았을 수 있다.
+                    missing.add(i);
+                    replicaRouter.replicaMissed();
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return rawValues;
+        }
+
+        byte[][] missingKeys = new byte[missing.size()][];
+        for (int i = 0; i < missingKeys.length; i++) {
+            missingKeys[i] = rawKeys[missing.get(i)];
+        }
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase());
-            if( log.isTraceEnabled() )
-                log.trace("sizeof=" + jedis.dbSize());
+            List<byte[]> masterValues = jedis.mget(missingKeys);
+            for (int i = 0; i < missingKeys.length; i++) {
+                rawValues.set(missing.get(i), masterValues.get(i));
+            }
+        } finally {
+            pool.returnResource(jedis);
+        }
+        return rawValues;
+    }
 
-            return (jedis.dbSize()).intValue();
+    /**
+     * replica에서 값을 읽고 master에서 만료 시간을 연장한다.
+     * 모든 키가 replica에 있으면 EXPIRE는 응답을 기다리지 않고 보낸다. (master round trip 없음)
+     * replica에 없던 키가 있으면 같은 pipeline에서 master GET, master에서 지워진 키(EXPIRE=0)는 버린다.
+     *
+     * @param keyArray
+     * @param rawKeys
+     * @param secondsToExpire
+     * @return null이면 replica를 사용할 수 없음
+     */
+    private List<byte[]> loadSessionFromReplica(String[] keyArray, byte[][] rawKeys, long secondsToExpire) {
+        List<byte[]> replicaValues = replicaRouter.mget(Arrays.asList(keyArray), rawKeys);
+        if (replicaValues == null) {
+            return null;
+        }
+
+        if (!replicaValues.contains(null)) {
+            replicaRouter.expireAsync(rawKeys, (int) secondsToExpire);
+            return replicaValues;
+        }
+
+        List<Response<byte[]>> gets = new ArrayList<Response<byte[]>>(rawKeys.length);
+        List<Response<Long>> expires = new ArrayList<Response<Long>>(rawKeys.length);
+        Jedis jedis = pool.getResource();
+        try {
+            Pipeline pipeline = jedis.pipelined();
+            for (int i = 0; i < rawKeys.length; i++) {
+                gets.add(replicaValues.get(i) == null ? pipeline.get(rawKeys[i]) : null);
+                expires.add(pipeline.expire(rawKeys[i], (int) secondsToExpire));
+            }
+            pipeline.sync();
         } finally {
             pool.returnResource(jedis);
         }
+
+        List<byte[]> rawValues = new ArrayList<byte[]>(rawKeys.length);
+        for (int i = 0; i < rawKeys.length; i++) {
+            if (expires.get(i).get() == 0L) {
+                rawValues.add(null);
+            } else if (gets.get(i) != null) {
+                replicaRouter.replicaMissed();
+                rawValues.add(gets.get(i).get());
+            } else {
+                rawValues.add(replicaValues.get(i));
+            }
+        }
+        return rawValues;
     }
 
+    private void recordWrite(String key) {
+        if (replicaRouter != null) {
+            replicaRouter.recordWrite(key);
+        }
+    }
+
+    /**
+     * 세션 키들을 읽고 만료 시간을 연장한다.
+     * Lua script로 한 번에 실행 (script를 쓸 수 없으면 MGET + EXPIRE pipeline)
+     */
     @Override
-    public <T> boolean loginContains(String key) throws IOException {
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> loadSession(Collection<String> keys, long secondsToExpire) throws IOException {
+        Map<String, T> values = new HashMap<String, T>();
+        if (keys.isEmpty()) {
+            return values;
+        }
+
+        String[] keyArray = keys.toArray(new String[keys.size()]);
+        byte[][] rawKeys = toBytes(keyArray);
+        List<byte[]> rawValues = null;
+        if (replicaRouter != null) {
+            rawValues = loadSessionFromReplica(keyArray, rawKeys, secondsToExpire);
+        }
+
+        if (rawValues == null) {
+            rawValues = loadSessionFromMaster(rawKeys, secondsToExpire);
+        }
+
+        for (int i = 0; i < keyArray.length; i++) {
+            byte[] rawValue = rawValues.get(i);
+            if (rawValue != null) {
+                values.put(keyArray[i], (T) unmarshal(rawValue));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * master에서 세션 키들을 읽고 만료 시간을 연장한다.
+     */
+    @SuppressWarnings("unchecked")
+    private List<byte[]> loadSessionFromMaster(byte[][] rawKeys, long secondsToExpire) {
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase()+1);
-            return jedis.exists(key);
+            if (scriptsEnabled) {
+                return (List<byte[]>) loadSessionScript.eval(jedis, Arrays.asList(rawKeys),
+                        Collections.singletonList(String.valueOf(secondsToExpire).getBytes()));
+            }
+
+            Pipeline pipeline = jedis.pipelined();
+            Response<List<byte[]>> response = pipeline.mget(rawKeys);
+            for (byte[] rawKey : rawKeys) {
+                pipeline.expire(rawKey, (int) secondsToExpire);
+            }
+            pipeline.sync();
+            return response.get();
         } finally {
             pool.returnResource(jedis);
         }
     }
 
+    /**
+     * 여러 키를 SETEX 한다.
+     * Lua script로 한 번에 실행 (script를 쓸 수 없으면 pipeline)
+     * group commit을 사용하면 MULTI/EXEC로 묶어서 다른 thread의 write와 함께 보낸다.
+     */
     @Override
-    public <T> void loginPut(String key, T value, long secondsToExpire)
-            throws IOException {
+    public <T> void putAll(Map<String, T> entries, long secondsToExpire) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        Map<byte[], byte[]> rawEntries = new LinkedHashMap<byte[], byte[]>();
+        for (Map.Entry<String, T> entry : entries.entrySet()) {
+            rawEntries.put(entry.getKey().getBytes(), marshal(entry.getValue()));
+        }
+
+        if (groupCommitWriter != null) {
+            groupCommitWriter.setexAll(rawEntries, (int) secondsToExpire);
+            if (replicaRouter != null) {
+                replicaRouter.recordWrites(entries.keySet());
+            }
+            return;
+        }
+
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase()+1);
-            if (jedis.exists(key)) {
-                jedis.set(key.getBytes(), marshaller.objectToBytes(value), "XX".getBytes(), "EX".getBytes(), secondsToExpire);
+            if (scriptsEnabled) {
+                List<byte[]> args = new ArrayList<byte[]>(rawEntries.size() + 1);
+                args.add(String.valueOf(secondsToExpire).getBytes());
+                args.addAll(rawEntries.values());
+                saveSessionScript.eval(jedis, new ArrayList<byte[]>(rawEntries.keySet()), args);
             } else {
-                jedis.set(key.getBytes(), marshaller.objectToBytes(value), "NX".getBytes(), "EX".getBytes(), secondsToExpire);
+                Pipeline pipeline = jedis.pipelined();
+                for (Map.Entry<byte[], byte[]> entry : rawEntries.entrySet()) {
+                    pipeline.setex(entry.getKey(), (int) secondsToExpire, entry.getValue());
+                }
+                pipeline.sync();
             }
         } finally {
             pool.returnResource(jedis);
         }
+        if (replicaRouter != null) {
+            replicaRouter.recordWrites(entries.keySet());
+        }
     }
 
+    /**
+     * DEL 한 번으로 여러 키를 삭제한다.
+     */
     @Override
-    public <T> T loginGet(String key) throws IOException {
+    public void deleteAll(Collection<String> keys) throws IOException {
+        if (keys.isEmpty()) {
+            return;
+        }
+
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase()+1);
-            return (T) marshaller.objectFromByteBuffer(jedis.get(key.getBytes()));
+            jedis.del(toBytes(keys.toArray(new String[keys.size()])));
         } finally {
             pool.returnResource(jedis);
         }
+        if (replicaRouter != null) {
+            replicaRouter.recordWrites(keys);
+        }
+    }
+
+    private static byte[][] toBytes(String[] keys) {
+        byte[][] rawKeys = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            rawKeys[i] = keys[i].getBytes();
+        }
+        return rawKeys;
     }
 
     @Override
-    public <T> void loginDelete(String key) throws IOException {
+    public boolean touch(String key, long secondsToExpire) throws IOException {
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase()+1);
-            jedis.del(key.getBytes());
+            return jedis.expire(key.getBytes(), (int) secondsToExpire) == 1L;
         } finally {
             pool.returnResource(jedis);
         }
     }
 
     @Override
-    public int loginSize() throws IOException {
+    public int size() throws IOException {
         Jedis jedis = pool.getResource();
         try {
-            jedis.select(redisServer.getDatabase()+1);
+            Long dbSize = jedis.dbSize();
             if( log.isTraceEnabled() )
-                log.trace("sizeof=" + jedis.dbSize());
+                log.trace("sizeof=" + dbSize);
 
-            return (jedis.dbSize()).intValue();
+            return dbSize.intValue();
         } finally {
             pool.returnResource(jedis);
         }
     }
 
-}
\ No newline at end of file
+    @Override
+    public <T> boolean loginContains(String key) throws IOException {
+        Jedis jedis = loginPool.getResource();
+        try {
+            return jedis.exists(key);
+        } finally {
+            loginPool.returnResource(jedis);
+        }
+    }
+
+    @Override
+    public <T> void loginPut(String key, T value, long secondsToExpire)
+            throws IOException {
+        Jedis jedis = loginPool.getResource();
+        try {
+            jedis.setex(key.getBytes(), (int) secondsToExpire, marshal(value));
+        } finally {
+            loginPool.returnResource(jedis);
+        }
+    }
+
+    @Override
+    public <T> T loginGet(String key) throws IOException {
+        Jedis jedis = loginPool.getResource();
+        try {
+            return (T) unmarshal(jedis.get(key.getBytes()));
+        } finally {
+            loginPool.returnResource(jedis);
+        }
+    }
+
+    @Override
+    public <T> void loginDelete(String key) throws IOException {
+        Jedis jedis = loginPool.getResource();
+        try {
+            jedis.del(key.getBytes());
+        } finally {
+            loginPool.returnResource(jedis);
+        }
+    }
+
+    @Override
+    public int loginSize() throws IOException {
+        Jedis jedis = loginPool.getResource();
+        try {
+            Long dbSize = jedis.dbSize();
+            if( log.isTraceEnabled() )
+                log.trace("sizeof=" + dbSize);
+
+            return dbSize.intValue();
+        } finally {
+            loginPool.returnResource(jedis);
+        }
+    }
+
+    /**
+     * PFADD + EXPIRE (Lua script, redis 2.8.9+)
+     */
+    @Override
+    public void addToCounter(String counterKey, Collection<String> members, long secondsToExpire) throws IOException {
+        if (members.isEmpty()) {
+            return;
+        }
+        List<byte[]> keys = Collections.singletonList(counterKey.getBytes());
+        Jedis jedis = pool.getResource();
+        try {
+            for (List<byte[]> args : RedisScript.counterArgs(members, secondsToExpire)) {
+                addToCounterScript.eval(jedis, keys, args);
+            }
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    /**
+     * PFCOUNT (Lua script, redis 2.8.9+)
+     */
+    @Override
+    public long countUnion(List<String> counterKeys) throws IOException {
+        Jedis jedis = pool.getResource();
+        try {
+            return (Long) countUnionScript.eval(jedis, Arrays.asList(toBytes(counterKeys.toArray(new String[counterKeys.size()]))),
+                    Collections.<byte[]>emptyList());
+        } finally {
+            pool.returnResource(jedis);
+        }
+    }
+
+    /**
+     * login database에는 login 키만 있으므로 DBSIZE가 정확하다.
+     */
+    @Override
+    public boolean isLoginSizeExact() {
+        return true;
+    }
+
+    /**
+     * keyspace notification (expired)을 구독한다.
+     */
+    @Override
+    public synchronized boolean addExpirationListener(SessionExpirationListener listener) {
+        if (!redisProp.getExpirationEventsEnabled()) {
+            return false;
+        }
+        if (expirationSubscriber == null) {
+            expirationSubscriber = new RedisExpirationSubscriber(Collections.singletonList(pool),
+                    redisServer.getDatabase(), redisProp.getExpirationEventsConfigureServer());
+        }
+        return expirationSubscriber.addListener(listener);
+    }
+
+    @Override
+    public synchronized void removeExpirationListener(SessionExpirationListener listener) {
+        if (expirationSubscriber != null) {
+            expirationSubscriber.removeListener(listener);
+        }
+    }
+
+    /**
+     * group commit writer, replica router, expiration 구독, pool을 종료한다.
+     * (writer / router를 먼저 멈춰야 보내고 있는 명령이 pool을 쓸 수 있다)
+     */
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (expirationSubscriber != null) {
+                expirationSubscriber.shutdown();
+            }
+        }
+        if (groupCommitWriter != null) {
+            groupCommitWriter.shutdown();
+        }
+        if (replicaRouter != null) {
+            replicaRouter.shutdown();
+        }
+        if (pool != null) {
+            pool.destroy();
+        }
+        if (loginPool != null) {
+            loginPool.destroy();
+        }
+    }
+
+    /**
+     * session database를 SCAN 한다.
+     */
+    @Override
+    public SessionKeyCursor openKeyCursor(String prefix) {
+        return new RedisKeyCursor(Collections.singletonList(pool), prefix);
+    }
+
+}
@@ -0,0 +1,638 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis;
+
+import com.opennaru.khan.session.store.SerializedSizeRecorder;
+import com.opennaru.khan.session.store.SessionCache;
+import com.opennaru.khan.session.store.SessionCounter;
+import com.opennaru.khan.session.store.SessionExpirationListener;
+import com.opennaru.khan.session.store.SessionExpirationNotifier;
+import com.opennaru.khan.session.store.SessionKeyCursor;
+import com.opennaru.khan.session.store.SessionKeyScanner;
+import com.opennaru.khan.session.store.marshaller.KhanMarshaller;
+import com.opennaru.khan.session.util.ClassUtil;
+import com.opennaru.khan.session.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisAskDataException;
+import redis.clients.jedis.exceptions.JedisClusterMaxRedirectionsException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session Store using Redis Cluster
+ *
+ * 세션 키는 {sessionId} hash tag를 가지므로 한 세션의 키들은 같은 slot에 있고
+ * MGET / DEL / Lua script 같은 multi-key 명령을 그대로 쓸 수 있다.
+ * 여러 세션의 키를 다루는 batch 요청은 slot별로 나누어 실행한다.
+ * MOVED 응답을 받으면 topology를 다시 읽고, ASK 응답은 ASKING 후 대상 노드에서 다시 실행한다.
+ * pipeline으로 보낸 명령의 MOVED / ASK 응답도 같은 방식으로 처리한다.
+ *
+ * Redis Cluster는 database 0 하나만 사용하므로 login 키도 세션 키와 같은 keyspace에 저장된다.
+ *
+ * @since 1.1.0
+ */
+public class RedisClusterClientImpl implements SessionCache, SessionCounter, SessionExpirationNotifier, SessionKeyScanner {
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * slot → node pool
+     */
+    private RedisClusterConnectionHandler connectionHandler = null;
+
+    private int maxRedirections;
+
+    /**
+     * Lua scripts (EVALSHA)
+     */
+    private RedisScript loadSessionScript = new RedisScript(RedisScript.LOAD_SESSION);
+    private RedisScript saveSessionScript = new RedisScript(RedisScript.SAVE_SESSION);
+    private boolean scriptsEnabled = false;
+
+    /**
+     * expired key notification (master 마다 구독)
+     */
+    private RedisExpirationSubscriber expirationSubscriber = null;
+
+    /**
+     * 세션 카운터 Lua scripts (EVALSHA)
+     */
+    private RedisScript addToCounterScript = new RedisScript(RedisScript.ADD_TO_COUNTER);
+    private RedisScript countUnionScript = new RedisScript(RedisScript.COUNT_UNION);
+
+    /**
+     * Marshaller
+     */
+    private KhanMarshaller marshaller;
+
+    private RedisConfigurationProperties redisProp;
+
+    /**
+     * Default Constructor
+     */
+    public RedisClusterClientImpl() {
+
+    }
+
+    /**
+     * 초기화되어 있는지 체크
+     *
+     * @return
+     */
+    @Override
+    public boolean isInitialized() {
+        return connectionHandler != null;
+    }
+
+    /**
+     * 초기화
+     *
+     * @param configFile
+     * @param cacheName
+     * @param loginCacheName
+     * @throws java.io.IOException
+     */
+    @Override
+    public void initialize(String configFile, String cacheName, String loginCacheName)
+            throws IOException {
+        StringUtils.isNotNull("configFile", configFile);
+
+        redisProp = new RedisConfigurationProperties();
+        redisProp.loadProperties(configFile);
+
+        JedisPoolConfig jedisPoolConfig = new JedisPoolConfig();
+        jedisPoolConfig.setMaxTotal(redisProp.getPoolMaxTotal());
+        jedisPoolConfig.setMaxIdle(redisProp.getPoolMaxIdle());
+        jedisPoolConfig.setMinIdle(redisProp.getPoolMinIdle());
+        jedisPoolConfig.setTestWhileIdle(redisProp.getPoolTestWhileIdle());
+        jedisPoolConfig.setJmxEnabled(redisProp.getPoolJMXEnabled());
+        jedisPoolConfig.setTestOnBorrow(redisProp.getPoolTestOnBorrow());
+
+        RedisServer redisServer = redisProp.getRedisServer();
+        String password = StringUtils.isNullOrEmpty( redisServer.getPassword() ) ? null : redisServer.getPassword();
+
+        connectionHandler = new RedisClusterConnectionHandler(redisProp.getClusterNodes(), jedisPoolConfig,
+                redisServer.getTimeout(), password);
+        maxRedirections = redisProp.getClusterMaxRedirections();
+
+        scriptsEnabled = redisProp.getScriptsEnabled();
+
+        String marshallerClass = redisProp.getMarshaller();
+        marshaller = (KhanMarshaller)ClassUtil.getInstance(marshallerClass, this.getClass().getClassLoader());
+    }
+
+    /**
+     * slot을 담당하는 노드에서 실행되는 명령
+     */
+    private abstract static class ClusterCommand<T> {
+        /**
+         * ASK 응답 후 대상 노드에서 실행 중인지
+         * (ASKING은 바로 다음 명령 하나에만 적용되므로 pipeline은 명령마다 ASKING을 보내야 한다)
+         */
+        boolean asking;
+
+        abstract T execute(Jedis jedis);
+    }
+
+    /**
+     * pipeline 응답을 꺼낸다.
+     * Jedis의 Response.get()은 MOVED / ASK 오류를 JedisDataException으로 감싸서 던지므로
+     * 원래의 redirection 예외를 다시 던져 run()에서 처리되게 한다.
+     *
+     * @param response
+     * @return
+     */
+    private static <T> T get(Response<T> response) {
+        try {
+            return response.get();
+        } catch (JedisDataException e) {
+            if (e.getCause() instanceof JedisRedirectionException) {
+                throw (JedisRedirectionException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * slot의 노드에서 명령을 실행한다.
+     * MOVED : slot cache를 갱신하고 새 노드에서 다시 실행
+     * ASK : 대상 노드에 ASKING을 보내고 한 번 실행 (slot cache는 그대로)
+     * 연결 실패 (pool에서 꺼내지 못한 경우 포함) : slot cache를 갱신하고 다시 실행
+     *
+     * @param slot
+     * @param command
+     * @return
+     */
+    private <T> T run(int slot, ClusterCommand<T> command) {
+        JedisPool pool = connectionHandler.getSlotPool(slot);
+        boolean asking = false;
+
+        for (int redirections = 0; redirections <= maxRedirections; redirections++) {
+            Jedis jedis = null;
+            try {
+                // master가 죽으면 여기서 JedisConnectionException이 난다
+                jedis = pool.getResource();
+                if (asking) {
+                    jedis.asking();
+                }
+                command.asking = asking;
+                T result = command.execute(jedis);
+                pool.returnResource(jedis);
+                return result;
+            } catch (JedisMovedDataException e) {
+                pool.returnResource(jedis);
+                if (log.isDebugEnabled()) {
+                    log.debug("MOVED slot=" + e.getSlot() + ", node=" + e.getTargetNode());
+                }
+                connectionHandler.moved(e.getSlot(), e.getTargetNode());
+                pool = connectionHandler.getSlotPool(slot);
+                asking = false;
+            } catch (JedisAskDataException e) {
+                pool.returnResource(jedis);
+                if (log.isDebugEnabled()) {
+                    log.debug("ASK slot=" + e.getSlot() + ", node=" + e.getTargetNode());
+                }
+                pool = connectionHandler.getPool(e.getTargetNode());
+                asking = true;
+            } catch (JedisConnectionException e) {
+                if (jedis != null) {
+                    pool.returnBrokenResource(jedis);
+                }
+                if (redirections == maxRedirections) {
+                    throw e;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("slot=" + slot + " connection failed. (" + e.getMessage() + ")");
+                }
+                // failover 되었을 수 있으므로 topology를 다시 읽는다.
+                connectionHandler.renewSlotCache();
+                pool = connectionHandler.getSlotPool(slot);
+                asking = false;
+            } catch (RuntimeException e) {
+                if (jedis != null) {
+                    pool.returnResource(jedis);
+                }
+                throw e;
+            }
+        }
+        throw new JedisClusterMaxRedirectionsException("Too many Cluster redirections? slot=" + slot);
+    }
+
+    /**
+     * 키들을 slot별로 나눈다.
+     *
+     * @param keys
+     * @return
+     */
+    private static Map<Integer, List<String>> groupBySlot(Collection<String> keys) {
+        Map<Integer, List<String>> groups = new LinkedHashMap<Integer, List<String>>();
+        for (String key : keys) {
+            Integer slot = RedisClusterConnectionHandler.getSlot(key);
+            List<String> group = groups.get(slot);
+            if (group == null) {
+                group = new ArrayList<String>();
+                groups.put(slot, group);
+            }
+            group.add(key);
+        }
+        return groups;
+    }
+
+    private static byte[][] toBytes(List<String> keys) {
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = keys.get(i).getBytes();
+        }
+        return rawKeys;
+    }
+
+    @Override
+    public <T> boolean contains(final String key) {
+        return run(RedisClusterConnectionHandler.getSlot(key), new ClusterCommand<Boolean>() {
+            @Override
+            Boolean execute(Jedis jedis) {
+                return jedis.exists(key.getBytes());
+            }
+        });
+    }
+
+    /**
+     * marshalling 후 byte 수를 기록 (메모리 통계)
+     */
+    private byte[] marshal(Object value) throws IOException {
+        byte[] bytes = marshaller.objectToBytes(value);
+        SerializedSizeRecorder.record(bytes.length);
+        return bytes;
+    }
+
+    /**
+     * unmarshalling 하고 byte 수를 기록 (SessionCache 통계)
+     */
+    private Object unmarshal(byte[] bytes) throws IOException {
+        if (bytes != null) {
+            SerializedSizeRecorder.recordRead(bytes.length);
+        }
+        return marshaller.objectFromByteBuffer(bytes);
+    }
+
+    @Override
+    public <T> void put(final String key, T value, final long secondsToExpire)
+            throws IOException {
+        final byte[] rawValue = marshal(value);
+        run(RedisClusterConnectionHandler.getSlot(key), new ClusterCommand<String>() {
+            @Override
+            String execute(Jedis jedis) {
+                return jedis.setex(key.getBytes(), (int) secondsToExpire, rawValue);
+            }
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(final String key) throws IOException {
+        byte[] rawValue = run(RedisClusterConnectionHandler.getSlot(key), new ClusterCommand<byte[]>() {
+            @Override
+            byte[] execute(Jedis jedis) {
+                return jedis.get(key.getBytes());
+            }
+        });
+        return (T) unmarshal(rawValue);
+    }
+
+    @Override
+    public <T> void delete(final String key) throws IOException {
+        run(RedisClusterConnectionHandler.getSlot(key), new ClusterCommand<Long>() {
+            @Override
+            Long execute(Jedis jedis) {
+                return jedis.del(key.getBytes());
+            }
+        });
+    }
+
+    /**
+     * slot별 MGET으로 여러 키의 값을 가져온다.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> getAll(Collection<String> keys) throws IOException {
+        Map<String, T> values = new HashMap<String, T>();
+
+        for (Map.Entry<Integer, List<String>> group : groupBySlot(keys).entrySet()) {
+            List<String> slotKeys = group.getValue();
+            final byte[][] rawKeys = toBytes(slotKeys);
+            List<byte[]> rawValues = run(group.getKey(), new ClusterCommand<List<byte[]>>() {
+                @Override
+                List<byte[]> execute(Jedis jedis) {
+                    return jedis.mget(rawKeys);
+                }
+            });
+
+            for (int i = 0; i < rawKeys.length; i++) {
+                byte[] rawValue = rawValues.get(i);
+                if (rawValue != null) {
+                    values.put(slotKeys.get(i), (T) unmarshal(rawValue));
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 세션 키들을 읽고 만료 시간을 연장한다.
+     * 한 세션의 키들은 같은 slot이므로 보통 한 번의 Lua script 호출이 된다.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> loadSession(Collection<String> keys, final long secondsToExpire) throws IOException {
+        Map<String, T> values = new HashMap<String, T>();
+
+        for (Map.Entry<Integer, List<String>> group : groupBySlot(keys).entrySet()) {
+            List<String> slotKeys = group.getValue();
+            final byte[][] rawKeys = toBytes(slotKeys);
+            List<byte[]> rawValues = run(group.getKey(), new ClusterCommand<List<byte[]>>() {
+                @Override
+                List<byte[]> execute(Jedis jedis) {
+                    if (scriptsEnabled) {
+                        return (List<byte[]>) loadSessionScript.eval(jedis, Arrays.asList(rawKeys),
+                                Collections.singletonList(String.valueOf(secondsToExpire).getBytes()));
+                    }
+                    if (asking) {
+                        List<byte[]> values = jedis.mget(rawKeys);
+                        for (byte[] rawKey : rawKeys) {
+                            jedis.asking();
+                            jedis.expire(rawKey, (int) secondsToExpire);
+                        }
+                        return values;
+                    }
+                    Pipeline pipeline = jedis.pipelined();
+                    Response<List<byte[]>> response = pipeline.mget(rawKeys);
+                    List<Response<Long>> expires = new ArrayList<Response<Long>>(rawKeys.length);
+                    for (byte[] rawKey : rawKeys) {
+                        expires.add(pipeline.expire(rawKey, (int) secondsToExpire));
+                    }
+                    pipeline.sync();
+                    List<byte[]> values = get(response);
+                    for (Response<Long> expire : expires) {
+                        get(expire);
+                    }
+                    return values;
+                }
+            });
+
+            for (int i = 0; i < rawKeys.length; i++) {
+                byte[] rawValue = rawValues.get(i);
+                if (rawValue != null) {
+                    values.put(slotKeys.get(i), (T) unmarshal(rawValue));
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * slot별로 여러 키를 SETEX 한다.
+     */
+    @Override
+    public <T> void putAll(Map<String, T> entries, final long secondsToExpire) throws IOException {
+        for (Map.Entry<Integer, List<String>> group : groupBySlot(entries.keySet()).entrySet()) {
+            final List<byte[]> rawKeys = new ArrayList<byte[]>();
+            final List<byte[]> args = new ArrayList<byte[]>();
+            args.add(String.valueOf(secondsToExpire).getBytes());
+            for (String key : group.getValue()) {
+                rawKeys.add(key.getBytes());
+                args.add(marshal(entries.get(key)));
+            }
+
+            run(group.getKey(), new ClusterCommand<Object>() {
+                @Override
+                Object execute(Jedis jedis) {
+                    if (scriptsEnabled) {
+                        return saveSessionScript.eval(jedis, rawKeys, args);
+                    }
+                    if (asking) {
+                        for (int i = 0; i < rawKeys.size(); i++) {
+                            jedis.asking();
+                            jedis.setex(rawKeys.get(i), (int) secondsToExpire, args.get(i + 1));
+                        }
+                        return null;
+                    }
+                    Pipeline pipeline = jedis.pipelined();
+                    List<Response<String>> replies = new ArrayList<Response<String>>(rawKeys.size());
+                    for (int i = 0; i < rawKeys.size(); i++) {
+                        replies.add(pipeline.setex(rawKeys.get(i), (int) secondsToExpire, args.get(i + 1)));
+                    }
+                    pipeline.sync();
+                    // redirection 오류를 확인해야 run()에서 다른 노드로 다시 보낸다
+                    for (Response<String> reply : replies) {
+                        get(reply);
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * slot별 DEL로 여러 키를 삭제한다.
+     */
+    @Override
+    public void deleteAll(Collection<String> keys) throws IOException {
+        for (Map.Entry<Integer, List<String>> group : groupBySlot(keys).entrySet()) {
+            final byte[][] rawKeys = toBytes(group.getValue());
+            run(group.getKey(), new ClusterCommand<Long>() {
+                @Override
+                Long execute(Jedis jedis) {
+                    return jedis.del(rawKeys);
+                }
+            });
+        }
+    }
+
+    @Override
+    public boolean touch(final String key, final long secondsToExpire) throws IOException {
+        Long result = run(RedisClusterConnectionHandler.getSlot(key), new ClusterCommand<Long>() {
+            @Override
+            Long execute(Jedis jedis) {
+                return jedis.expire(key.getBytes(), (int) secondsToExpire);
+            }
+        });
+        return result == 1L;
+    }
+
+    /**
+     * master 노드들의 DBSIZE 합계 (login 키 포함)
+     */
+    @Override
+    public int size() throws IOException {
+        long dbSize = 0;
+        for (JedisPool pool : connectionHandler.getMasterPools()) {
+            Jedis jedis = pool.getResource();
+            try {
+                dbSize += jedis.dbSize();
+            } finally {
+                pool.returnResource(jedis);
+            }
+        }
+        if( log.isTraceEnabled() )
+            log.trace("sizeof=" + dbSize);
+
+        return (int) dbSize;
+    }
+
+    @Override
+    public <T> boolean loginContains(String key) throws IOException {
+        return contains(key);
+    }
+
+    @Override
+    public <T> void loginPut(String key, T value, long secondsToExpire)
+            throws IOException {
+        put(key, value, secondsToExpire);
+    }
+
+    @Override
+    public <T> T loginGet(String key) throws IOException {
+        return get(key);
+    }
+
+    @Override
+    public <T> void loginDelete(String key) throws IOException {
+        delete(key);
+    }
+
+    /**
+     * Redis Cluster에는 login database가 따로 없으므로 전체 키 수를 돌려준다.
+     */
+    @Override
+    public int loginSize() throws IOException {
+        return size();
+    }
+
+    /**
+     * 노드 pool을 닫는다.
+     */
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (expirationSubscriber != null) {
+                expirationSubscriber.shutdown();
+            }
+        }
+        if (connectionHandler != null) {
+            connectionHandler.destroy();
+        }
+    }
+
+    /**
+     * PFADD + EXPIRE (Lua script, redis 2.8.9+)
+     */
+    @Override
+    public void addToCounter(String counterKey, Collection<String> members, long secondsToExpire) throws IOException {
+        final List<byte[]> keys = Collections.singletonList(counterKey.getBytes());
+        int slot = RedisClusterConnectionHandler.getSlot(counterKey);
+        for (final List<byte[]> args : RedisScript.counterArgs(members, secondsToExpire)) {
+            run(slot, new ClusterCommand<Object>() {
+                @Override
+                Object execute(Jedis jedis) {
+                    return addToCounterScript.eval(jedis, keys, args);
+                }
+            });
+        }
+    }
+
+    /**
+     * PFCOUNT (Lua script, redis 2.8.9+)
+     * 카운터 키들은 같은 hash tag를 쓰므로 한 slot에 있다.
+     */
+    @Override
+    public long countUnion(List<String> counterKeys) throws IOException {
+        final List<byte[]> keys = new ArrayList<byte[]>(counterKeys.size());
+        for (String counterKey : counterKeys) {
+            keys.add(counterKey.getBytes());
+        }
+        return run(RedisClusterConnectionHandler.getSlot(counterKeys.get(0)), new ClusterCommand<Long>() {
+            @Override
+            Long execute(Jedis jedis) {
+                return (Long) countUnionScript.eval(jedis, keys, Collections.<byte[]>emptyList());
+            }
+        });
+    }
+
+    /**
+     * login 키가 세션 키와 같은 keyspace에 있으므로 DBSIZE로 셀 수 없다.
+     */
+    @Override
+    public boolean isLoginSizeExact() {
+        return false;
+    }
+
+    /**
+     * keyspace notification은 node 별로 발생하므로 모든 master를 구독한다.
+     * (구독을 시작할 때의 master 기준)
+     */
+    @Override
+    public synchronized boolean addExpirationListener(SessionExpirationListener listener) {
+        if (!redisProp.getExpirationEventsEnabled()) {
+            return false;
+        }
+        if (expirationSubscriber == null) {
+            expirationSubscriber = new RedisExpirationSubscriber(connectionHandler.getMasterPools(), 0,
+                    redisProp.getExpirationEventsConfigureServer());
+        }
+        return expirationSubscriber.addListener(listener);
+    }
+
+    @Override
+    public synchronized void removeExpirationListener(SessionExpirationListener listener) {
+        if (expirationSubscriber != null) {
+            expirationSubscriber.removeListener(listener);
+        }
+    }
+
+    /**
+     * 모든 master를 차례로 SCAN 한다. (cursor를 열 때의 master 기준)
+     */
+    @Override
+    public SessionKeyCursor openKeyCursor(String prefix) {
+        return new RedisKeyCursor(connectionHandler.getMasterPools(), prefix);
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Redis Cluster slot → master node pool mapping
+ *
+ * CLUSTER NODES 결과로 16384개 slot의 master를 찾고, MOVED 응답을 받으면 topology를 다시 읽는다.
+ *
+ * @since 1.1.0
+ */
+public class RedisClusterConnectionHandler {
+
+    public static final int SLOT_COUNT = 16384;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final JedisPoolConfig poolConfig;
+    private final int timeout;
+    private final String password;
+
+    /**
+     * "host:port" → pool (master/slave 모든 노드)
+     */
+    private final Map<String, JedisPool> nodes = new ConcurrentHashMap<String, JedisPool>();
+
+    /**
+     * slot → master pool
+     */
+    private volatile JedisPool[] slots = new JedisPool[SLOT_COUNT];
+
+    /**
+     * Constructor
+     *
+     * @param seeds
+     * @param poolConfig
+     * @param timeout
+     * @param password
+     */
+    public RedisClusterConnectionHandler(Collection<HostAndPort> seeds, JedisPoolConfig poolConfig,
+                                         int timeout, String password) {
+        this.poolConfig = poolConfig;
+        this.timeout = timeout;
+        this.password = password;
+
+        for (HostAndPort seed : seeds) {
+            getPool(seed);
+        }
+        renewSlotCache();
+    }
+
+    /**
+     * key의 slot 계산 ({hash tag} 가 있으면 tag 부분만 사용)
+     *
+     * @param key
+     * @return
+     */
+    public static int getSlot(String key) {
+        return JedisClusterCRC16.getSlot(key);
+    }
+
+    /**
+     * slot을 담당하는 master의 pool
+     *
+     * @param slot
+     * @return
+     */
+    public JedisPool getSlotPool(int slot) {
+        JedisPool pool = slots[slot];
+        if (pool == null) {
+            renewSlotCache();
+            pool = slots[slot];
+        }
+        if (pool == null) {
+            throw new JedisException("No reachable node in cluster for slot " + slot);
+        }
+        return pool;
+    }
+
+    /**
+     * 노드의 pool (없으면 생성)
+     *
+     * @param node
+     * @return
+     */
+    public JedisPool getPool(HostAndPort node) {
+        String nodeKey = node.getHost() + ":" + node.getPort();
+        JedisPool pool = nodes.get(nodeKey);
+        if (pool == null) {
+            synchronized (nodes) {
+                pool = nodes.get(nodeKey);
+                if (pool == null) {
+                    pool = new JedisPool(poolConfig, node.getHost(), node.getPort(), timeout, password);
+                    nodes.put(nodeKey, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * MOVED 응답의 slot을 바로 반영하고 전체 topology를 다시 읽는다.
+     *
+     * @param slot
+     * @param target
+     */
+    public void moved(int slot, HostAndPort target) {
+        slots[slot] = getPool(target);
+        renewSlotCache();
+    }
+
+    /**
+     * slot을 가진 master 노드들의 pool
+     *
+     * @return
+     */
+    public List<JedisPool> getMasterPools() {
+        List<JedisPool> masters = new ArrayList<JedisPool>();
+        for (JedisPool pool : slots) {
+            if (pool != null && !masters.contains(pool)) {
+                masters.add(pool);
+            }
+        }
+        return masters;
+    }
+
+    /**
+     * 알려진 노드 중 응답하는 노드에서 CLUSTER NODES를 읽어 slot cache를 다시 만든다.
+     */
+    public synchronized void renewSlotCache() {
+        for (Map.Entry<String, JedisPool> entry : new HashMap<String, JedisPool>(nodes).entrySet()) {
+            JedisPool pool = entry.getValue();
+            Jedis jedis = null;
+            try {
+                jedis = pool.getResource();
+                String clusterNodes = jedis.clusterNodes();
+                pool.returnResource(jedis);
+                jedis = null;
+
+                String seedHost = entry.getKey().substring(0, entry.getKey().lastIndexOf(':'));
+                slots = parseClusterNodes(clusterNodes, seedHost);
+                return;
+            } catch (JedisException e) {
+                if (jedis != null) {
+                    pool.returnBrokenResource(jedis);
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("cluster node " + entry.getKey() + " is not available. (" + e.getMessage() + ")");
+                }
+            }
+        }
+        log.warn("Can't read redis cluster topology from " + nodes.keySet());
+    }
+
+    /**
+     * CLUSTER NODES 결과 파싱
+     * &lt;id&gt; &lt;ip:port&gt; &lt;flags&gt; &lt;master&gt; &lt;ping-sent&gt; &lt;pong-recv&gt; &lt;epoch&gt; &lt;link-state&gt; &lt;slot&gt; ...
+     *
+     * @param clusterNodes
+     * @param seedHost     주소가 비어 있는 노드(myself)에 사용할 host
+     * @return
+     */
+    JedisPool[] parseClusterNodes(String clusterNodes, String seedHost) {
+        JedisPool[] newSlots = new JedisPool[SLOT_COUNT];
+
+        for (String line : clusterNodes.split("\n")) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length < 8) {
+                continue;
+            }
+
+            String address = fields[1];
+            int cport = address.indexOf('@');
+            if (cport >= 0) {
+                address = address.substring(0, cport);
+            }
+            int colon = address.lastIndexOf(':');
+            String host = colon > 0 ? address.substring(0, colon) : seedHost;
+            int port = Integer.parseInt(address.substring(colon + 1));
+            if (port == 0) {
+                continue;
+            }
+
+            JedisPool pool = getPool(new HostAndPort(host, port));
+
+            String flags = fields[2];
+            if (!flags.contains("master") || flags.contains("fail")) {
+                continue;
+            }
+
+            for (int i = 8; i < fields.length; i++) {
+                String range = fields[i];
+                if (range.startsWith("[")) {
+                    // 이동 중인 slot ([slot->-node], [slot-<-node]) : ASK 로 처리
+                    continue;
+                }
+                int dash = range.indexOf('-');
+                int from = Integer.parseInt(dash < 0 ? range : range.substring(0, dash));
+                int to = dash < 0 ? from : Integer.parseInt(range.substring(dash + 1));
+                for (int slot = from; slot <= to; slot++) {
+                    newSlots[slot] = pool;
+                }
+            }
+        }
+        return newSlots;
+    }
+
+    /**
+     * 모든 노드의 pool을 닫는다.
+     */
+    public void destroy() {
+        for (JedisPool pool : nodes.values()) {
+            pool.destroy();
+        }
+        nodes.clear();
+    }
+}
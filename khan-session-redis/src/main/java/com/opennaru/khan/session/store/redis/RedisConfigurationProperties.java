@@ -24,10 +24,15 @@ package com.opennaru.khan.session.store.redis;
 
 import com.opennaru.khan.session.store.marshaller.JBossMarshaller;
 import org.infinispan.commons.util.Util;
+import redis.clients.jedis.HostAndPort;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  *
@@ -45,6 +50,31 @@ public class RedisConfigurationProperties {
     public static final String POOL_TEST_ON_BORROW = "redis.client.pool.testOnBorrow";
     public static final String POOL_JMX_ENABLED = "redis.client.pool.jmxEnabled";
 
+    public static final String SCRIPTS_ENABLED = "redis.client.scripts.enabled";
+
+    public static final String GROUP_COMMIT_ENABLED = "redis.client.groupCommit.enabled";
+    public static final String GROUP_COMMIT_CONNECTIONS = "redis.client.groupCommit.connections";
+    public static final String GROUP_COMMIT_WINDOW_MICROS = "redis.client.groupCommit.windowMicros";
+    public static final String GROUP_COMMIT_MAX_BATCH = "redis.client.groupCommit.maxBatch";
+
+    public static final String CLUSTER_ENABLED = "redis.client.cluster.enabled";
+    public static final String CLUSTER_NODES = "redis.client.cluster.nodes";
+    public static final String CLUSTER_MAX_REDIRECTIONS = "redis.client.cluster.maxRedirections";
+
+    public static final String ASYNC_CONNECTIONS = "redis.client.async.connections";
+    public static final String ASYNC_MAX_BATCH = "redis.client.async.maxBatch";
+
+    public static final String EXPIRATION_EVENTS_ENABLED = "redis.client.expirationEvents.enabled";
+    public static final String EXPIRATION_EVENTS_CONFIGURE_SERVER = "redis.client.expirationEvents.configureServer";
+
+    public static final String SENTINEL_MASTER = "redis.client.sentinel.master";
+    public static final String SENTINEL_NODES = "redis.client.sentinel.nodes";
+
+    public static final String READ_POLICY = "redis.client.read.policy";
+    public static final String READ_REPLICAS = "redis.client.read.replicas";
+    public static final String READ_MAX_LAG_MILLIS = "redis.client.read.maxLagMillis";
+    public static final String READ_CHECK_INTERVAL_MILLIS = "redis.client.read.checkIntervalMillis";
+
     private Properties properties;
     private RedisServer redisServer;
 
@@ -110,5 +140,119 @@ public class RedisConfigurationProperties {
         return Boolean.parseBoolean( properties.getProperty(POOL_JMX_ENABLED, "true") );
     }
 
-}
+    public boolean getScriptsEnabled() {
+        return Boolean.parseBoolean( properties.getProperty(SCRIPTS_ENABLED, "true") );
+    }
+
+    public boolean getGroupCommitEnabled() {
+        return Boolean.parseBoolean( properties.getProperty(GROUP_COMMIT_ENABLED, "false") );
+    }
+
+    public int getGroupCommitConnections() {
+        return Integer.parseInt( properties.getProperty(GROUP_COMMIT_CONNECTIONS, "2") );
+    }
 
+    public long getGroupCommitWindowMicros() {
+        return Long.parseLong( properties.getProperty(GROUP_COMMIT_WINDOW_MICROS, "200") );
+    }
+
+    public int getGroupCommitMaxBatch() {
+        return Integer.parseInt( properties.getProperty(GROUP_COMMIT_MAX_BATCH, "256") );
+    }
+
+    public boolean getClusterEnabled() {
+        return Boolean.parseBoolean( properties.getProperty(CLUSTER_ENABLED, "false") );
+    }
+
+    /**
+     * cluster seed nodes (host:port,host:port,...)
+     * 설정이 없으면 server_url의 host:port를 사용한다.
+     * @return
+     */
+    public List<HostAndPort> getClusterNodes() {
+        List<HostAndPort> nodes = new ArrayList<HostAndPort>();
+        String clusterNodes = properties.getProperty(CLUSTER_NODES);
+        if (clusterNodes == null || clusterNodes.trim().length() == 0) {
+            RedisServer server = getRedisServer();
+            nodes.add(new HostAndPort(server.getHostname(), server.getPort()));
+            return nodes;
+        }
+
+        return parseHostAndPorts(clusterNodes);
+    }
+
+    public int getClusterMaxRedirections() {
+        return Integer.parseInt( properties.getProperty(CLUSTER_MAX_REDIRECTIONS, "5") );
+    }
+
+    public int getAsyncConnections() {
+        return Integer.parseInt( properties.getProperty(ASYNC_CONNECTIONS, "4") );
+    }
+
+    public int getAsyncMaxBatch() {
+        return Integer.parseInt( properties.getProperty(ASYNC_MAX_BATCH, "256") );
+    }
+
+    public boolean getExpirationEventsEnabled() {
+        return Boolean.parseBoolean( properties.getProperty(EXPIRATION_EVENTS_ENABLED, "true") );
+    }
+
+    public boolean getExpirationEventsConfigureServer() {
+        return Boolean.parseBoolean( properties.getProperty(EXPIRATION_EVENTS_CONFIGURE_SERVER, "false") );
+    }
+
+    /**
+     * sentinel master 이름 (설정하면 master는 sentinel로 찾는다)
+     * @return
+     */
+    public String getSentinelMaster() {
+        String masterName = properties.getProperty(SENTINEL_MASTER);
+        return masterName == null || masterName.trim().length() == 0 ? null : masterName.trim();
+    }
+
+    /**
+     * sentinel 주소 (host:port,host:port,...)
+     * @return
+     */
+    public Set<String> getSentinelNodes() {
+        Set<String> sentinels = new LinkedHashSet<String>();
+        for (HostAndPort sentinel : parseHostAndPorts(properties.getProperty(SENTINEL_NODES, ""))) {
+            sentinels.add(sentinel.getHost() + ":" + sentinel.getPort());
+        }
+        return sentinels;
+    }
+
+    public RedisReadPolicy getReadPolicy() {
+        return RedisReadPolicy.parse(properties.getProperty(READ_POLICY, "master"));
+    }
+
+    /**
+     * replica 주소 (host:port,host:port,...) : sentinel을 쓰지 않을 때
+     * @return
+     */
+    public List<HostAndPort> getReadReplicas() {
+        return parseHostAndPorts(properties.getProperty(READ_REPLICAS, ""));
+    }
+
+    public long getReadMaxLagMillis() {
+        return Long.parseLong( properties.getProperty(READ_MAX_LAG_MILLIS, "1000") );
+    }
+
+    public long getReadCheckIntervalMillis() {
+        return Long.parseLong( properties.getProperty(READ_CHECK_INTERVAL_MILLIS, "100") );
+    }
+
+    private static List<HostAndPort> parseHostAndPorts(String value) {
+        List<HostAndPort> nodes = new ArrayList<HostAndPort>();
+        for (String node : value.split(",")) {
+            node = node.trim();
+            if (node.length() == 0) {
+                continue;
+            }
+            int colon = node.lastIndexOf(':');
+            nodes.add(new HostAndPort(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))));
+        }
+        return nodes;
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store.redis;
+
+import com.opennaru.khan.session.store.SessionExpirationListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.util.Pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Redis keyspace notification subscriber
+ *
+ * __keyevent@{db}__:expired / evicted 채널을 구독하여 만료된 키를 listener에 알려준다.
+ * node(pool) 마다 connection 하나와 daemon thread 하나를 쓰고, 연결이 끊어지면 다시 구독한다.
+ * (sentinel pool이면 다시 구독할 때 새 master에 연결된다)
+ *
+ * 서버의 notify-keyspace-events 설정에 'E'와 'x'(또는 'A')가 있어야 만료 알림이 오고,
+ * maxmemory로 삭제된 키는 'e'(또는 'A')가 있어야 알림이 온다.
+ * redis.client.expirationEvents.configureServer=true 이면 CONFIG SET으로 설정한다.
+ *
+ * @since 1.3.0
+ */
+public class RedisExpirationSubscriber {
+    private static Logger log = LoggerFactory.getLogger(RedisExpirationSubscriber.class);
+
+    /**
+     * 다시 구독하기 전 대기 시간
+     */
+    private static final long RETRY_MILLIS = 1000L;
+
+    private static final String NOTIFY_KEYSPACE_EVENTS = "notify-keyspace-events";
+
+    private final List<? extends Pool<Jedis>> pools;
+
+    private final int database;
+
+    private final boolean configureServer;
+
+    private final List<SessionExpirationListener> listeners = new CopyOnWriteArrayList<SessionExpirationListener>();
+
+    private final List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+    private volatile boolean running = false;
+
+    /**
+     * 모든 node의 notify-keyspace-events 설정이 만료 알림을 보내는지
+     */
+    private boolean notificationsEnabled = false;
+
+    /**
+     * Constructor
+     *
+     * @param pools           구독할 node들의 pool (cluster이면 master마다 하나)
+     * @param database
+     * @param configureServer notify-keyspace-events를 CONFIG SET으로 설정할지
+     */
+    public RedisExpirationSubscriber(List<? extends Pool<Jedis>> pools, int database, boolean configureServer) {
+        this.pools = pools;
+        this.database = database;
+        this.configureServer = configureServer;
+    }
+
+    /**
+     * listener 등록 (첫 listener이면 구독을 시작)
+     *
+     * @param listener
+     * @return 서버가 만료 알림을 보내도록 설정되어 있으면 true
+     */
+    public synchronized boolean addListener(SessionExpirationListener listener) {
+        listeners.add(listener);
+        if (!running) {
+            start();
+        }
+        return notificationsEnabled;
+    }
+
+    /**
+     * listener 제거 (listener가 없으면 구독을 끝낸다)
+     *
+     * @param listener
+     */
+    public synchronized void removeListener(SessionExpirationListener listener) {
+        if (listeners.remove(listener) && listeners.isEmpty()) {
+            shutdown();
+        }
+    }
+
+    private void start() {
+        notificationsEnabled = true;
+        for (Pool<Jedis> pool : pools) {
+            if (!checkServerConfig(pool)) {
+                notificationsEnabled = false;
+            }
+        }
+        if (!notificationsEnabled) {
+            log.warn("Redis " + NOTIFY_KEYSPACE_EVENTS + " does not include 'Ex'. expired sessions are cleaned up by polling.");
+        }
+
+        running = true;
+        for (int i = 0; i < pools.size(); i++) {
+            Subscription subscription = new Subscription(pools.get(i), "khan-session-redis-expired-" + i);
+            subscriptions.add(subscription);
+            subscription.start();
+        }
+    }
+
+    /**
+     * 구독 종료
+     */
+    public synchronized void shutdown() {
+        running = false;
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        subscriptions.clear();
+    }
+
+    /**
+     * notify-keyspace-events 확인 (configureServer이면 'Exe'를 추가)
+     *
+     * @param pool
+     * @return
+     */
+    private boolean checkServerConfig(Pool<Jedis> pool) {
+        Jedis jedis = null;
+        try {
+            jedis = pool.getResource();
+            String events = getNotifyKeyspaceEvents(jedis);
+            if (configureServer && (!isExpiredEventEnabled(events) || !isEvictedEventEnabled(events))) {
+                jedis.configSet(NOTIFY_KEYSPACE_EVENTS, events + "Exe");
+                events = getNotifyKeyspaceEvents(jedis);
+            }
+            if (isExpiredEventEnabled(events) && !isEvictedEventEnabled(events)) {
+                log.warn("Redis " + NOTIFY_KEYSPACE_EVENTS + " does not include 'e'. evicted sessions are cleaned up by polling.");
+            }
+            pool.returnResource(jedis);
+            return isExpiredEventEnabled(events);
+        } catch (Exception e) {
+            if (jedis != null) {
+                pool.returnBrokenResource(jedis);
+            }
+            log.warn("Failed to check " + NOTIFY_KEYSPACE_EVENTS + " (" + e.getMessage() + ")");
+            return false;
+        }
+    }
+
+    private static String getNotifyKeyspaceEvents(Jedis jedis) {
+        List<String> config = jedis.configGet(NOTIFY_KEYSPACE_EVENTS);
+        return config.size() > 1 && config.get(1) != null ? config.get(1) : "";
+    }
+
+    private static boolean isExpiredEventEnabled(String events) {
+        return events.indexOf('E') >= 0 && (events.indexOf('x') >= 0 || events.indexOf('A') >= 0);
+    }
+
+    private static boolean isEvictedEventEnabled(String events) {
+        return events.indexOf('E') >= 0 && (events.indexOf('e') >= 0 || events.indexOf('A') >= 0);
+    }
+
+    private void notifyListeners(String key) {
+        for (SessionExpirationListener listener : listeners) {
+            try {
+                listener.keyRemoved(key, true);
+            } catch (Exception e) {
+                log.warn("Expiration listener failed. key=" + key, e);
+            }
+        }
+    }
+
+    /**
+     * node 하나를 구독하는 thread
+     */
+    private class Subscription extends Thread {
+        private final Pool<Jedis> pool;
+
+        private volatile JedisPubSub pubSub;
+
+        Subscription(Pool<Jedis> pool, String name) {
+            super(name);
+            this.pool = pool;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            String[] channels = {
+                    "__keyevent@" + database + "__:expired",
+                    "__keyevent@" + database + "__:evicted"
+            };
+
+            while (running) {
+                Jedis jedis = null;
+                try {
+                    jedis = pool.getResource();
+                    pubSub = new ExpiredKeyPubSub();
+                    // unsubscribe 할 때까지 block
+                    jedis.subscribe(pubSub, channels);
+                    pool.returnResource(jedis);
+                } catch (Exception e) {
+                    if (jedis != null) {
+                        pool.returnBrokenResource(jedis);
+                    }
+                    if (running) {
+                        log.warn("Redis expiration subscription failed. retry after " + RETRY_MILLIS + "ms (" + e.getMessage() + ")");
+                        try {
+                            Thread.sleep(RETRY_MILLIS);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        void close() {
+            JedisPubSub current = pubSub;
+            if (current != null && current.isSubscribed()) {
+                current.unsubscribe();
+            }
+            interrupt();
+        }
+    }
+
+    private class ExpiredKeyPubSub extends JedisPubSub {
+        @Override
+        public void onMessage(String channel, String message) {
+            notifyListeners(message);
+        }
+
+        @Override
+        public void onSubscribe(String channel, int subscribedChannels) {
+            // 구독 중에 shutdown 되었으면 바로 끝낸다
+            if (!running) {
+                unsubscribe();
+            }
+        }
+
+        @Override
+        public void onPMessage(String pattern, String channel, String message) {
+        }
+
+        @Override
+        public void onUnsubscribe(String channel, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPUnsubscribe(String pattern, int subscribedChannels) {
+        }
+
+        @Override
+        public void onPSubscribe(String pattern, int subscribedChannels) {
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.Pool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group commit writer
+ * 여러 요청 thread의 SETEX를 짧은 시간(window) 동안 모아서
+ * 하나의 pipeline으로 보낸다. 호출한 thread는 응답이 올 때까지 기다린다.
+ * 여러 키를 한 번에 저장하는 write(setexAll)는 pipeline 안에서 MULTI/EXEC로 묶어 보낸다.
+ * 호출한 thread가 timeout으로 기다리기를 포기한 write는 보내지 않는다.
+ * (나중에 보내면 그 사이에 저장된 더 최근 값을 덮어쓸 수 있다)
+ *
+ * @since 1.1.0
+ */
+public class RedisGroupCommitWriter {
+    private static Logger log = LoggerFactory.getLogger(RedisGroupCommitWriter.class);
+
+    private final Pool<Jedis> pool;
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<PendingWrite>();
+
+    private final long windowNanos;
+
+    private final int maxBatch;
+
+    private final long timeoutMillis;
+
+    private final List<Thread> writers = new ArrayList<Thread>();
+
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    /**
+     * Constructor
+     *
+     * @param pool          session database pool
+     * @param connections   writer thread 수 (= 동시에 사용하는 connection 수)
+     * @param windowMicros  write를 모으는 시간
+     * @param maxBatch      pipeline 하나에 보낼 최대 write 수
+     * @param timeoutMillis 호출한 thread가 응답을 기다리는 시간
+     */
+    public RedisGroupCommitWriter(Pool<Jedis> pool, int connections, long windowMicros, int maxBatch, long timeoutMillis) {
+        this.pool = pool;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatch = maxBatch;
+        this.timeoutMillis = timeoutMillis;
+
+        for (int i = 0; i < connections; i++) {
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "khan-session-redis-writer-" + (i + 1));
+            writer.setDaemon(true);
+            writer.start();
+            writers.add(writer);
+        }
+    }
+
+    /**
+     * SETEX를 group commit으로 실행하고 응답을 기다린다.
+     *
+     * @param key
+     * @param value
+     * @param secondsToExpire
+     * @throws java.io.IOException
+     */
+    public void setex(byte[] key, byte[] value, int secondsToExpire) throws IOException {
+        submit(new PendingWrite(new byte[][]{key}, new byte[][]{value}, secondsToExpire));
+    }
+
+    /**
+     * 여러 키의 SETEX를 MULTI/EXEC로 묶어 group commit으로 실행하고 응답을 기다린다.
+     *
+     * @param entries
+     * @param secondsToExpire
+     * @throws java.io.IOException
+     */
+    public void setexAll(Map<byte[], byte[]> entries, int secondsToExpire) throws IOException {
+        byte[][] keys = entries.keySet().toArray(new byte[entries.size()][]);
+        byte[][] values = entries.values().toArray(new byte[entries.size()][]);
+        submit(new PendingWrite(keys, values, secondsToExpire));
+    }
+
+    private void submit(PendingWrite write) throws IOException {
+        if (!running) {
+            throw new IOException("Redis group commit writer is stopped");
+        }
+
+        queue.add(write);
+        write.await(timeoutMillis);
+    }
+
+    /**
+     * writer thread 종료 (대기 중인 write는 실패 처리)
+     */
+    public void shutdown() {
+        running = false;
+        for (Thread writer : writers) {
+            writer.interrupt();
+        }
+        // 보내고 있는 batch가 끝나야 pool을 닫을 수 있다
+        for (Thread writer : writers) {
+            try {
+                writer.join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        List<PendingWrite> remaining = new ArrayList<PendingWrite>();
+        queue.drainTo(remaining);
+        for (PendingWrite write : remaining) {
+            write.fail(new IOException("Redis group commit writer is stopped"));
+        }
+    }
+
+    /**
+     * pipeline으로 보낸 batch 수
+     * @return
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * group commit으로 보낸 write 수
+     * @return
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<PendingWrite>(maxBatch);
+        while (running) {
+            try {
+                batch.add(queue.take());
+
+                // window 동안 들어오는 write를 모은다
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatch) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatch || remaining <= 0) {
+                        break;
+                    }
+                    PendingWrite next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                for (PendingWrite write : batch) {
+                    write.fail(new IOException("Interrupted"));
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> pending) {
+        List<PendingWrite> batch = new ArrayList<PendingWrite>(pending.size());
+        for (PendingWrite write : pending) {
+            if (write.send()) {
+                batch.add(write);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (log.isDebugEnabled() && batch.size() < pending.size()) {
+            log.debug("Skipped " + (pending.size() - batch.size()) + " abandoned writes");
+        }
+
+        Jedis jedis = null;
+        try {
+            jedis = pool.getResource();
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<?>> responses = new ArrayList<Response<?>>(batch.size());
+            for (PendingWrite write : batch) {
+                if (write.keys.length == 1) {
+                    responses.add(pipeline.setex(write.keys[0], write.seconds, write.values[0]));
+                } else {
+                    pipeline.multi();
+                    for (int i = 0; i < write.keys.length; i++) {
+                        pipeline.setex(write.keys[i], write.seconds, write.values[i]);
+                    }
+                    responses.add(pipeline.exec());
+                }
+            }
+            pipeline.sync();
+            pool.returnResource(jedis);
+            jedis = null;
+
+            for (int i = 0; i < batch.size(); i++) {
+                try {
+                    responses.get(i).get();
+                    batch.get(i).complete();
+                } catch (JedisDataException e) {
+                    batch.get(i).fail(new IOException(e.getMessage()));
+                }
+            }
+
+            batchCount.incrementAndGet();
+            writeCount.addAndGet(batch.size());
+        } catch (Exception e) {
+            if (jedis != null) {
+                if (e instanceof JedisConnectionException) {
+                    pool.returnBrokenResource(jedis);
+                } else {
+                    pool.returnResource(jedis);
+                }
+            }
+            log.error("Redis group commit failed. (" + batch.size() + " writes)", e);
+            for (PendingWrite write : batch) {
+                write.fail(new IOException(e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * 응답을 기다리는 write
+     */
+    private static class PendingWrite {
+        final byte[][] keys;
+        final byte[][] values;
+        final int seconds;
+
+        private static final int PENDING = 0;
+        private static final int SENT = 1;
+        private static final int ABANDONED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile IOException error;
+
+        PendingWrite(byte[][] keys, byte[][] values, int seconds) {
+            this.keys = keys;
+            this.values = values;
+            this.seconds = seconds;
+        }
+
+        /**
+         * writer thread가 보내기 전에 호출 (이미 포기한 write면 false)
+         */
+        boolean send() {
+            return state.compareAndSet(PENDING, SENT);
+        }
+
+        /**
+         * 아직 보내지 않았으면 보내지 않도록 표시
+         */
+        void abandon() {
+            state.compareAndSet(PENDING, ABANDONED);
+        }
+
+        void complete() {
+            done.countDown();
+        }
+
+        void fail(IOException e) {
+            error = e;
+            done.countDown();
+        }
+
+        void await(long timeoutMillis) throws IOException {
+            try {
+                if (!done.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    abandon();
+                    throw new IOException("Redis group commit timeout (" + timeoutMillis + "ms)");
+                }
+            } catch (InterruptedException e) {
+                abandon();
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted");
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
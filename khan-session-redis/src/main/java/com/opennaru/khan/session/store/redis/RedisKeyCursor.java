@@ -0,0 +1,121 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package com.opennaru.khan.session.store.redis;
+
+import com.opennaru.khan.session.store.SessionKeyCursor;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.Pool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Redis SCAN cursor
+ *
+ * node(pool)를 차례로 SCAN MATCH {prefix}* COUNT {count} 한다. (redis 2.8+)
+ * 서버에 cursor 상태가 없으므로 close 하지 않아도 서버 자원은 남지 않는다.
+ * SCAN의 보장대로 처음부터 끝까지 있던 키는 한 번 이상 나오고, 중간에 추가/삭제된 키는 나오지 않을 수 있다.
+ *
+ * @since 1.3.0
+ */
+public class RedisKeyCursor implements SessionKeyCursor {
+
+    private final List<? extends Pool<Jedis>> pools;
+
+    private final String pattern;
+
+    /**
+     * SCAN 중인 node
+     */
+    private int node = 0;
+
+    private String scanCursor = ScanParams.SCAN_POINTER_START;
+
+    public RedisKeyCursor(List<? extends Pool<Jedis>> pools, String prefix) {
+        this.pools = pools;
+        this.pattern = escape(prefix) + "*";
+    }
+
+    /**
+     * 빈 page가 오면 키가 나오거나 끝날 때까지 계속 SCAN 한다.
+     */
+    @Override
+    public synchronized List<String> next(int count) throws IOException {
+        while (hasNext()) {
+            Pool<Jedis> pool = pools.get(node);
+            Jedis jedis = pool.getResource();
+            ScanResult<String> result;
+            try {
+                ScanParams params = new ScanParams();
+                params.match(pattern);
+                params.count(count);
+                result = jedis.scan(scanCursor, params);
+                pool.returnResource(jedis);
+            } catch (JedisException e) {
+                pool.returnBrokenResource(jedis);
+                throw new IOException(e);
+            }
+
+            scanCursor = result.getStringCursor();
+            if (ScanParams.SCAN_POINTER_START.equals(scanCursor)) {
+                node++;
+            }
+            if (!result.getResult().isEmpty()) {
+                return new ArrayList<String>(result.getResult());
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        return node < pools.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        node = pools.size();
+    }
+
+    /**
+     * glob 특수문자 escape
+     * @param prefix
+     * @return
+     */
+    static String escape(String prefix) {
+        StringBuilder sb = new StringBuilder(prefix.length() + 8);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis;
+
+/**
+ * Session read policy (redis.client.read.policy)
+ *
+ * @since 1.1.0
+ */
+public enum RedisReadPolicy {
+    /**
+     * 모든 읽기를 master에서 (기본값)
+     */
+    MASTER,
+    /**
+     * 복제 지연이 허용 범위인 replica에서 읽고, 없으면 master
+     */
+    REPLICA,
+    /**
+     * REPLICA + 이 서버가 쓴 키는 replica에 반영된 뒤에만 replica에서 읽는다 (read-your-writes)
+     */
+    REPLICA_READ_YOUR_WRITES;
+
+    /**
+     * master | replica | replica-ryw
+     *
+     * @param value
+     * @return
+     */
+    public static RedisReadPolicy parse(String value) {
+        if (value == null || value.trim().length() == 0 || value.trim().equalsIgnoreCase("master")) {
+            return MASTER;
+        }
+        if (value.trim().equalsIgnoreCase("replica")) {
+            return REPLICA;
+        }
+        if (value.trim().equalsIgnoreCase("replica-ryw")) {
+            return REPLICA_READ_YOUR_WRITES;
+        }
+        throw new IllegalArgumentException("Unknown redis read policy : " + value);
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.util.Pool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replica read routing
+ *
+ * monitor thread가 주기적으로 master의 master_repl_offset과 replica의 slave_repl_offset을 읽어
+ * 각 replica가 "언제까지의 master 쓰기"를 반영했는지(caughtUpTo)를 계산한다.
+ * 이 시점이 maxLag보다 오래되었거나 link가 끊어진 replica는 사용하지 않는다.
+ *
+ * REPLICA_READ_YOUR_WRITES 에서는 이 서버가 쓴 키의 쓰기 시각을 기억해 두고,
+ * 그 쓰기를 반영한 replica가 없으면 master에서 읽는다.
+ *
+ * @since 1.1.0
+ */
+public class RedisReplicaRouter {
+    private static Logger log = LoggerFactory.getLogger(RedisReplicaRouter.class);
+
+    /**
+     * master offset 기록 개수
+     */
+    private static final int MAX_OFFSET_HISTORY = 1024;
+
+    /**
+     * sentinel에서 replica 목록을 다시 읽는 주기
+     */
+    private static final long SENTINEL_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * 기다리는 EXPIRE 작업 수 (넘으면 버린다)
+     */
+    private static final int MAX_PENDING_EXPIRES = 10000;
+
+    /**
+     * replica 노드
+     */
+    static class Replica {
+        final HostAndPort address;
+        final JedisPool pool;
+
+        /**
+         * master에서 이 시각(nanoTime) 이전에 끝난 쓰기는 replica에 반영되어 있다.
+         */
+        volatile long caughtUpTo;
+        volatile boolean available = false;
+
+        Replica(HostAndPort address, JedisPool pool) {
+            this.address = address;
+            this.pool = pool;
+        }
+    }
+
+    private final Pool<Jedis> masterPool;
+    private final RedisReadPolicy policy;
+    private final long maxLagNanos;
+
+    private final JedisPoolConfig poolConfig;
+    private final int timeout;
+    private final String password;
+    private final int database;
+
+    private volatile List<Replica> replicas = Collections.emptyList();
+
+    /**
+     * sentinel 설정 (없으면 고정 replica 목록)
+     */
+    private final String sentinelMasterName;
+    private final Set<String> sentinels;
+    private long lastSentinelRefresh;
+
+    /**
+     * 이 서버가 쓴 키 → 쓰기 완료 시각 (read-your-writes)
+     */
+    private final Map<String, Long> recentWrites = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * (시각, master_repl_offset) 기록 : monitor thread만 사용
+     */
+    private final LinkedList<long[]> masterOffsets = new LinkedList<long[]>();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final AtomicLong replicaReadCount = new AtomicLong();
+    private final AtomicLong masterReadCount = new AtomicLong();
+    private final AtomicLong replicaMissCount = new AtomicLong();
+
+    private final ScheduledExecutorService monitor;
+
+    /**
+     * replica에서 읽은 키의 만료 시간을 master에서 연장하는 thread
+     */
+    private final ExecutorService expirer;
+
+    /**
+     * Constructor
+     *
+     * @param masterPool         session database의 master pool
+     * @param policy             read policy
+     * @param replicaAddresses   고정 replica 목록 (sentinel을 쓰면 무시)
+     * @param sentinelMasterName sentinel master 이름 (없으면 null)
+     * @param sentinels          sentinel 주소 (host:port)
+     * @param poolConfig
+     * @param timeout
+     * @param password
+     * @param database
+     * @param maxLagMillis       허용하는 복제 지연
+     * @param checkIntervalMillis replication offset 확인 주기
+     */
+    public RedisReplicaRouter(Pool<Jedis> masterPool, RedisReadPolicy policy,
+                              List<HostAndPort> replicaAddresses,
+                              String sentinelMasterName, Set<String> sentinels,
+                              JedisPoolConfig poolConfig, int timeout, String password, int database,
+                              long maxLagMillis, long checkIntervalMillis) {
+        this.masterPool = masterPool;
+        this.policy = policy;
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        this.poolConfig = poolConfig;
+        this.timeout = timeout;
+        this.password = password;
+        this.database = database;
+        this.sentinelMasterName = sentinelMasterName;
+        this.sentinels = sentinels;
+
+        if (sentinelMasterName == null) {
+            updateReplicas(replicaAddresses);
+        } else {
+            refreshSentinelReplicas();
+        }
+
+        monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "khan-session-redis-replica-monitor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        expirer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_PENDING_EXPIRES), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "khan-session-redis-replica-expire");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        monitor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkReplication();
+                } catch (RuntimeException e) {
+                    log.warn("replica monitor failed. (" + e.getMessage() + ")");
+                }
+            }
+        }, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 이 서버에서 쓴 키 기록 (쓰기가 끝난 뒤 호출)
+     *
+     * @param key
+     */
+    public void recordWrite(String key) {
+        if (policy == RedisReadPolicy.REPLICA_READ_YOUR_WRITES) {
+            recentWrites.put(key, System.nanoTime());
+        }
+    }
+
+    /**
+     * @param keys
+     */
+    public void recordWrites(Collection<String> keys) {
+        if (policy == RedisReadPolicy.REPLICA_READ_YOUR_WRITES) {
+            long now = System.nanoTime();
+            for (String key : keys) {
+                recentWrites.put(key, now);
+            }
+        }
+    }
+
+    /**
+     * replica에서 MGET 한다.
+     * 조건에 맞는 replica가 없거나 실패하면 null (master에서 읽어야 함)
+     *
+     * @param keys
+     * @param rawKeys
+     * @return
+     */
+    public List<byte[]> mget(Collection<String> keys, byte[][] rawKeys) {
+        Replica replica = select(keys);
+        if (replica == null) {
+            masterReadCount.incrementAndGet();
+            return null;
+        }
+
+        Jedis jedis = replica.pool.getResource();
+        try {
+            List<byte[]> values = jedis.mget(rawKeys);
+            replica.pool.returnResource(jedis);
+            replicaReadCount.incrementAndGet();
+            return values;
+        } catch (JedisConnectionException e) {
+            replica.pool.returnBrokenResource(jedis);
+            replica.available = false;
+        } catch (JedisException e) {
+            replica.pool.returnResource(jedis);
+            replica.available = false;
+        }
+        log.warn("replica " + replica.address + " is not available.");
+        masterReadCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * master에서 만료 시간을 연장한다. 응답을 기다리지 않는다.
+     * (대기 중인 작업이 많으면 버리고, 만료 시간은 요청이 끝날 때 저장하면서 다시 연장된다)
+     *
+     * @param rawKeys
+     * @param secondsToExpire
+     */
+    public void expireAsync(final byte[][] rawKeys, final int secondsToExpire) {
+        expirer.execute(new Runnable() {
+            @Override
+            public void run() {
+                Jedis jedis = masterPool.getResource();
+                try {
+                    Pipeline pipeline = jedis.pipelined();
+                    for (byte[] rawKey : rawKeys) {
+                        pipeline.expire(rawKey, secondsToExpire);
+                    }
+                    pipeline.sync();
+                    masterPool.returnResource(jedis);
+                } catch (JedisConnectionException e) {
+                    masterPool.returnBrokenResource(jedis);
+                    log.warn("EXPIRE on master failed. (" + e.getMessage() + ")");
+                } catch (JedisException e) {
+                    masterPool.returnResource(jedis);
+                    log.warn("EXPIRE on master failed. (" + e.getMessage() + ")");
+                }
+            }
+        });
+    }
+
+    /**
+     * replica에 없던 키를 master에서 다시 읽은 경우
+     */
+    public void replicaMissed() {
+        replicaMissCount.incrementAndGet();
+    }
+
+    /**
+     * 읽을 replica 선택 (round-robin)
+     *
+     * @param keys
+     * @return
+     */
+    Replica select(Collection<String> keys) {
+        List<Replica> current = replicas;
+        if (current.isEmpty()) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < current.size(); i++) {
+            Replica replica = current.get((start + i) % current.size());
+            if (!replica.available || now - replica.caughtUpTo > maxLagNanos) {
+                continue;
+            }
+            if (policy == RedisReadPolicy.REPLICA_READ_YOUR_WRITES && !isVisible(replica, keys)) {
+                continue;
+            }
+            return replica;
+        }
+        return null;
+    }
+
+    private boolean isVisible(Replica replica, Collection<String> keys) {
+        for (String key : keys) {
+            Long writtenAt = recentWrites.get(key);
+            if (writtenAt != null && replica.caughtUpTo - writtenAt <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * master/replica의 replication offset으로 caughtUpTo 갱신
+     */
+    void checkReplication() {
+        long now = System.nanoTime();
+        Long masterOffset = readOffset(masterPool, "master_repl_offset");
+        if (masterOffset == null) {
+            return;
+        }
+
+        if (!masterOffsets.isEmpty() && masterOffsets.getLast()[1] > masterOffset) {
+            // failover 등으로 offset이 바뀜
+            masterOffsets.clear();
+        }
+        masterOffsets.addLast(new long[]{now, masterOffset});
+        if (masterOffsets.size() > MAX_OFFSET_HISTORY) {
+            masterOffsets.removeFirst();
+        }
+
+        if (sentinelMasterName != null && now - lastSentinelRefresh > SENTINEL_REFRESH_NANOS) {
+            refreshSentinelReplicas();
+        }
+
+        long minCaughtUpTo = now;
+        for (Replica replica : replicas) {
+            Long replicaOffset = readOffset(replica.pool, "slave_repl_offset");
+            if (replicaOffset == null) {
+                replica.available = false;
+            } else {
+                boolean caughtUp = false;
+                Iterator<long[]> it = masterOffsets.descendingIterator();
+                while (it.hasNext()) {
+                    long[] entry = it.next();
+                    if (entry[1] <= replicaOffset) {
+                        replica.caughtUpTo = entry[0];
+                        caughtUp = true;
+                        break;
+                    }
+                }
+                replica.available = caughtUp;
+            }
+            if (replica.caughtUpTo - minCaughtUpTo < 0) {
+                minCaughtUpTo = replica.caughtUpTo;
+            }
+        }
+
+        long pruneBefore = now - maxLagNanos;
+        if (minCaughtUpTo - pruneBefore > 0) {
+            pruneBefore = minCaughtUpTo;
+        }
+
+        // 모든 replica가 반영했거나 maxLag보다 오래된 쓰기는 더 이상 확인할 필요가 없다.
+        Iterator<Map.Entry<String, Long>> it = recentWrites.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() - pruneBefore < 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * INFO replication 에서 offset 값 읽기
+     * replica는 master_link_status:up 일 때만 값을 돌려준다.
+     */
+    private Long readOffset(Pool<Jedis> pool, String field) {
+        Jedis jedis = null;
+        try {
+            jedis = pool.getResource();
+            String info = jedis.info("replication");
+            pool.returnResource(jedis);
+            jedis = null;
+
+            Long offset = null;
+            boolean linkDown = false;
+            for (String line : info.split("\r?\n")) {
+                if (line.startsWith(field + ":")) {
+                    offset = Long.parseLong(line.substring(field.length() + 1).trim());
+                } else if (line.startsWith("master_link_status:") && !line.trim().endsWith("up")) {
+                    linkDown = true;
+                }
+            }
+            return linkDown ? null : offset;
+        } catch (JedisException e) {
+            if (jedis != null) {
+                pool.returnBrokenResource(jedis);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("INFO replication failed. (" + e.getMessage() + ")");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * sentinel에서 replica 목록을 읽는다.
+     */
+    private void refreshSentinelReplicas() {
+        lastSentinelRefresh = System.nanoTime();
+        for (String sentinel : sentinels) {
+            int colon = sentinel.lastIndexOf(':');
+            Jedis jedis = new Jedis(sentinel.substring(0, colon), Integer.parseInt(sentinel.substring(colon + 1)), timeout);
+            try {
+                List<HostAndPort> addresses = new ArrayList<HostAndPort>();
+                for (Map<String, String> slave : jedis.sentinelSlaves(sentinelMasterName)) {
+                    String flags = slave.get("flags");
+                    if (flags != null && (flags.contains("s_down") || flags.contains("o_down")
+                            || flags.contains("disconnected"))) {
+                        continue;
+                    }
+                    addresses.add(new HostAndPort(slave.get("ip"), Integer.parseInt(slave.get("port"))));
+                }
+                updateReplicas(addresses);
+                return;
+            } catch (JedisException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("sentinel " + sentinel + " is not available. (" + e.getMessage() + ")");
+                }
+            } finally {
+                jedis.disconnect();
+            }
+        }
+        log.warn("Can't read replicas of " + sentinelMasterName + " from sentinels " + sentinels);
+    }
+
+    /**
+     * replica 목록 교체 (기존 pool은 재사용)
+     */
+    private synchronized void updateReplicas(List<HostAndPort> addresses) {
+        List<Replica> updated = new ArrayList<Replica>();
+        List<Replica> removed = new ArrayList<Replica>(replicas);
+        for (HostAndPort address : addresses) {
+            Replica replica = null;
+            for (Replica existing : removed) {
+                if (existing.address.equals(address)) {
+                    replica = existing;
+                    break;
+                }
+            }
+            if (replica != null) {
+                removed.remove(replica);
+            } else {
+                replica = new Replica(address,
+                        new JedisPool(poolConfig, address.getHost(), address.getPort(), timeout, password, database));
+                // 아직 확인 전 : maxLag보다 오래된 것으로 둔다.
+                replica.caughtUpTo = System.nanoTime() - maxLagNanos - 1;
+            }
+            updated.add(replica);
+        }
+        replicas = Collections.unmodifiableList(updated);
+
+        for (Replica replica : removed) {
+            replica.pool.destroy();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("redis replicas=" + addresses);
+        }
+    }
+
+    public RedisReadPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getReplicaReadCount() {
+        return replicaReadCount.get();
+    }
+
+    public long getMasterReadCount() {
+        return masterReadCount.get();
+    }
+
+    public long getReplicaMissCount() {
+        return replicaMissCount.get();
+    }
+
+    /**
+     * monitor 중지, replica pool 닫기
+     * 대기 중인 EXPIRE는 master pool을 닫기 전에 잠시 기다려 보낸다.
+     */
+    public void shutdown() {
+        monitor.shutdownNow();
+        expirer.shutdown();
+        try {
+            if (!expirer.awaitTermination(5, TimeUnit.SECONDS)) {
+                expirer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            expirer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (Replica replica : replicas) {
+            replica.pool.destroy();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Redis Lua script
+ * SCRIPT LOAD로 등록하고 EVALSHA로 실행한다.
+ * 서버에 스크립트가 없으면(NOSCRIPT) 다시 등록하고 한 번 더 실행한다.
+ *
+ * @since 1.1.0
+ */
+public class RedisScript {
+
+    /**
+     * session 키들을 읽고 있는 키의 만료 시간을 연장
+     * KEYS : session keys, ARGV[1] : seconds to expire
+     */
+    public static final String LOAD_SESSION =
+            "local values = redis.call('MGET', unpack(KEYS))\n" +
+            "for i = 1, #KEYS do\n" +
+            "  if values[i] then\n" +
+            "    redis.call('EXPIRE', KEYS[i], ARGV[1])\n" +
+            "  end\n" +
+            "end\n" +
+            "return values\n";
+
+    /**
+     * session 키들을 한 번에 저장
+     * KEYS : session keys, ARGV[1] : seconds to expire, ARGV[2..] : values
+     */
+    public static final String SAVE_SESSION =
+            "for i = 1, #KEYS do\n" +
+            "  redis.call('SETEX', KEYS[i], ARGV[1], ARGV[i + 1])\n" +
+            "end\n" +
+            "return #KEYS\n";
+
+    /**
+     * 카운터(HyperLogLog)에 값들을 더하고 만료 시간을 설정 (redis 2.8.9+)
+     * KEYS[1] : counter key, ARGV[1] : seconds to expire, ARGV[2..] : members
+     */
+    public static final String ADD_TO_COUNTER =
+            "redis.call('PFADD', KEYS[1], unpack(ARGV, 2))\n" +
+            "redis.call('EXPIRE', KEYS[1], ARGV[1])\n" +
+            "return 1\n";
+
+    /**
+     * 카운터들의 합집합 크기 (redis 2.8.9+)
+     * KEYS : counter keys
+     */
+    public static final String COUNT_UNION =
+            "return redis.call('PFCOUNT', unpack(KEYS))\n";
+
+    /**
+     * ADD_TO_COUNTER 한 번에 보낼 값의 수 (Lua unpack 제한)
+     */
+    public static final int COUNTER_BATCH_SIZE = 1000;
+
+    private final byte[] script;
+
+    private volatile byte[] sha1;
+
+    /**
+     * Constructor
+     *
+     * @param script
+     */
+    public RedisScript(String script) {
+        this.script = script.getBytes();
+    }
+
+    /**
+     * SCRIPT LOAD
+     *
+     * @param jedis
+     */
+    public void load(Jedis jedis) {
+        sha1 = jedis.scriptLoad(script);
+    }
+
+    /**
+     * EVALSHA
+     *
+     * @param jedis
+     * @param keys
+     * @param args
+     * @return
+     */
+    public Object eval(Jedis jedis, List<byte[]> keys, List<byte[]> args) {
+        if (sha1 == null) {
+            load(jedis);
+        }
+        try {
+            return jedis.evalsha(sha1, keys, args);
+        } catch (JedisDataException e) {
+            if (e.getMessage() == null || !e.getMessage().startsWith("NOSCRIPT")) {
+                throw e;
+            }
+            // 서버 재시작/SCRIPT FLUSH 후에는 다시 등록
+            load(jedis);
+            return jedis.evalsha(sha1, keys, args);
+        }
+    }
+
+    /**
+     * ADD_TO_COUNTER의 ARGV를 COUNTER_BATCH_SIZE 개씩 나눈다.
+     *
+     * @param members
+     * @param secondsToExpire
+     * @return
+     */
+    public static List<List<byte[]>> counterArgs(Collection<String> members, long secondsToExpire) {
+        byte[] seconds = String.valueOf(secondsToExpire).getBytes();
+        List<List<byte[]>> batches = new ArrayList<List<byte[]>>();
+        List<byte[]> args = null;
+        for (String member : members) {
+            if (args == null || args.size() > COUNTER_BATCH_SIZE) {
+                args = new ArrayList<byte[]>(Math.min(members.size(), COUNTER_BATCH_SIZE) + 1);
+                args.add(seconds);
+                batches.add(args);
+            }
+            args.add(member.getBytes());
+        }
+        return batches;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.opennaru.khan.session.store.redis;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.util.Collections;
+
+/**
+ * CLUSTER NODES 파싱 테스트 (Redis 서버 필요 없음)
+ */
+public class TestRedisClusterConnectionHandler {
+    private RedisClusterConnectionHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = new RedisClusterConnectionHandler(Collections.<HostAndPort>emptyList(),
+                new JedisPoolConfig(), 2000, null);
+    }
+
+    @After
+    public void tearDown() {
+        handler.destroy();
+    }
+
+    private JedisPool pool(int port) {
+        return handler.getPool(new HostAndPort("127.0.0.1", port));
+    }
+
+    @Test
+    public void testParseClusterNodes() {
+        String clusterNodes =
+                "e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca 127.0.0.1:30001@31001 myself,master - 0 0 1 connected 0-5460\n" +
+                "67ed2db8d677e59ec4a4cefb06858cf2a1a89fa1 127.0.0.1:30002@31002 master - 0 1426238316232 2 connected 5461-10922 [5461->-292f8b365bb7edb5e285caf0b7e6ddc7265d2f4f]\n" +
+                "292f8b365bb7edb5e285caf0b7e6ddc7265d2f4f 127.0.0.1:30003@31003 master - 0 1426238318243 3 connected 10923-16383 [5461-<-67ed2db8d677e59ec4a4cefb06858cf2a1a89fa1]\n" +
+                "07c37dfeb235213a872192d90877d0cd55635b91 127.0.0.1:30004@31004 slave e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca 0 1426238317239 4 connected\n";
+
+        JedisPool[] slots = handler.parseClusterNodes(clusterNodes, "127.0.0.1");
+
+        Assert.assertSame(pool(30001), slots[0]);
+        Assert.assertSame(pool(30001), slots[5460]);
+        // 이동 중인 slot은 아직 원래 master가 담당
+        Assert.assertSame(pool(30002), slots[5461]);
+        Assert.assertSame(pool(30002), slots[10922]);
+        Assert.assertSame(pool(30003), slots[10923]);
+        Assert.assertSame(pool(30003), slots[16383]);
+        for (JedisPool slot : slots) {
+            Assert.assertNotSame(pool(30004), slot);
+        }
+    }
+
+    @Test
+    public void testParseFailedMaster() {
+        // 30001이 죽고 slave 30004가 master가 된 상태
+        String clusterNodes =
+                "07c37dfeb235213a872192d90877d0cd55635b91 127.0.0.1:30004@31004 myself,master - 0 0 7 connected 0-5460\n" +
+                "e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca 127.0.0.1:30001@31001 master,fail - 1426238316232 1426238314232 1 disconnected 0-5460\n" +
+                "67ed2db8d677e59ec4a4cefb06858cf2a1a89fa1 127.0.0.1:30002@31002 master,fail - 1426238316232 1426238314232 2 disconnected 5461-10922\n" +
+                "b4b3d5c1b0a9c3e2d4f5a6b7c8d9e0f1a2b3c4d5 :0@0 master,noaddr - 1426238316232 1426238314232 0 disconnected\n";
+
+        JedisPool[] slots = handler.parseClusterNodes(clusterNodes, "127.0.0.1");
+
+        Assert.assertSame(pool(30004), slots[0]);
+        Assert.assertSame(pool(30004), slots[5460]);
+        // failover 되지 않은 slot은 비워 두고 getSlotPool()에서 다시 읽는다
+        Assert.assertNull(slots[5461]);
+        Assert.assertNull(slots[10922]);
+    }
+
+    @Test
+    public void testParseMyselfWithoutAddress() {
+        // 다른 노드를 만나기 전의 노드는 자기 주소를 ":port"로 보여 준다
+        String clusterNodes =
+                "e7d1eecce10fd6bb5eb35b9f99a514335d9ba9ca :30001 myself,master - 0 0 1 connected 0-16383\n";
+
+        JedisPool[] slots = handler.parseClusterNodes(clusterNodes, "127.0.0.1");
+
+        Assert.assertSame(pool(30001), slots[0]);
+        Assert.assertSame(pool(30001), slots[16383]);
+    }
+}
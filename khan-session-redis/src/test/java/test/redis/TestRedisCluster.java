@@ -0,0 +1,225 @@
+/*
+ * Opennaru, Inc. http://www.opennaru.com/
+ *
+ *  Copyright (C) 2014 Opennaru, Inc. and/or its affiliates.
+ *  All rights reserved by Opennaru, Inc.
+ *
+ *  This is free software; you can redistribute it and/or modify it
+ *  under the terms of the GNU Lesser General Public License as
+ *  published by the Free Software Foundation; either version 2.1 of
+ *  the License, or (at your option) any later version.
+ *
+ *  This software is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this software; if not, write to the Free
+ *  Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ *  02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package test.redis;
+
+import com.opennaru.khan.session.store.redis.RedisClusterClientImpl;
+import com.opennaru.khan.session.store.redis.RedisClusterConnectionHandler;
+
+import redis.clients.jedis.Jedis;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 로컬 Redis Cluster 대상 테스트
+ *
+ * 클러스터 준비 (redis 3.0+, 7000 ~ 7005 포트, master 3 / slave 3) :
+ *   redis-server --port 700N --cluster-enabled yes --cluster-config-file nodes-700N.conf
+ *   redis-trib.rb create --replicas 1 127.0.0.1:7000 ... 127.0.0.1:7005
+ *
+ * 실행 : classpath의 설정 파일(redis.client.cluster.enabled=true, redis.client.cluster.nodes=...)을 인자로 준다.
+ *   java test.redis.TestRedisCluster config/redis.properties [seed host:port]
+ *
+ * testSlotMigration은 테스트 세션의 slot을 다른 master로 옮겼다가 되돌려 놓는다.
+ */
+public class TestRedisCluster {
+    public static void main(String[] args) throws Exception {
+        String configFile = args.length > 0 ? args[0] : "config/redis.properties";
+        String seed = args.length > 1 ? args[1] : "127.0.0.1:7000";
+
+        RedisClusterClientImpl cache = new RedisClusterClientImpl();
+        cache.initialize(configFile, "", "");
+        try {
+            testSameSlot();
+            testSessionKeys(cache);
+            testMultiSlotBatch(cache);
+            testSlotMigration(cache, seed);
+        } finally {
+            cache.destroy();
+        }
+    }
+
+    /**
+     * 한 세션의 키들은 같은 slot
+     */
+    public static void testSameSlot() {
+        String sessionId = "test-session-1";
+        int metaSlot = RedisClusterConnectionHandler.getSlot("KHAN_SESSION__{" + sessionId + "}_ns__META_");
+        int attrSlot = RedisClusterConnectionHandler.getSlot("KHAN_SESSION__{" + sessionId + "}_ns__ATTR_");
+        int sidSlot = RedisClusterConnectionHandler.getSlot("KHAN_SESSION__SID_$_{" + sessionId + "}");
+        check(metaSlot == attrSlot && attrSlot == sidSlot, "same slot : " + metaSlot + "," + attrSlot + "," + sidSlot);
+    }
+
+    /**
+     * loadSession / putAll / deleteAll (한 slot의 multi-key 명령)
+     */
+    public static void testSessionKeys(RedisClusterClientImpl cache) throws Exception {
+        String metaKey = "KHAN_SESSION__{test-session-2}_ns__META_";
+        String attrKey = "KHAN_SESSION__{test-session-2}_ns__ATTR_";
+
+        Map<String, Object> entries = new HashMap<String, Object>();
+        entries.put(metaKey, "meta");
+        entries.put(attrKey, "attr");
+        cache.putAll(entries, 60);
+
+        Map<String, Object> loaded = cache.loadSession(Arrays.asList(metaKey, attrKey), 120);
+        check("meta".equals(loaded.get(metaKey)) && "attr".equals(loaded.get(attrKey)), "loadSession : " + loaded);
+
+        cache.deleteAll(Arrays.asList(metaKey, attrKey));
+        check(!cache.contains(metaKey) && !cache.contains(attrKey), "deleteAll");
+    }
+
+    /**
+     * 여러 세션 (여러 slot) 키의 batch 명령
+     */
+    public static void testMultiSlotBatch(RedisClusterClientImpl cache) throws Exception {
+        Map<String, Object> entries = new HashMap<String, Object>();
+        for (int i = 0; i < 100; i++) {
+            entries.put("KHAN_SESSION__{batch-" + i + "}_ns__META_", "value-" + i);
+        }
+        cache.putAll(entries, 60);
+
+        Map<String, Object> values = cache.getAll(entries.keySet());
+        check(values.equals(entries), "getAll : " + values.size());
+
+        List<String> keys = Arrays.asList(entries.keySet().toArray(new String[entries.size()]));
+        cache.deleteAll(keys);
+        check(cache.getAll(keys).isEmpty(), "deleteAll (multi slot)");
+    }
+
+    /**
+     * slot 이동 중 (ASK) 과 이동 후 (MOVED) 의 pipeline 명령
+     */
+    public static void testSlotMigration(RedisClusterClientImpl cache, String seed) throws Exception {
+        String metaKey = "KHAN_SESSION__{test-session-3}_ns__META_";
+        String attrKey = "KHAN_SESSION__{test-session-3}_ns__ATTR_";
+        int slot = RedisClusterConnectionHandler.getSlot(metaKey);
+
+        Map<String, Object> entries = new HashMap<String, Object>();
+        entries.put(metaKey, "meta");
+        entries.put(attrKey, "attr");
+        cache.putAll(entries, 60);
+
+        String[] nodes = findNodes(seed, slot);
+        Jedis source = connect(nodes[1]);
+        Jedis target = connect(nodes[3]);
+        try {
+            // META 키만 먼저 옮긴다 : source는 META 키에 대해 ASK를 돌려준다
+            target.clusterSetSlotImporting(slot, nodes[0]);
+            source.clusterSetSlotMigrating(slot, nodes[2]);
+            migrate(source, nodes[3], metaKey);
+
+            Map<String, Object> loaded = cache.loadSession(Arrays.asList(metaKey), 120);
+            check("meta".equals(loaded.get(metaKey)), "loadSession (ASK) : " + loaded);
+            cache.putAll(Collections.<String, Object>singletonMap(metaKey, "meta2"), 60);
+            check("meta2".equals(cache.get(metaKey)), "putAll (ASK)");
+
+            // 나머지 키를 옮기고 slot의 주인을 바꾼다 : 이후 요청은 MOVED를 받는다
+            migrate(source, nodes[3], attrKey);
+            target.clusterSetSlotNode(slot, nodes[2]);
+            source.clusterSetSlotNode(slot, nodes[2]);
+
+            loaded = cache.loadSession(Arrays.asList(metaKey, attrKey), 120);
+            check("meta2".equals(loaded.get(metaKey)) && "attr".equals(loaded.get(attrKey)),
+                    "loadSession (MOVED) : " + loaded);
+
+            // 원래 master로 되돌린다
+            source.clusterSetSlotImporting(slot, nodes[2]);
+            target.clusterSetSlotMigrating(slot, nodes[0]);
+            migrate(target, nodes[1], metaKey);
+            migrate(target, nodes[1], attrKey);
+            source.clusterSetSlotNode(slot, nodes[0]);
+            target.clusterSetSlotNode(slot, nodes[0]);
+
+            cache.putAll(entries, 60);
+            loaded = cache.loadSession(Arrays.asList(metaKey, attrKey), 120);
+            check(entries.equals(loaded), "putAll / loadSession (MOVED back) : " + loaded);
+        } finally {
+            source.close();
+            target.close();
+            cache.deleteAll(Arrays.asList(metaKey, attrKey));
+        }
+    }
+
+    /**
+     * CLUSTER NODES에서 slot의 master와 다른 master 하나를 찾는다.
+     *
+     * @return { source id, source host:port, target id, target host:port }
+     */
+    private static String[] findNodes(String seed, int slot) {
+        Jedis jedis = connect(seed);
+        String clusterNodes;
+        try {
+            clusterNodes = jedis.clusterNodes();
+        } finally {
+            jedis.close();
+        }
+
+        String[] nodes = new String[4];
+        for (String line : clusterNodes.split("\n")) {
+            String[] fields = line.trim().split(" ");
+            if (fields.length < 8 || !fields[2].contains("master") || fields[2].contains("fail")) {
+                continue;
+            }
+            String address = fields[1].split("@")[0];
+            if (address.startsWith(":")) {
+                address = seed.substring(0, seed.lastIndexOf(':')) + address;
+            }
+
+            boolean owner = false;
+            for (int i = 8; i < fields.length && !fields[i].startsWith("["); i++) {
+                String[] range = fields[i].split("-");
+                int from = Integer.parseInt(range[0]);
+                int to = range.length > 1 ? Integer.parseInt(range[1]) : from;
+                owner |= from <= slot && slot <= to;
+            }
+            int index = owner ? 0 : 2;
+            if (nodes[index] == null) {
+                nodes[index] = fields[0];
+                nodes[index + 1] = address;
+            }
+        }
+        check(nodes[0] != null && nodes[2] != null, "source " + nodes[1] + ", target " + nodes[3]);
+        return nodes;
+    }
+
+    private static Jedis connect(String address) {
+        int colon = address.lastIndexOf(':');
+        return new Jedis(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    private static void migrate(Jedis from, String to, String key) {
+        int colon = to.lastIndexOf(':');
+        from.migrate(to.substring(0, colon), Integer.parseInt(to.substring(colon + 1)), key, 0, 2000);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException("FAILED " + message);
+        }
+        System.out.println("OK " + message);
+    }
+}